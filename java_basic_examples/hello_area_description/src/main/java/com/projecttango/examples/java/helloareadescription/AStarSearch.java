@@ -0,0 +1,90 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Plain A* over a {@link GridMap}, expanding all 8 neighbors of every cell. All per-cell state
+ * lives in a reusable {@link SearchState}.
+ */
+final class AStarSearch implements GridSearch {
+    // Expansions between looks at the interrupt flag
+    private static final int CHECK_INTERVAL = 256;
+
+    private final SearchState state = new SearchState();
+    private int expandedCount;
+    private float pathCost;
+    private LandmarkTable landmarks;
+
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        SearchState s = state;
+        s.prepare(map.size());
+        expandedCount = 0;
+        pathCost = Float.POSITIVE_INFINITY;
+
+        LandmarkTable alt = landmarks != null && landmarks.isValidFor(map) ? landmarks : null;
+
+        s.touch(start);
+        s.gScore[start] = 0;
+        s.openList.insert(start, LandmarkTable.estimate(map, alt, start, goal));
+
+        int sinceCheck = 0;
+        while (!s.openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            // Get the cell that has the lowest fScore
+            int current = s.openList.poll();
+
+            if (current == goal) {
+                pathCost = s.gScore[goal];
+                s.openList.clear();
+                return s.reconstructPath(goal);
+            }
+
+            s.closed[current] = true;
+            expandedCount++;
+
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentativegScore = s.gScore[current] + map.stepCost(current, n, d);
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                    // Already expanded, or queued with a better gScore
+                    continue;
+                }
+
+                s.parent[n] = current;
+                s.gScore[n] = tentativegScore;
+                s.push(n, tentativegScore + LandmarkTable.estimate(map, alt, n, goal));
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+}
@@ -0,0 +1,151 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an {@link AnytimeSearch} under a hard time budget. plan() blocks the caller for at most
+ * the budget and returns the best path found by then, then the search keeps lowering epsilon on
+ * a background thread and reports every better path to the listener.
+ *
+ * Starting a new plan cancels the previous one, and a cancelled plan stops reporting to its
+ * listener. cancel() only clears the current search and interrupts the improvement, so it
+ * never waits for a plan() in progress.
+ */
+final class AnytimePlanner {
+    /**
+     * Receives paths that are shorter than the one returned by plan(). Called on the planner
+     * thread.
+     */
+    interface Listener {
+        /**
+         * @param path cell ids from start to goal
+         * @param cost path cost in cells
+         * @param suboptimalityBound the path is at most this many times longer than optimal
+         */
+        void onPathImproved(GridMap map, int[] path, float cost, float suboptimalityBound);
+
+        /**
+         * The path last reported (or returned by plan) is optimal, or no path exists at all.
+         */
+        void onPlanningFinished(GridMap map, boolean pathFound);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AnytimePlanner");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private volatile Future<?> improvement;
+    // The search being planned or improved; the improvement stops once this changes
+    private volatile AnytimeSearch current;
+    private volatile LandmarkTable landmarks;
+
+    /**
+     * ALT table for later plans, used on maps it is valid for. May be null.
+     */
+    void setLandmarks(LandmarkTable landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Returns the best path found within budgetMillis, or null if none was found in time (the
+     * first path then arrives through the listener) or the goal is unreachable.
+     */
+    synchronized int[] plan(GridMap map, int start, int goal, long budgetMillis,
+                            Listener listener) {
+        cancel();
+
+        AnytimeSearch search = new AnytimeSearch(map, start, goal, landmarks);
+        current = search;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+
+        boolean finished = search.improvePath(deadline);
+        // Use what is left of the budget to tighten the first solution
+        while (finished && System.nanoTime() - deadline < 0 && search.decreaseEpsilon()) {
+            finished = search.improvePath(deadline);
+        }
+
+        int[] path = search.getPath();
+        boolean done = finished && (!search.hasPath() || search.isOptimal());
+        if (current != search) {
+            // Cancelled meanwhile
+            return null;
+        } else if (done) {
+            current = null;
+            listener.onPlanningFinished(map, path != null);
+        } else {
+            // An Improvement that starts after a cancel sees current changed and stops at once
+            improvement = executor.submit(new Improvement(search, map, finished, listener));
+        }
+        return path;
+    }
+
+    /**
+     * Stops background improvement of the current plan, if any. Safe to call from any thread
+     * without waiting for plan().
+     */
+    void cancel() {
+        current = null;
+        Future<?> running = improvement;
+        if (running != null) {
+            running.cancel(true);
+        }
+    }
+
+    void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private final class Improvement implements Runnable {
+        private final AnytimeSearch search;
+        private final GridMap map;
+        private final Listener listener;
+        private boolean finished;
+        // Lowering epsilon often proves a tighter bound without changing the path itself
+        private float reportedCost;
+
+        Improvement(AnytimeSearch search, GridMap map, boolean finished, Listener listener) {
+            this.search = search;
+            this.map = map;
+            this.finished = finished;
+            this.listener = listener;
+            reportedCost = search.getPathCost();
+        }
+
+        @Override
+        public void run() {
+            while (current == search) {
+                if (finished) {
+                    if (!search.decreaseEpsilon()) {
+                        break;
+                    }
+                }
+                finished = search.improvePath(AnytimeSearch.NO_DEADLINE);
+                if (Thread.currentThread().isInterrupted() || current != search) {
+                    return;
+                }
+                if (finished && search.getPathCost() < reportedCost) {
+                    reportedCost = search.getPathCost();
+                    listener.onPathImproved(map, search.getPath(), search.getPathCost(),
+                            search.getSuboptimalityBound());
+                }
+                if (finished && (!search.hasPath() || search.isOptimal())) {
+                    break;
+                }
+            }
+            if (current == search) {
+                current = null;
+                listener.onPlanningFinished(map, search.hasPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Anytime Repairing A* (ARA*, Likhachev, Gordon and Thrun 2003) over a {@link GridMap}. It first
+ * finds a path quickly with a heavily inflated heuristic, then lowers the inflation step by step,
+ * reusing the previous search each time, until the path is optimal. Every solution is at most
+ * {@link #getSuboptimalityBound()} times longer than the optimal one.
+ *
+ * Each instance plans one start/goal pair; work can be split across calls to
+ * {@link #improvePath(long)} with a deadline.
+ */
+final class AnytimeSearch {
+    static final float INITIAL_EPSILON = 3f;
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final float EPSILON_STEP = 0.5f;
+    // How many expansions run between checks of the clock and the interrupt flag
+    private static final int CHECK_INTERVAL = 256;
+
+    private final GridMap map;
+    private final int start;
+    private final int goal;
+    // Null when there is no landmark table valid for map
+    private final LandmarkTable landmarks;
+
+    private final IndexedMinHeap openList = new IndexedMinHeap();
+    private final float[] gScore;
+    private final int[] parent;
+    // Iteration in which a cell was last expanded; cells of older iterations count as open
+    private final int[] closedIteration;
+    // Closed cells whose g dropped during this iteration, reopened when epsilon is lowered
+    private final boolean[] inconsistent;
+    private int[] inconsistentList = new int[64];
+    private int inconsistentCount;
+
+    private int iteration = 1;
+    private float epsilon = INITIAL_EPSILON;
+    private int expandedCount;
+
+    AnytimeSearch(GridMap map, int start, int goal) {
+        this(map, start, goal, null);
+    }
+
+    /**
+     * Uses ALT bounds from landmarks when the table is valid for map.
+     */
+    AnytimeSearch(GridMap map, int start, int goal, LandmarkTable landmarks) {
+        this.map = map;
+        this.start = start;
+        this.goal = goal;
+        this.landmarks = landmarks != null && landmarks.isValidFor(map) ? landmarks : null;
+
+        int size = map.size();
+        gScore = new float[size];
+        parent = new int[size];
+        closedIteration = new int[size];
+        inconsistent = new boolean[size];
+        Arrays.fill(gScore, Float.POSITIVE_INFINITY);
+        Arrays.fill(parent, -1);
+        openList.reset(size);
+
+        gScore[start] = 0;
+        openList.insert(start, fValue(start));
+    }
+
+    /**
+     * Searches at the current epsilon until a solution is found, the open list runs out, the
+     * deadline (in System.nanoTime() terms, or {@link #NO_DEADLINE}) passes, or the thread is
+     * interrupted. Returns true in the first two cases; false means the search can be resumed
+     * with another call.
+     */
+    boolean improvePath(long deadlineNanos) {
+        int sinceCheck = 0;
+        while (!openList.isEmpty()) {
+            if (fValue(goal) <= openList.peekKey()) {
+                return true;
+            }
+
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if ((deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos > 0)
+                        || Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+            }
+
+            int s = openList.poll();
+            closedIteration[s] = iteration;
+            expandedCount++;
+
+            int column = map.columnOf(s);
+            int row = map.rowOf(s);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentativegScore = gScore[s] + map.stepCost(s, n, d);
+                if (tentativegScore >= gScore[n]) {
+                    continue;
+                }
+
+                gScore[n] = tentativegScore;
+                parent[n] = s;
+                if (closedIteration[n] != iteration) {
+                    if (openList.contains(n)) {
+                        openList.decreaseKey(n, fValue(n));
+                    } else {
+                        openList.insert(n, fValue(n));
+                    }
+                } else if (!inconsistent[n]) {
+                    inconsistent[n] = true;
+                    if (inconsistentCount == inconsistentList.length) {
+                        inconsistentList = Arrays.copyOf(inconsistentList, inconsistentCount * 2);
+                    }
+                    inconsistentList[inconsistentCount++] = n;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lowers epsilon for the next round of improvePath and reopens the cells left inconsistent
+     * by the last one. Returns false if the search is already optimal.
+     */
+    boolean decreaseEpsilon() {
+        if (epsilon <= 1f) {
+            return false;
+        }
+        epsilon = Math.max(1f, epsilon - EPSILON_STEP);
+        iteration++;
+
+        // Move INCONS into OPEN and re-key everything for the new epsilon
+        int[] open = new int[openList.size() + inconsistentCount];
+        int count = 0;
+        for (int i = 0; i < openList.size(); i++) {
+            open[count++] = openList.idAt(i);
+        }
+        for (int i = 0; i < inconsistentCount; i++) {
+            int id = inconsistentList[i];
+            inconsistent[id] = false;
+            if (!openList.contains(id)) {
+                open[count++] = id;
+            }
+        }
+        inconsistentCount = 0;
+
+        openList.clear();
+        for (int i = 0; i < count; i++) {
+            openList.insert(open[i], fValue(open[i]));
+        }
+        return true;
+    }
+
+    boolean hasPath() {
+        return gScore[goal] != Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Whether a path found by a completed improvePath is optimal, i.e. epsilon has reached 1.
+     */
+    boolean isOptimal() {
+        return epsilon <= 1f && hasPath();
+    }
+
+    /**
+     * The current path from start to goal, or null if none has been found yet.
+     */
+    int[] getPath() {
+        if (!hasPath()) {
+            return null;
+        }
+
+        int length = 0;
+        for (int cursor = goal; cursor != -1; cursor = parent[cursor]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int cursor = goal; cursor != -1; cursor = parent[cursor]) {
+            path[--length] = cursor;
+        }
+        return path;
+    }
+
+    /**
+     * Cost of the current path, in cells.
+     */
+    float getPathCost() {
+        return gScore[goal];
+    }
+
+    float getEpsilon() {
+        return epsilon;
+    }
+
+    /**
+     * How many times longer than optimal the current path can be at most: epsilon, or less if
+     * the open cells already prove a tighter bound.
+     */
+    float getSuboptimalityBound() {
+        float lowerBound = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < openList.size(); i++) {
+            int id = openList.idAt(i);
+            lowerBound = Math.min(lowerBound, gScore[id] + heuristic(id));
+        }
+        for (int i = 0; i < inconsistentCount; i++) {
+            int id = inconsistentList[i];
+            lowerBound = Math.min(lowerBound, gScore[id] + heuristic(id));
+        }
+        if (lowerBound == Float.POSITIVE_INFINITY) {
+            return 1f;
+        }
+        return Math.max(1f, Math.min(epsilon, gScore[goal] / lowerBound));
+    }
+
+    int getExpandedCount() {
+        return expandedCount;
+    }
+
+    int getStart() {
+        return start;
+    }
+
+    int getGoal() {
+        return goal;
+    }
+
+    private float fValue(int id) {
+        return gScore[id] + epsilon * heuristic(id);
+    }
+
+    private float heuristic(int id) {
+        return LandmarkTable.estimate(map, landmarks, id, goal);
+    }
+}
@@ -0,0 +1,136 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Connected components of the cells of an {@link OccupancyGrid}, 8-connected like the planners'
+ * moves. The grid cuts each tile's cells into pieces, the parts that are connected within the
+ * tile, and this keeps a union-find over the pieces as they appear and grow together. Telling
+ * whether two cells are connected then costs a flood of their two tiles' bits and two
+ * near-constant find operations, instead of a search that floods the whole component.
+ *
+ * Memory follows the number of pieces, a few per tile, rather than the number of cells, and
+ * nothing is kept per cell, so the grid can evict its tiles as before. A component is named by
+ * its root piece, which changes as components merge, so component numbers are only comparable
+ * between calls without an add in between. Not thread-safe.
+ */
+final class CellComponents {
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Union-find over pieces; size, in cells, is only meaningful at roots
+    private int[] parent = new int[INITIAL_CAPACITY];
+    private int[] size = new int[INITIAL_CAPACITY];
+    private int pieceCount;
+    private int componentCount;
+
+    int getPieceCount() {
+        return pieceCount;
+    }
+
+    int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Adds an empty piece as a component of its own and returns its number.
+     */
+    int newPiece() {
+        if (pieceCount == parent.length) {
+            parent = Arrays.copyOf(parent, parent.length * 2);
+            size = Arrays.copyOf(size, size.length * 2);
+        }
+        int piece = pieceCount++;
+        parent[piece] = piece;
+        size[piece] = 0;
+        componentCount++;
+        return piece;
+    }
+
+    /**
+     * Counts one more cell in the piece's component.
+     */
+    void grow(int piece) {
+        size[find(piece)]++;
+    }
+
+    /**
+     * Number of cells in the given component.
+     */
+    int sizeOf(int component) {
+        return size[component];
+    }
+
+    int find(int piece) {
+        int root = piece;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        // Point the whole path at the root
+        while (parent[piece] != root) {
+            int next = parent[piece];
+            parent[piece] = root;
+            piece = next;
+        }
+        return root;
+    }
+
+    /**
+     * Joins the components of the two pieces, the smaller under the larger.
+     */
+    void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        if (size[rootA] < size[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        parent[rootB] = rootA;
+        size[rootA] += size[rootB];
+        componentCount--;
+    }
+
+    /**
+     * Fills region with the cells of rows, one bit each as in an OccupancyGrid tile, that are
+     * 8-connected to (x, y) within the tile; region has one entry per row. The cell itself
+     * must be set.
+     */
+    static void flood(int[] rows, int x, int y, int[] region) {
+        Arrays.fill(region, 0);
+        region[y] = 1 << x;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // Alternate sweeps down and up, each spreading along the rows and into the next
+            for (int pass = 0; pass < 2; pass++) {
+                for (int i = 0; i < region.length; i++) {
+                    int row = pass == 0 ? i : region.length - 1 - i;
+                    int mask = region[row];
+                    if (mask == 0) {
+                        continue;
+                    }
+                    int spread;
+                    while ((spread = (mask | mask << 1 | mask >>> 1) & rows[row]) != mask) {
+                        mask = spread;
+                    }
+                    if (mask != region[row]) {
+                        region[row] = mask;
+                        changed = true;
+                    }
+                    int next = pass == 0 ? row + 1 : row - 1;
+                    if (next < 0 || next >= region.length) {
+                        continue;
+                    }
+                    int reached = (mask | mask << 1 | mask >>> 1) & rows[next] & ~region[next];
+                    if (reached != 0) {
+                        region[next] |= reached;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+}
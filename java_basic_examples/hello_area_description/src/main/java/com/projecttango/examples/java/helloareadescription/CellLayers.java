@@ -0,0 +1,205 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Byte-sized attributes of the walked cells: whether it is a door, on a ramp or near a hazard,
+ * from 0 for none to MAX_VALUE for the most there is. Snapshots copy them into one array of
+ * LAYER_COUNT bytes per cell (see GridMap.fromOccupancy) that the planners read without
+ * dereferencing anything per cell; the last of those bytes, VISITS, is the visit count the
+ * {@link OccupancyGrid} keeps itself.
+ *
+ * Cells are kept in tiles of the same size and coordinates as the grid's, each a single array
+ * with the layers of a cell next to one another. Tiles only exist where an attribute was set.
+ *
+ * Not thread-safe; like the grid that owns it, guarded by the activity's shared lock.
+ */
+final class CellLayers {
+    static final int DOOR = 0;
+    static final int RAMP = 1;
+    static final int HAZARD = 2;
+    static final int VISITS = 3;
+    static final int LAYER_COUNT = 4;
+    static final int MAX_VALUE = 255;
+
+    private static final int FILE_VERSION = 2;
+    // Layers kept here, all but VISITS
+    private static final int MARKED_COUNT = 3;
+    private static final int TILE_SHIFT = OccupancyGrid.TILE_SHIFT;
+    private static final int TILE_SIZE = OccupancyGrid.TILE_SIZE;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int TILE_LENGTH = TILE_SIZE * TILE_SIZE * MARKED_COUNT;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // Open-addressing table from tile key to the tile's attributes; null marks a free slot
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private byte[][] tiles = new byte[INITIAL_CAPACITY][];
+    private int tileCount;
+    // Bumped whenever a cell gains or loses an attribute, so snapshots know when to be rebuilt
+    private int version;
+
+    boolean isEmpty() {
+        return tileCount == 0;
+    }
+
+    int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Number of times a cell gained or lost an attribute. A change of strength alone, such as
+     * a ramp found steeper on the way back, is left out; like the visit counts, it reaches the
+     * planner with the next snapshot taken for another reason.
+     */
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Value of the layer, one of DOOR, RAMP and HAZARD, at the cell; 0 where nothing was set.
+     */
+    int get(int layer, int cellX, int cellY) {
+        checkLayer(layer);
+        byte[] tile = tiles[slotOf(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT))];
+        return tile == null ? 0 : tile[indexOf(layer, cellX, cellY)] & 0xff;
+    }
+
+    /**
+     * Sets the layer, one of DOOR, RAMP and HAZARD, at the cell to value, clamped to
+     * 0..MAX_VALUE.
+     */
+    void set(int layer, int cellX, int cellY, int value) {
+        value = Math.max(0, Math.min(MAX_VALUE, value));
+        int old = get(layer, cellX, cellY);
+        if (value == old) {
+            return;
+        }
+        tileFor(cellX, cellY)[indexOf(layer, cellX, cellY)] = (byte) value;
+        if ((old == 0) != (value == 0)) {
+            version++;
+        }
+    }
+
+    /**
+     * Copies the attributes of the cells in the given box into out, LAYER_COUNT bytes per
+     * cell in row-major order from (minX, minY), as GridMap keeps them. Cells without
+     * attributes, and the VISITS bytes, are left alone, so out should start zeroed.
+     */
+    void copyInto(byte[] out, int minX, int minY, int width, int height) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            byte[] tile = tiles[slot];
+            if (tile == null) {
+                continue;
+            }
+            int x0 = (int) (keys[slot] >> 32) << TILE_SHIFT;
+            int y0 = (int) keys[slot] << TILE_SHIFT;
+            int fromX = Math.max(x0, minX);
+            int toX = Math.min(x0 + TILE_SIZE, minX + width);
+            int fromY = Math.max(y0, minY);
+            int toY = Math.min(y0 + TILE_SIZE, minY + height);
+            if (fromX >= toX) {
+                continue;
+            }
+            for (int y = fromY; y < toY; y++) {
+                int from = indexOf(0, fromX, y);
+                int to = ((y - minY) * width + fromX - minX) * LAYER_COUNT;
+                for (int x = fromX; x < toX; x++) {
+                    System.arraycopy(tile, from, out, to, MARKED_COUNT);
+                    from += MARKED_COUNT;
+                    to += LAYER_COUNT;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the attributes with those written by writeTo, unless they were written by
+     * another version. Returns whether they were read.
+     */
+    boolean readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_VERSION) {
+            return false;
+        }
+        keys = new long[INITIAL_CAPACITY];
+        tiles = new byte[INITIAL_CAPACITY][];
+        tileCount = 0;
+        version++;
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            int tileX = in.readInt();
+            int tileY = in.readInt();
+            in.readFully(tileFor(tileX << TILE_SHIFT, tileY << TILE_SHIFT));
+        }
+        return true;
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeInt(tileCount);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (tiles[slot] != null) {
+                out.writeInt((int) (keys[slot] >> 32));
+                out.writeInt((int) keys[slot]);
+                out.write(tiles[slot]);
+            }
+        }
+    }
+
+    private static int indexOf(int layer, int cellX, int cellY) {
+        return (((cellY & TILE_MASK) << TILE_SHIFT) + (cellX & TILE_MASK)) * MARKED_COUNT + layer;
+    }
+
+    private static void checkLayer(int layer) {
+        if (layer < 0 || layer >= MARKED_COUNT) {
+            throw new IllegalArgumentException("Layer " + layer + " is not kept in CellLayers");
+        }
+    }
+
+    private static long tileKey(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xffffffffL);
+    }
+
+    /**
+     * The tile holding the cell, created if there is none yet.
+     */
+    private byte[] tileFor(int cellX, int cellY) {
+        long key = tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT);
+        int slot = slotOf(key);
+        if (tiles[slot] == null) {
+            if ((tileCount + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+                slot = slotOf(key);
+            }
+            keys[slot] = key;
+            tiles[slot] = new byte[TILE_LENGTH];
+            tileCount++;
+        }
+        return tiles[slot];
+    }
+
+    private int slotOf(long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (tiles[slot] != null && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        byte[][] oldTiles = tiles;
+        keys = new long[capacity];
+        tiles = new byte[capacity][];
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (oldTiles[old] != null) {
+                int slot = slotOf(oldKeys[old]);
+                keys[slot] = oldKeys[old];
+                tiles[slot] = oldTiles[old];
+            }
+        }
+    }
+}
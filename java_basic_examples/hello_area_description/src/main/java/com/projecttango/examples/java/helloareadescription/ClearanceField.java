@@ -0,0 +1,262 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Distance from every cell of a {@link GridMap} to the nearest cell that is not walked, and the
+ * cost penalty that gives cells close to the edge of the walked area, so that the 8-connected
+ * planners keep the user off the walls.
+ *
+ * Distances are exact Euclidean ones from the linear-time transform of Felzenszwalb and
+ * Huttenlocher (2012): a lower envelope of parabolas down every column, then along every row.
+ * They are capped at the penalty radius, since nothing beyond it is penalised, which also means
+ * a walked cell can only change distances within that radius. update therefore only transforms
+ * the box around the cells walked since the last snapshot, plus the radius.
+ *
+ * Penalty arrays are handed to GridMap.withPenalty and never written to again. Not thread-safe.
+ */
+final class ClearanceField {
+    // Stands in for the distance to a cell that is not walked in a line that has none
+    private static final float FAR = 1e15f;
+
+    private final float radius;
+    private final float weight;
+    private GridMap map;
+    // map with the penalty, handed out again while the snapshot stays the same
+    private GridMap penalised;
+    // Clearance of every cell in cells, capped at the radius; 0 for cells that are not walked
+    private float[] clearance = new float[0];
+    private float[] penalty = new float[0];
+    private int updatedCount;
+
+    // Scratch for the transform
+    private float[] column = new float[0];
+    private float[] squared = new float[0];
+    private float[] envelope = new float[0];
+    private int[] vertex = new int[0];
+    private double[] boundary = new double[0];
+
+    /**
+     * A field penalising cells closer than radius metres to the edge by up to weight times a
+     * step's cost, falling off linearly with the clearance.
+     */
+    ClearanceField(float radius, float weight) {
+        this.radius = radius;
+        this.weight = weight;
+    }
+
+    float getRadius() {
+        return radius;
+    }
+
+    float getWeight() {
+        return weight;
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    /**
+     * Clearance of the cell in metres, capped at the radius.
+     */
+    float clearanceOf(int id) {
+        return clearance[id] * map.getGranularity();
+    }
+
+    /**
+     * Number of cells the last update transformed.
+     */
+    int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    /**
+     * Brings the field up to date with the snapshot and returns the snapshot with the penalty.
+     * Repairs only around the cells walked, or dropped, since the last snapshot when its
+     * bounding box contains the last one's, and transforms the whole map otherwise.
+     */
+    GridMap update(GridMap next) {
+        if (next == map) {
+            return penalised;
+        }
+        int capCells = (int) Math.ceil(radius / next.getGranularity());
+        int width = next.getWidth();
+        int height = next.getHeight();
+        float[] nextClearance = new float[next.size()];
+        float[] nextPenalty = new float[next.size()];
+
+        // Box of the cells to transform, in the columns and rows of next
+        int minColumn = 0;
+        int minRow = 0;
+        int maxColumn = width - 1;
+        int maxRow = height - 1;
+        if (canRepair(next)) {
+            int shiftX = map.getOriginX() - next.getOriginX();
+            int shiftY = map.getOriginY() - next.getOriginY();
+            // Cells new to the bounding box are not walked unless the diff below says so
+            Arrays.fill(nextPenalty, weight);
+            for (int row = 0; row < map.getHeight(); row++) {
+                int to = (row + shiftY) * width + shiftX;
+                System.arraycopy(clearance, row * map.getWidth(), nextClearance, to,
+                        map.getWidth());
+                System.arraycopy(penalty, row * map.getWidth(), nextPenalty, to,
+                        map.getWidth());
+            }
+            minColumn = width;
+            minRow = height;
+            maxColumn = -1;
+            maxRow = -1;
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    if (next.isWalkable(row * width + col)
+                            != map.isWalkable(col - shiftX, row - shiftY)) {
+                        minColumn = Math.min(minColumn, col);
+                        maxColumn = Math.max(maxColumn, col);
+                        minRow = Math.min(minRow, row);
+                        maxRow = Math.max(maxRow, row);
+                    }
+                }
+            }
+            if (maxColumn >= 0) {
+                minColumn = Math.max(0, minColumn - capCells);
+                minRow = Math.max(0, minRow - capCells);
+                maxColumn = Math.min(width - 1, maxColumn + capCells);
+                maxRow = Math.min(height - 1, maxRow + capCells);
+            }
+        }
+
+        updatedCount = 0;
+        if (minColumn <= maxColumn && minRow <= maxRow) {
+            transform(next, nextClearance, capCells, minColumn, minRow, maxColumn, maxRow);
+            for (int row = minRow; row <= maxRow; row++) {
+                for (int id = row * width + minColumn; id <= row * width + maxColumn; id++) {
+                    float free = radius - nextClearance[id] * next.getGranularity();
+                    nextPenalty[id] = free > 0 ? weight * free / radius : 0;
+                }
+            }
+        }
+        map = next;
+        clearance = nextClearance;
+        penalty = nextPenalty;
+        penalised = next.withPenalty(nextPenalty, capCells);
+        return penalised;
+    }
+
+    /**
+     * Whether next lays its cells out like the current snapshot, in a bounding box that
+     * contains the current one.
+     */
+    private boolean canRepair(GridMap next) {
+        return map != null && map.getGranularity() == next.getGranularity()
+                && next.getOriginX() <= map.getOriginX() && next.getOriginY() <= map.getOriginY()
+                && next.getOriginX() + next.getWidth() >= map.getOriginX() + map.getWidth()
+                && next.getOriginY() + next.getHeight() >= map.getOriginY() + map.getHeight();
+    }
+
+    /**
+     * Writes the capped distances of the cells in the given box into out. Cells farther than
+     * the cap outside the box cannot be nearer than the cap, so the transform only looks that
+     * far out, and one cell beyond the map, which counts as not walked.
+     */
+    private void transform(GridMap next, float[] out, int capCells, int minColumn, int minRow,
+                           int maxColumn, int maxRow) {
+        int width = next.getWidth();
+        int fromColumn = Math.max(-1, minColumn - capCells);
+        int toColumn = Math.min(width, maxColumn + capCells);
+        int fromRow = Math.max(-1, minRow - capCells);
+        int toRow = Math.min(next.getHeight(), maxRow + capCells);
+        int columns = toColumn - fromColumn + 1;
+        int rows = toRow - fromRow + 1;
+        ensureScratch(columns * rows, Math.max(columns, rows));
+
+        // Squared distance to the nearest unwalked cell in the same column, from a sweep down
+        // and one back up
+        for (int c = 0; c < columns; c++) {
+            float distance = FAR;
+            for (int r = 0; r < rows; r++) {
+                distance = next.isWalkable(fromColumn + c, fromRow + r) ? distance + 1 : 0;
+                column[r] = distance;
+            }
+            distance = FAR;
+            for (int r = rows - 1; r >= 0; r--) {
+                distance = column[r] == 0 ? 0 : distance + 1;
+                float nearest = Math.min(column[r], distance);
+                squared[r * columns + c] = nearest >= FAR ? FAR : nearest * nearest;
+            }
+        }
+        // then along each row of the box to the nearest such column distance
+        float cap = capCells;
+        for (int row = minRow; row <= maxRow; row++) {
+            int r = row - fromRow;
+            System.arraycopy(squared, r * columns, column, 0, columns);
+            lowerEnvelope(column, columns);
+            for (int col = minColumn; col <= maxColumn; col++) {
+                float distance = (float) Math.sqrt(envelope[col - fromColumn]);
+                out[row * width + col] = Math.min(distance, cap);
+                updatedCount++;
+            }
+        }
+    }
+
+    /**
+     * One-dimensional squared distance transform of the first n values of f into envelope:
+     * envelope[q] = min over p of (q - p)^2 + f[p], or FAR where every f[p] is FAR.
+     */
+    private void lowerEnvelope(float[] f, int n) {
+        // Parabolas of the envelope so far, and where each starts to be the lowest
+        int k = -1;
+        for (int q = 0; q < n; q++) {
+            if (f[q] >= FAR) {
+                continue;
+            }
+            double s = Double.NEGATIVE_INFINITY;
+            while (k >= 0) {
+                int p = vertex[k];
+                s = ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * (q - p));
+                if (s > boundary[k]) {
+                    break;
+                }
+                k--;
+            }
+            if (k < 0) {
+                s = Double.NEGATIVE_INFINITY;
+            }
+            k++;
+            vertex[k] = q;
+            boundary[k] = s;
+            boundary[k + 1] = Double.POSITIVE_INFINITY;
+        }
+        if (k < 0) {
+            Arrays.fill(envelope, 0, n, FAR);
+            return;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (boundary[k + 1] < q) {
+                k++;
+            }
+            int p = vertex[k];
+            envelope[q] = (float) (q - p) * (q - p) + f[p];
+        }
+    }
+
+    private void ensureScratch(int area, int line) {
+        if (squared.length < area) {
+            squared = new float[area];
+        }
+        if (column.length < line) {
+            column = new float[line];
+            envelope = new float[line];
+            vertex = new int[line];
+            boundary = new double[line + 1];
+        }
+    }
+
+    /**
+     * Clearance in cells of every id, for tests of the transform against brute force.
+     */
+    float[] getClearance() {
+        return Arrays.copyOf(clearance, clearance.length);
+    }
+}
@@ -0,0 +1,97 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * The square clusters of clusterSize cells a side that {@link HierarchicalPlanner} and
+ * {@link CorridorRouter} cut a map into, numbered row by row, and the searches confined to
+ * them. The clusters along the east and south edges may be smaller.
+ */
+final class ClusterLayout {
+    private final GridMap map;
+    private final int clusterSize;
+    private final int columns;
+    private final int rows;
+
+    ClusterLayout(GridMap map, int clusterSize) {
+        this.map = map;
+        this.clusterSize = clusterSize;
+        this.columns = (map.getWidth() + clusterSize - 1) / clusterSize;
+        this.rows = (map.getHeight() + clusterSize - 1) / clusterSize;
+    }
+
+    int getColumns() {
+        return columns;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    int getClusterCount() {
+        return columns * rows;
+    }
+
+    int clusterOf(int id) {
+        return (map.rowOf(id) / clusterSize) * columns + map.columnOf(id) / clusterSize;
+    }
+
+    /**
+     * Whether clusters a and b are the same or touch, corners included.
+     */
+    boolean neighbors(int a, int b) {
+        return Math.abs(a % columns - b % columns) <= 1 && Math.abs(a / columns - b / columns) <= 1;
+    }
+
+    /**
+     * Dijkstra from one cell that never leaves cluster c, stopping early once target (if not
+     * -1) is settled. Results are left in s.
+     */
+    void floodCluster(SearchState s, int c, int from, int target) {
+        floodClusters(s, c, c, from, target);
+    }
+
+    /**
+     * As floodCluster, but confined to the box around neighboring clusters a and b instead.
+     */
+    void floodClusters(SearchState s, int a, int b, int from, int target) {
+        int x0 = Math.min(a % columns, b % columns) * clusterSize;
+        int y0 = Math.min(a / columns, b / columns) * clusterSize;
+        int x1 = Math.min((Math.max(a % columns, b % columns) + 1) * clusterSize,
+                map.getWidth()) - 1;
+        int y1 = Math.min((Math.max(a / columns, b / columns) + 1) * clusterSize,
+                map.getHeight()) - 1;
+
+        s.prepare(map.size());
+        s.touch(from);
+        s.gScore[from] = 0;
+        s.openList.insert(from, 0);
+        while (!s.openList.isEmpty()) {
+            int current = s.openList.poll();
+            if (current == target) {
+                s.openList.clear();
+                return;
+            }
+            s.closed[current] = true;
+
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (neighborColumn < x0 || neighborColumn > x1 || neighborRow < y0
+                        || neighborRow > y1 || !map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentativegScore = s.gScore[current] + GridMap.DIRECTION_COST[d];
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                    continue;
+                }
+                s.parent[n] = current;
+                s.gScore[n] = tentativegScore;
+                s.push(n, tentativegScore);
+            }
+        }
+    }
+}
@@ -0,0 +1,462 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Contraction hierarchy (Geisberger et al. 2008) over a {@link CorridorGraph}. Nodes are removed
+ * one at a time, least important first, and whenever a removed node lay on the only shortest
+ * path between two of its neighbors a shortcut edge replaces it. A query then runs Dijkstra from
+ * both ends but only ever along edges towards nodes removed later, which settles a few dozen
+ * nodes even on large maps. Shortcuts remember the node they skip so routes can be unpacked
+ * into original edges.
+ */
+final class ContractionHierarchy {
+    private static final int FILE_VERSION = 1;
+    // Witness searches give up after settling this many nodes and add the shortcut instead
+    private static final int WITNESS_SETTLE_LIMIT = 40;
+
+    private final int nodeCount;
+    // Upward edges of node v are [offsets[v], offsets[v + 1]); mids[e] is the node a shortcut
+    // skips, -1 for original edges
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+    private final int[] mids;
+
+    private final SearchState forward = new SearchState();
+    private final SearchState backward = new SearchState();
+    private int meeting = -1;
+    private int expandedCount;
+
+    private ContractionHierarchy(int nodeCount, int[] offsets, int[] targets, float[] weights,
+                                 int[] mids) {
+        this.nodeCount = nodeCount;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.mids = mids;
+    }
+
+    static ContractionHierarchy build(CorridorGraph graph) {
+        return new Builder(graph).contract();
+    }
+
+    static ContractionHierarchy readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != FILE_VERSION) {
+            return null;
+        }
+        int nodeCount = in.readInt();
+        int[] offsets = new int[nodeCount + 1];
+        for (int v = 0; v <= nodeCount; v++) {
+            offsets[v] = in.readInt();
+        }
+        int edgeCount = offsets[nodeCount];
+        int[] targets = new int[edgeCount];
+        float[] weights = new float[edgeCount];
+        int[] mids = new int[edgeCount];
+        for (int e = 0; e < edgeCount; e++) {
+            targets[e] = in.readInt();
+            weights[e] = in.readFloat();
+            mids[e] = in.readInt();
+        }
+        return new ContractionHierarchy(nodeCount, offsets, targets, weights, mids);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeInt(nodeCount);
+        for (int offset : offsets) {
+            out.writeInt(offset);
+        }
+        for (int e = 0; e < targets.length; e++) {
+            out.writeInt(targets[e]);
+            out.writeFloat(weights[e]);
+            out.writeInt(mids[e]);
+        }
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getShortcutCount() {
+        int count = 0;
+        for (int mid : mids) {
+            if (mid >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Cheapest cost from any of the first sourceCount sources, starting at the given costs, to
+     * any of the targets, plus the cost of reaching that target. Infinite if none is reachable.
+     * unpack then returns the route itself.
+     */
+    float query(int[] sources, float[] sourceCosts, int sourceCount,
+                int[] targets, float[] targetCosts, int targetCount) {
+        forward.prepare(nodeCount);
+        backward.prepare(nodeCount);
+        meeting = -1;
+        expandedCount = 0;
+        for (int i = 0; i < sourceCount; i++) {
+            seed(forward, sources[i], sourceCosts[i]);
+        }
+        for (int i = 0; i < targetCount; i++) {
+            seed(backward, targets[i], targetCosts[i]);
+        }
+
+        float best = Float.POSITIVE_INFINITY;
+        while (true) {
+            boolean forwardDone = forward.openList.isEmpty() || forward.openList.peekKey() >= best;
+            boolean backwardDone = backward.openList.isEmpty()
+                    || backward.openList.peekKey() >= best;
+            if (forwardDone && backwardDone) {
+                break;
+            }
+            boolean forwardTurn = backwardDone || (!forwardDone
+                    && forward.openList.peekKey() <= backward.openList.peekKey());
+            SearchState s = forwardTurn ? forward : backward;
+            SearchState other = forwardTurn ? backward : forward;
+
+            int current = s.openList.poll();
+            s.closed[current] = true;
+            expandedCount++;
+            if (other.isTouched(current) && s.gScore[current] + other.gScore[current] < best) {
+                best = s.gScore[current] + other.gScore[current];
+                meeting = current;
+            }
+
+            for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                int n = this.targets[e];
+                float tentativegScore = s.gScore[current] + weights[e];
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                    continue;
+                }
+                s.parent[n] = current;
+                s.gScore[n] = tentativegScore;
+                s.push(n, tentativegScore);
+                if (other.isTouched(n) && tentativegScore + other.gScore[n] < best) {
+                    best = tentativegScore + other.gScore[n];
+                    meeting = n;
+                }
+            }
+        }
+        forward.openList.clear();
+        backward.openList.clear();
+        return best;
+    }
+
+    /**
+     * Nodes of the route found by the last query, from the source it starts at to the target it
+     * ends at, with every shortcut replaced by the original edges it stands for. Null if the
+     * last query found no route.
+     */
+    int[] unpack() {
+        if (meeting < 0) {
+            return null;
+        }
+        // Up from the source to the meeting node, then down to the target
+        int[] up = forward.reconstructPath(meeting);
+        int[] down = backward.reconstructPath(meeting);
+        int[] hops = Arrays.copyOf(up, up.length + down.length - 1);
+        for (int i = 1; i < down.length; i++) {
+            hops[up.length - 1 + i] = down[down.length - 1 - i];
+        }
+
+        int[] route = new int[hops.length * 2];
+        int length = 0;
+        route[length++] = hops[0];
+        int[] stack = new int[16];
+        for (int h = 0; h + 1 < hops.length; h++) {
+            int top = 0;
+            stack[top++] = hops[h];
+            stack[top++] = hops[h + 1];
+            while (top > 0) {
+                int b = stack[--top];
+                int a = stack[--top];
+                int mid = midBetween(a, b);
+                if (mid < 0) {
+                    if (length == route.length) {
+                        route = Arrays.copyOf(route, length * 2);
+                    }
+                    route[length++] = b;
+                    continue;
+                }
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                // (a, mid) is unpacked before (mid, b)
+                stack[top++] = mid;
+                stack[top++] = b;
+                stack[top++] = a;
+                stack[top++] = mid;
+            }
+        }
+        return Arrays.copyOf(route, length);
+    }
+
+    int getExpandedCount() {
+        return expandedCount;
+    }
+
+    private static void seed(SearchState s, int node, float cost) {
+        if (!s.isTouched(node)) {
+            s.touch(node);
+        } else if (cost >= s.gScore[node]) {
+            return;
+        }
+        s.gScore[node] = cost;
+        s.push(node, cost);
+    }
+
+    /**
+     * The node the edge between a and b skips, or -1 if it is an original edge. The edge is
+     * stored with whichever end was contracted first.
+     */
+    private int midBetween(int a, int b) {
+        for (int e = offsets[a]; e < offsets[a + 1]; e++) {
+            if (targets[e] == b) {
+                return mids[e];
+            }
+        }
+        for (int e = offsets[b]; e < offsets[b + 1]; e++) {
+            if (targets[e] == a) {
+                return mids[e];
+            }
+        }
+        throw new IllegalStateException("No edge between " + a + " and " + b);
+    }
+
+    /**
+     * Working copy of the graph while nodes are contracted.
+     */
+    private static final class Builder {
+        private final int nodeCount;
+        private final int[][] neighbors;
+        private final float[][] costs;
+        private final int[][] skipped;
+        private final int[] degree;
+        private final boolean[] contracted;
+        private final int[] contractedNeighbors;
+        private final SearchState witness = new SearchState();
+
+        Builder(CorridorGraph graph) {
+            nodeCount = graph.size();
+            neighbors = new int[nodeCount][];
+            costs = new float[nodeCount][];
+            skipped = new int[nodeCount][];
+            degree = new int[nodeCount];
+            contracted = new boolean[nodeCount];
+            contractedNeighbors = new int[nodeCount];
+            for (int v = 0; v < nodeCount; v++) {
+                int capacity = Math.max(4, graph.endEdge(v) - graph.firstEdge(v));
+                neighbors[v] = new int[capacity];
+                costs[v] = new float[capacity];
+                skipped[v] = new int[capacity];
+                for (int e = graph.firstEdge(v); e < graph.endEdge(v); e++) {
+                    addEdge(v, graph.target(e), graph.weight(e), -1);
+                }
+            }
+        }
+
+        ContractionHierarchy contract() {
+            IndexedMinHeap queue = new IndexedMinHeap();
+            queue.reset(nodeCount);
+            for (int v = 0; v < nodeCount; v++) {
+                queue.insert(v, priority(v));
+            }
+
+            int[] offsets = new int[nodeCount + 1];
+            int[][] upTargets = new int[nodeCount][];
+            float[][] upWeights = new float[nodeCount][];
+            int[][] upMids = new int[nodeCount][];
+            while (!queue.isEmpty()) {
+                // Priorities go stale as neighbors are contracted; recompute lazily
+                int v = queue.peek();
+                float current = priority(v);
+                queue.update(v, current, 0f);
+                if (queue.peek() != v) {
+                    continue;
+                }
+                queue.poll();
+
+                int count = 0;
+                upTargets[v] = new int[degree[v]];
+                upWeights[v] = new float[degree[v]];
+                upMids[v] = new int[degree[v]];
+                for (int i = 0; i < degree[v]; i++) {
+                    int n = neighbors[v][i];
+                    if (!contracted[n]) {
+                        upTargets[v][count] = n;
+                        upWeights[v][count] = costs[v][i];
+                        upMids[v][count] = skipped[v][i];
+                        count++;
+                    }
+                }
+                offsets[v + 1] = count;
+                contractNode(v);
+            }
+
+            for (int v = 0; v < nodeCount; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] targets = new int[offsets[nodeCount]];
+            float[] weights = new float[targets.length];
+            int[] mids = new int[targets.length];
+            for (int v = 0; v < nodeCount; v++) {
+                int count = offsets[v + 1] - offsets[v];
+                System.arraycopy(upTargets[v], 0, targets, offsets[v], count);
+                System.arraycopy(upWeights[v], 0, weights, offsets[v], count);
+                System.arraycopy(upMids[v], 0, mids, offsets[v], count);
+            }
+            return new ContractionHierarchy(nodeCount, offsets, targets, weights, mids);
+        }
+
+        /**
+         * Edge difference (shortcuts added minus edges removed) plus contracted neighbors, which
+         * spreads contraction evenly over the graph.
+         */
+        private float priority(int v) {
+            int active = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                if (!contracted[neighbors[v][i]]) {
+                    active++;
+                }
+            }
+            return shortcuts(v, false) - active + contractedNeighbors[v];
+        }
+
+        private void contractNode(int v) {
+            shortcuts(v, true);
+            contracted[v] = true;
+            for (int i = 0; i < degree[v]; i++) {
+                contractedNeighbors[neighbors[v][i]]++;
+            }
+        }
+
+        /**
+         * Counts, or adds if add is set, the shortcuts contracting v needs: one for every pair
+         * of remaining neighbors whose shortest connection runs through v.
+         */
+        private int shortcuts(int v, boolean add) {
+            int count = 0;
+            for (int i = 0; i < degree[v]; i++) {
+                int u = neighbors[v][i];
+                if (contracted[u]) {
+                    continue;
+                }
+                float toU = costs[v][i];
+                float limit = 0;
+                boolean searchNeeded = false;
+                for (int j = 0; j < degree[v]; j++) {
+                    int w = neighbors[v][j];
+                    if (j == i || contracted[w]) {
+                        continue;
+                    }
+                    float via = toU + costs[v][j];
+                    limit = Math.max(limit, via);
+                    if (edgeCost(u, w) > via) {
+                        searchNeeded = true;
+                    }
+                }
+                if (!searchNeeded) {
+                    continue;
+                }
+
+                witnessSearch(u, v, limit);
+                for (int j = 0; j < degree[v]; j++) {
+                    int w = neighbors[v][j];
+                    if (j == i || contracted[w]) {
+                        continue;
+                    }
+                    float via = toU + costs[v][j];
+                    boolean witnessed = witness.isTouched(w) && witness.gScore[w] <= via;
+                    // Each pair is looked at from both ends; only count and add it once
+                    if (!witnessed && u < w) {
+                        count++;
+                        if (add) {
+                            addEdge(u, w, via, v);
+                            addEdge(w, u, via, v);
+                        }
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Bounded Dijkstra from u over the remaining graph without v.
+         */
+        private void witnessSearch(int u, int v, float limit) {
+            SearchState s = witness;
+            s.prepare(nodeCount);
+            s.touch(u);
+            s.gScore[u] = 0;
+            s.openList.insert(u, 0);
+            int settled = 0;
+            while (!s.openList.isEmpty() && settled < WITNESS_SETTLE_LIMIT) {
+                int current = s.openList.poll();
+                if (s.gScore[current] > limit) {
+                    break;
+                }
+                s.closed[current] = true;
+                settled++;
+                for (int i = 0; i < degree[current]; i++) {
+                    int n = neighbors[current][i];
+                    if (n == v || contracted[n]) {
+                        continue;
+                    }
+                    float tentativegScore = s.gScore[current] + costs[current][i];
+                    if (!s.isTouched(n)) {
+                        s.touch(n);
+                    } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                        continue;
+                    }
+                    s.gScore[n] = tentativegScore;
+                    s.push(n, tentativegScore);
+                }
+            }
+            s.openList.clear();
+        }
+
+        private float edgeCost(int u, int w) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == w) {
+                    return costs[u][i];
+                }
+            }
+            return Float.POSITIVE_INFINITY;
+        }
+
+        /**
+         * Adds the edge from u to w, or lowers the cost of the one already there.
+         */
+        private void addEdge(int u, int w, float cost, int mid) {
+            for (int i = 0; i < degree[u]; i++) {
+                if (neighbors[u][i] == w) {
+                    if (cost < costs[u][i]) {
+                        costs[u][i] = cost;
+                        skipped[u][i] = mid;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == neighbors[u].length) {
+                neighbors[u] = Arrays.copyOf(neighbors[u], degree[u] * 2);
+                costs[u] = Arrays.copyOf(costs[u], degree[u] * 2);
+                skipped[u] = Arrays.copyOf(skipped[u], degree[u] * 2);
+            }
+            neighbors[u][degree[u]] = w;
+            costs[u][degree[u]] = cost;
+            skipped[u][degree[u]] = mid;
+            degree[u]++;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Sparse, undirected graph distilled from a {@link GridMap}: the entrances between square
+ * clusters of cells, linked by the cost of walking between them. It has a small fraction of the
+ * map's cells as nodes, and a path between two nodes joined by an edge never leaves the cluster
+ * of the first (or steps straight over the border into the other's), so every edge can be turned
+ * back into cells with a search confined to one cluster.
+ *
+ * Extracted by {@link HierarchicalPlanner#toCorridorGraph()}; {@link ContractionHierarchy}
+ * preprocesses it for fast queries.
+ */
+final class CorridorGraph {
+    private final GridMap map;
+    private final int clusterSize;
+    // Map id of every node, ascending
+    private final int[] cells;
+    // Edges of node v are targets/weights[offsets[v] .. offsets[v + 1])
+    private final int[] offsets;
+    private final int[] targets;
+    private final float[] weights;
+
+    CorridorGraph(GridMap map, int clusterSize, int[] cells, int[] offsets, int[] targets,
+                  float[] weights) {
+        this.map = map;
+        this.clusterSize = clusterSize;
+        this.cells = cells;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Extracts the graph of the given map with clusters of clusterSize cells a side.
+     */
+    static CorridorGraph extract(GridMap map, int clusterSize) {
+        HierarchicalPlanner planner = new HierarchicalPlanner(clusterSize);
+        planner.update(map);
+        return planner.toCorridorGraph();
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    int getClusterSize() {
+        return clusterSize;
+    }
+
+    int size() {
+        return cells.length;
+    }
+
+    int getEdgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Map ids of the nodes, ascending, so node v is cells[v]. Not to be modified.
+     */
+    int[] getCells() {
+        return cells;
+    }
+
+    int firstEdge(int node) {
+        return offsets[node];
+    }
+
+    int endEdge(int node) {
+        return offsets[node + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    float weight(int edge) {
+        return weights[edge];
+    }
+}
@@ -0,0 +1,73 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Offline step that builds the {@link CorridorRouter} of a saved map on a desktop JVM, so the
+ * phone only has to load it. Reads the ADF's JSON sidecar (the file named after the ADF's UUID
+ * that storeValuesToJSON writes) and stores the router next to it as
+ * {@code <sidecar>_corridors}, where the activity looks for it:
+ *
+ * <pre>
+ * adb exec-out run-as com.projecttango.examples.java.helloareadescription cat files/UUID &gt; UUID
+ * java -cp classes:jackson-core.jar:jackson-annotations.jar:jackson-databind.jar \
+ *     com.projecttango.examples.java.helloareadescription.CorridorPreprocessor UUID
+ * </pre>
+ *
+ * and push {@code UUID_corridors} back into the app's files directory. Without it the app builds
+ * the router itself in the background after loading the map.
+ */
+final class CorridorPreprocessor {
+    static final String FILE_SUFFIX = "_corridors";
+
+    private CorridorPreprocessor() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: CorridorPreprocessor <sidecar json> [granularity]");
+            System.exit(2);
+        }
+        File sidecar = new File(args[0]);
+
+        ObjectMapper mapper = new ObjectMapper();
+        JsonNode root = mapper.readTree(sidecar);
+        if (!root.has("coordinateSet")) {
+            System.err.println(sidecar + " has no coordinateSet");
+            System.exit(1);
+        }
+        // Maps saved without a granularity use the old fixed one, unless it is given
+        float granularity = args.length > 1 ? Float.parseFloat(args[1])
+                : (float) root.path("granularity").asDouble(GridMap.DEFAULT_GRANULARITY);
+        // The activity stores the set as a JSON string inside the JSON object
+        List<Node> coordinates = mapper.readValue(root.get("coordinateSet").asText(),
+                new TypeReference<List<Node>>() {
+                });
+
+        long startTime = System.currentTimeMillis();
+        GridMap map = GridMap.fromOccupancy(OccupancyGrid.fromNodes(coordinates, granularity));
+        CorridorRouter router = CorridorRouter.build(map, HierarchicalPlanner.DEFAULT_CLUSTER_SIZE);
+        long buildMillis = System.currentTimeMillis() - startTime;
+
+        File output = new File(sidecar.getPath() + FILE_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(output)));
+        try {
+            router.writeTo(out);
+        } finally {
+            out.close();
+        }
+        System.out.println(map.getWalkableCount() + " walkable cells, " + router.getNodeCount()
+                + " corridor nodes, " + router.getShortcutCount() + " shortcuts, built in "
+                + buildMillis + " ms; wrote " + output);
+    }
+}
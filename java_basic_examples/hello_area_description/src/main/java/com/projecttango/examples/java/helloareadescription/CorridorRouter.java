@@ -0,0 +1,283 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Route queries on a preprocessed map: a {@link ContractionHierarchy} over the map's
+ * {@link CorridorGraph}. Start and goal are joined to the entrances of their own clusters by
+ * searches confined to those clusters, the hierarchy finds the best entrance-to-entrance route,
+ * and every hop is refined into cells within one cluster again. A goal in the same or a
+ * neighboring cluster is also tried directly. Like those of {@link HierarchicalPlanner}, routes
+ * are not always shortest, and plain step costs are all the router knows of.
+ *
+ * A router only answers for the map it was built on, which {@link CorridorPreprocessor} stores
+ * next to the ADF; cells walked since then are not used.
+ */
+final class CorridorRouter {
+    private static final int FILE_VERSION = 1;
+
+    private final GridMap map;
+    private final int clusterSize;
+    private final ClusterLayout layout;
+    // Map id of every graph node, ascending
+    private final int[] cells;
+    private final ContractionHierarchy hierarchy;
+    // Graph nodes of cluster c are clusterNodes[clusterStart[c] .. clusterStart[c + 1])
+    private final int[] clusterStart;
+    private final int[] clusterNodes;
+
+    private final SearchState local = new SearchState();
+    private float pathCost;
+
+    private CorridorRouter(GridMap map, int clusterSize, int[] cells,
+                           ContractionHierarchy hierarchy) {
+        this.map = map;
+        this.clusterSize = clusterSize;
+        this.layout = new ClusterLayout(map, clusterSize);
+        this.cells = cells;
+        this.hierarchy = hierarchy;
+
+        int clusterCount = layout.getClusterCount();
+        clusterStart = new int[clusterCount + 1];
+        for (int cell : cells) {
+            clusterStart[layout.clusterOf(cell) + 1]++;
+        }
+        for (int c = 0; c < clusterCount; c++) {
+            clusterStart[c + 1] += clusterStart[c];
+        }
+        clusterNodes = new int[cells.length];
+        int[] next = Arrays.copyOf(clusterStart, clusterCount);
+        for (int node = 0; node < cells.length; node++) {
+            clusterNodes[next[layout.clusterOf(cells[node])]++] = node;
+        }
+    }
+
+    /**
+     * Extracts the corridor graph of map and contracts it. Takes a while on large maps; meant
+     * for a background thread or {@link CorridorPreprocessor}.
+     */
+    static CorridorRouter build(GridMap map, int clusterSize) {
+        CorridorGraph graph = CorridorGraph.extract(map, clusterSize);
+        return new CorridorRouter(map, clusterSize, graph.getCells(),
+                ContractionHierarchy.build(graph));
+    }
+
+    /**
+     * Reads a router written by writeTo, or returns null if it was built on a different map.
+     */
+    static CorridorRouter readFrom(DataInputStream in, GridMap map) throws IOException {
+        if (in.readInt() != FILE_VERSION) {
+            return null;
+        }
+        float granularity = in.readFloat();
+        int originX = in.readInt();
+        int originY = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int fingerprint = in.readInt();
+        if (granularity != map.getGranularity() || originX != map.getOriginX()
+                || originY != map.getOriginY() || width != map.getWidth()
+                || height != map.getHeight() || fingerprint != map.fingerprint()) {
+            return null;
+        }
+
+        int clusterSize = in.readInt();
+        int[] cells = new int[in.readInt()];
+        for (int node = 0; node < cells.length; node++) {
+            cells[node] = in.readInt();
+        }
+        ContractionHierarchy hierarchy = ContractionHierarchy.readFrom(in);
+        if (hierarchy == null || hierarchy.getNodeCount() != cells.length) {
+            return null;
+        }
+        return new CorridorRouter(map, clusterSize, cells, hierarchy);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeFloat(map.getGranularity());
+        out.writeInt(map.getOriginX());
+        out.writeInt(map.getOriginY());
+        out.writeInt(map.getWidth());
+        out.writeInt(map.getHeight());
+        out.writeInt(map.fingerprint());
+        out.writeInt(clusterSize);
+        out.writeInt(cells.length);
+        for (int cell : cells) {
+            out.writeInt(cell);
+        }
+        hierarchy.writeTo(out);
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    int getNodeCount() {
+        return cells.length;
+    }
+
+    int getShortcutCount() {
+        return hierarchy.getShortcutCount();
+    }
+
+    /**
+     * Cells of a route from start to goal on getMap(), or null if there is none. As with
+     * {@link GridSearch}, the start does not have to be walkable but the goal does.
+     */
+    int[] findPath(int start, int goal) {
+        pathCost = Float.POSITIVE_INFINITY;
+        if (start < 0 || goal < 0 || !map.isWalkable(goal)) {
+            return null;
+        }
+        if (start == goal) {
+            pathCost = 0;
+            return new int[] {start};
+        }
+
+        // A start off the walked cells enters through one of its walkable neighbors
+        int[] entries = new int[9];
+        float[] entryCosts = new float[9];
+        int entryCount = 0;
+        if (map.isWalkable(start)) {
+            entries[entryCount++] = start;
+        } else {
+            int column = map.columnOf(start);
+            int row = map.rowOf(start);
+            for (int d = 0; d < 8; d++) {
+                if (map.isWalkable(column + GridMap.DIRECTION_X[d], row + GridMap.DIRECTION_Y[d])) {
+                    entries[entryCount] = map.idOf(column + GridMap.DIRECTION_X[d],
+                            row + GridMap.DIRECTION_Y[d]);
+                    entryCosts[entryCount++] = GridMap.DIRECTION_COST[d];
+                }
+            }
+        }
+
+        // Sources: every entrance reachable inside an entry cell's cluster, remembering which
+        // entry cell reaches it cheapest. A goal in the same or a neighboring cluster may be
+        // reached directly.
+        int[] sources = new int[0];
+        float[] sourceCosts = new float[0];
+        int[] sourceEntry = new int[0];
+        int sourceCount = 0;
+        float directCost = Float.POSITIVE_INFINITY;
+        int directEntry = -1;
+        int goalCluster = layout.clusterOf(goal);
+        for (int k = 0; k < entryCount; k++) {
+            int cluster = layout.clusterOf(entries[k]);
+            if (cluster != goalCluster && layout.neighbors(cluster, goalCluster)) {
+                layout.floodClusters(local, cluster, goalCluster, entries[k], goal);
+                if (local.isTouched(goal) && entryCosts[k] + local.gScore[goal] < directCost) {
+                    directCost = entryCosts[k] + local.gScore[goal];
+                    directEntry = entries[k];
+                }
+            }
+            layout.floodCluster(local, cluster, entries[k], -1);
+            if (cluster == goalCluster && local.isTouched(goal)
+                    && entryCosts[k] + local.gScore[goal] < directCost) {
+                directCost = entryCosts[k] + local.gScore[goal];
+                directEntry = entries[k];
+            }
+            int first = clusterStart[cluster];
+            int last = clusterStart[cluster + 1];
+            sources = Arrays.copyOf(sources, sourceCount + last - first);
+            sourceCosts = Arrays.copyOf(sourceCosts, sources.length);
+            sourceEntry = Arrays.copyOf(sourceEntry, sources.length);
+            for (int i = first; i < last; i++) {
+                int node = clusterNodes[i];
+                if (local.isTouched(cells[node])) {
+                    sources[sourceCount] = node;
+                    sourceCosts[sourceCount] = entryCosts[k] + local.gScore[cells[node]];
+                    sourceEntry[sourceCount++] = entries[k];
+                }
+            }
+        }
+
+        // Targets: the entrances the goal reaches inside its cluster; paths between walkable
+        // cells cost the same either way
+        layout.floodCluster(local, goalCluster, goal, -1);
+        int[] targets = new int[clusterStart[goalCluster + 1] - clusterStart[goalCluster]];
+        float[] targetCosts = new float[targets.length];
+        int targetCount = 0;
+        for (int i = clusterStart[goalCluster]; i < clusterStart[goalCluster + 1]; i++) {
+            int node = clusterNodes[i];
+            if (local.isTouched(cells[node])) {
+                targets[targetCount] = node;
+                targetCosts[targetCount++] = local.gScore[cells[node]];
+            }
+        }
+
+        float viaGraph = hierarchy.query(sources, sourceCosts, sourceCount,
+                targets, targetCosts, targetCount);
+        if (directCost <= viaGraph) {
+            if (directEntry < 0) {
+                return null;
+            }
+            pathCost = directCost;
+            return join(start, directEntry, new int[] {directEntry, goal});
+        }
+
+        int[] route = hierarchy.unpack();
+        int entry = -1;
+        float entryCost = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < sourceCount; i++) {
+            if (sources[i] == route[0] && sourceCosts[i] < entryCost) {
+                entryCost = sourceCosts[i];
+                entry = sourceEntry[i];
+            }
+        }
+        int[] hops = new int[route.length + 2];
+        hops[0] = entry;
+        for (int i = 0; i < route.length; i++) {
+            hops[i + 1] = cells[route[i]];
+        }
+        hops[hops.length - 1] = goal;
+        pathCost = viaGraph;
+        return join(start, entry, hops);
+    }
+
+    /**
+     * Cost of the last path found, in cells.
+     */
+    float getPathCost() {
+        return pathCost;
+    }
+
+    /**
+     * Refines the given hops, each within one cluster or two neighboring ones, into cells, with
+     * start in front if it is not the first hop already.
+     */
+    private int[] join(int start, int entry, int[] hops) {
+        int[] path = new int[64];
+        int length = 0;
+        if (start != entry) {
+            path[length++] = start;
+        }
+        path[length++] = hops[0];
+        for (int i = 0; i + 1 < hops.length; i++) {
+            int from = hops[i];
+            int to = hops[i + 1];
+            if (from == to) {
+                continue;
+            }
+            int[] segment;
+            if (Math.abs(map.columnOf(from) - map.columnOf(to)) <= 1
+                    && Math.abs(map.rowOf(from) - map.rowOf(to)) <= 1) {
+                segment = new int[] {from, to};
+            } else {
+                layout.floodClusters(local, layout.clusterOf(from), layout.clusterOf(to), from,
+                        to);
+                segment = local.reconstructPath(to);
+            }
+            if (length + segment.length > path.length) {
+                path = Arrays.copyOf(path, Math.max(path.length * 2, length + segment.length));
+            }
+            System.arraycopy(segment, 1, path, length, segment.length - 1);
+            length += segment.length - 1;
+        }
+        return Arrays.copyOf(path, length);
+    }
+}
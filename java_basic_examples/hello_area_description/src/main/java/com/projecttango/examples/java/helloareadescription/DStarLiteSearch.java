@@ -0,0 +1,440 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Incremental planner (D* Lite, Koenig and Likhachev 2002). It searches backwards from the goal
+ * and keeps that search tree between calls: when only the start has moved, or a few cells of
+ * the map have changed, findPath repairs the affected part of the tree instead of searching
+ * from scratch. A new goal, or a map whose bounding box has grown, starts over. Maps blocked by
+ * GridMap.withBlocked on the same snapshot as the last one are not diffed at all: only the
+ * cells blocked or unblocked between the two are repaired, through setWalkable. A newer
+ * snapshot of the same grid is only diffed in the tiles GridMap.changedIdsSince reports, and
+ * in the cells blocked on either map. A findPath cut short by an interrupt returns null, and
+ * the next call towards the same goal carries on from where it stopped.
+ *
+ * Cells that are not walkable have no edges, so they are never queued; only the start may be
+ * one, as in {@link AStarSearch}.
+ *
+ * Costs are kept in hundredths of a cell as ints. D* Lite relies on recognising equal keys, and
+ * float sums of 1 and sqrt(2) built up in different orders do not compare equal reliably.
+ */
+final class DStarLiteSearch implements GridSearch {
+    private static final int STRAIGHT_COST = 100;
+    private static final int DIAGONAL_COST = 141;
+    private static final int INFINITY = Integer.MAX_VALUE;
+    // Keys travel through the float heap, which holds ints exactly only up to 2^24
+    private static final int MAX_KEY = 1 << 24;
+    // Queue steps between looks at the interrupt flag
+    private static final int CHECK_INTERVAL = 256;
+
+    private final IndexedMinHeap openList = new IndexedMinHeap();
+    private int[] gScore = new int[0];
+    private int[] rhs = new int[0];
+    private boolean[] walkable = new boolean[0];
+
+    private GridMap map;
+    private int goal = -1;
+    private int start;
+    private int lastStart;
+    private int keyModifier;
+
+    private int expandedCount;
+    private float pathCost;
+
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        expandedCount = 0;
+        pathCost = Float.POSITIVE_INFINITY;
+
+        if (!canRepair(map, goal)) {
+            initialize(map, start, goal);
+        } else {
+            GridMap previous = this.map;
+            this.map = map;
+            // The heuristic is relative to the start, so moving it lowers every queued key by
+            // at most h(lastStart, start); adding that to the modifier keeps the keys valid
+            this.start = start;
+            keyModifier += heuristic(lastStart, start);
+            lastStart = start;
+            if (previous.getUnblocked() == map.getUnblocked()) {
+                applyBlockedChanges(previous, map);
+            } else {
+                applyMapChanges(previous, map);
+            }
+        }
+        if (start != goal && !walkable[start]) {
+            rhs[start] = bestSuccessorCost(start);
+            updateVertex(start);
+        }
+
+        if (!computeShortestPath() || gScore[start] == INFINITY) {
+            return null;
+        }
+        pathCost = gScore[start] / (float) STRAIGHT_COST;
+        return extractPath();
+    }
+
+    /**
+     * Marks a single cell walked or blocked without waiting for the next map snapshot, e.g. for
+     * an obstacle reported by the cane. Affected parts of the tree are repaired on the next
+     * findPath.
+     */
+    void setWalkable(int id, boolean isWalkable) {
+        if (map == null || walkable[id] == isWalkable) {
+            return;
+        }
+        walkable[id] = isWalkable;
+        // The cell gains or loses its own edges, and its neighbors their edges into it
+        if (id != goal) {
+            rhs[id] = bestSuccessorCost(id);
+        }
+        updateVertex(id);
+        updateNeighborsOf(id);
+    }
+
+    /**
+     * Forgets the search tree, so that the next findPath starts over; for when the costs of
+     * the cells change without a new snapshot, e.g. a new clearance penalty.
+     */
+    void reset() {
+        map = null;
+        goal = -1;
+    }
+
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+        // Keys here are integer costs relative to the moving start, which the float ALT
+        // bounds would break; the goal field answers most queries anyway
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+
+    private boolean canRepair(GridMap map, int goal) {
+        return this.map != null && this.goal == goal
+                && this.map.getWidth() == map.getWidth()
+                && this.map.getHeight() == map.getHeight()
+                && this.map.worldX(0) == map.worldX(0)
+                && this.map.worldY(0) == map.worldY(0)
+                // Past this the keys would lose precision; a fresh tree resets the modifier
+                && keyModifier < MAX_KEY / 2;
+    }
+
+    private void initialize(GridMap map, int start, int goal) {
+        int size = map.size();
+        if (gScore.length < size) {
+            gScore = new int[size];
+            rhs = new int[size];
+            walkable = new boolean[size];
+        }
+        Arrays.fill(gScore, 0, size, INFINITY);
+        Arrays.fill(rhs, 0, size, INFINITY);
+        for (int id = 0; id < size; id++) {
+            walkable[id] = map.isWalkable(id);
+        }
+        openList.reset(size);
+
+        this.map = map;
+        this.goal = goal;
+        this.start = start;
+        this.lastStart = start;
+        keyModifier = 0;
+
+        rhs[goal] = 0;
+        openList.insert(goal, heuristic(start, goal), 0);
+    }
+
+    /**
+     * Repairs around the cells whose blocking differs between two maps blocked on the same
+     * snapshot, leaving the rest of the map alone.
+     */
+    private void applyBlockedChanges(GridMap previous, GridMap map) {
+        for (int id : previous.getBlockedIds()) {
+            setWalkable(id, map.isWalkable(id));
+        }
+        for (int id : map.getBlockedIds()) {
+            setWalkable(id, map.isWalkable(id));
+        }
+    }
+
+    /**
+     * Diffs the new snapshot against the cells the tree was built on and repairs around each
+     * cell that changed, in walkability or in penalty. Only the tiles of the grid that changed
+     * in between, and the cells blocked on either map, are looked at when the snapshots say
+     * which those are; otherwise every cell is.
+     */
+    private void applyMapChanges(GridMap previous, GridMap map) {
+        GridMap base = map.getUnblocked();
+        GridMap previousBase = previous.getUnblocked();
+        int[] changed = base.changedIdsSince(previousBase, 0);
+        if (changed == null) {
+            for (int id = 0; id < map.size(); id++) {
+                setWalkable(id, map.isWalkable(id));
+            }
+        } else {
+            for (int id : changed) {
+                setWalkable(id, map.isWalkable(id));
+            }
+            for (int id : previous.getBlockedIds()) {
+                setWalkable(id, map.isWalkable(id));
+            }
+            for (int id : map.getBlockedIds()) {
+                setWalkable(id, map.isWalkable(id));
+            }
+        }
+
+        if (!previous.hasPenalty() && !map.hasPenalty()) {
+            return;
+        }
+        // A penalty changes with the cells around it, and everywhere when a cell is marked
+        int[] repriced = previous.getAttributeVersion() != map.getAttributeVersion() ? null
+                : base.changedIdsSince(previousBase,
+                        Math.max(previous.getPenaltyReach(), map.getPenaltyReach()));
+        if (repriced == null) {
+            for (int id = 0; id < map.size(); id++) {
+                repriceIfChanged(previous, id);
+            }
+        } else {
+            for (int id : repriced) {
+                repriceIfChanged(previous, id);
+            }
+        }
+    }
+
+    private void repriceIfChanged(GridMap previous, int id) {
+        if (previous.penaltyOf(id) == map.penaltyOf(id)) {
+            return;
+        }
+        // Every move into or out of the cell costs something else now
+        updateNeighborsOf(id);
+        if (id != goal) {
+            rhs[id] = bestSuccessorCost(id);
+        }
+        updateVertex(id);
+    }
+
+    /**
+     * Every neighbor of a changed cell has gained or lost its edge into it.
+     */
+    private void updateNeighborsOf(int id) {
+        int column = map.columnOf(id);
+        int row = map.rowOf(id);
+        for (int d = 0; d < 8; d++) {
+            int neighborColumn = column + GridMap.DIRECTION_X[d];
+            int neighborRow = row + GridMap.DIRECTION_Y[d];
+            if (!inBounds(neighborColumn, neighborRow)) {
+                continue;
+            }
+            int u = map.idOf(neighborColumn, neighborRow);
+            if (!walkable[u] && u != start) {
+                continue;
+            }
+            if (u != goal) {
+                rhs[u] = bestSuccessorCost(u);
+            }
+            updateVertex(u);
+        }
+    }
+
+    /**
+     * Settles cells until the start is consistent. Returns false if the thread was interrupted
+     * first; the open list then still holds what is left to do.
+     */
+    private boolean computeShortestPath() {
+        int sinceCheck = 0;
+        while (!openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    return false;
+                }
+            }
+            int startTieBreak = Math.min(gScore[start], rhs[start]);
+            float startKey = startTieBreak == INFINITY ? Float.POSITIVE_INFINITY
+                    : startTieBreak + keyModifier;
+            float topKey = openList.peekKey();
+            float topTieBreak = openList.peekTieBreak();
+            boolean topBeforeStart = topKey < startKey
+                    || (topKey == startKey && topTieBreak < startTieBreak);
+            if (!topBeforeStart && rhs[start] == gScore[start]) {
+                return true;
+            }
+
+            int u = openList.peek();
+            float newKey = key(u);
+            float newTieBreak = Math.min(gScore[u], rhs[u]);
+            if (topKey < newKey || (topKey == newKey && topTieBreak < newTieBreak)) {
+                openList.update(u, newKey, newTieBreak);
+            } else if (gScore[u] > rhs[u]) {
+                // Locally overconsistent: settle it and relax its predecessors
+                gScore[u] = rhs[u];
+                openList.poll();
+                expandedCount++;
+                relaxPredecessorsOf(u);
+            } else {
+                // Locally underconsistent: forget its value and recompute around it
+                gScore[u] = INFINITY;
+                expandedCount++;
+                if (u != goal) {
+                    rhs[u] = bestSuccessorCost(u);
+                }
+                updateVertex(u);
+                recomputePredecessorsOf(u);
+            }
+        }
+        return true;
+    }
+
+    private void relaxPredecessorsOf(int u) {
+        if (!walkable[u]) {
+            return;
+        }
+        int column = map.columnOf(u);
+        int row = map.rowOf(u);
+        for (int d = 0; d < 8; d++) {
+            int neighborColumn = column + GridMap.DIRECTION_X[d];
+            int neighborRow = row + GridMap.DIRECTION_Y[d];
+            if (!inBounds(neighborColumn, neighborRow)) {
+                continue;
+            }
+            int s = map.idOf(neighborColumn, neighborRow);
+            if (!walkable[s] && s != start) {
+                continue;
+            }
+            int cost = stepCost(s, u, d) + gScore[u];
+            if (s != goal && cost < rhs[s]) {
+                rhs[s] = cost;
+            }
+            updateVertex(s);
+        }
+    }
+
+    private void recomputePredecessorsOf(int u) {
+        int column = map.columnOf(u);
+        int row = map.rowOf(u);
+        for (int d = 0; d < 8; d++) {
+            int neighborColumn = column + GridMap.DIRECTION_X[d];
+            int neighborRow = row + GridMap.DIRECTION_Y[d];
+            if (!inBounds(neighborColumn, neighborRow)) {
+                continue;
+            }
+            int s = map.idOf(neighborColumn, neighborRow);
+            if (!walkable[s] && s != start) {
+                continue;
+            }
+            if (s != goal) {
+                rhs[s] = bestSuccessorCost(s);
+            }
+            updateVertex(s);
+        }
+    }
+
+    private int bestSuccessorCost(int u) {
+        if (!walkable[u] && u != start) {
+            return INFINITY;
+        }
+        int column = map.columnOf(u);
+        int row = map.rowOf(u);
+        int best = INFINITY;
+        for (int d = 0; d < 8; d++) {
+            int neighborColumn = column + GridMap.DIRECTION_X[d];
+            int neighborRow = row + GridMap.DIRECTION_Y[d];
+            if (inBounds(neighborColumn, neighborRow)) {
+                int v = map.idOf(neighborColumn, neighborRow);
+                if (walkable[v] && gScore[v] != INFINITY) {
+                    best = Math.min(best, stepCost(u, v, d) + gScore[v]);
+                }
+            }
+        }
+        return best;
+    }
+
+    private void updateVertex(int u) {
+        boolean inconsistent = gScore[u] != rhs[u];
+        boolean queued = openList.contains(u);
+        if (inconsistent && queued) {
+            openList.update(u, key(u), Math.min(gScore[u], rhs[u]));
+        } else if (inconsistent) {
+            openList.insert(u, key(u), Math.min(gScore[u], rhs[u]));
+        } else if (queued) {
+            openList.remove(u);
+        }
+    }
+
+    private float key(int u) {
+        return Math.min(gScore[u], rhs[u]) + heuristic(start, u) + keyModifier;
+    }
+
+    private int heuristic(int from, int to) {
+        int dx = Math.abs(map.columnOf(from) - map.columnOf(to));
+        int dy = Math.abs(map.rowOf(from) - map.rowOf(to));
+        return dx > dy
+                ? STRAIGHT_COST * dx + (DIAGONAL_COST - STRAIGHT_COST) * dy
+                : STRAIGHT_COST * dy + (DIAGONAL_COST - STRAIGHT_COST) * dx;
+    }
+
+    /**
+     * GridMap.stepCost in hundredths, rounded the same way every time so equal keys stay equal.
+     */
+    private int stepCost(int from, int to, int direction) {
+        int cost = direction < 4 ? STRAIGHT_COST : DIAGONAL_COST;
+        if (!map.hasPenalty()) {
+            return cost;
+        }
+        return Math.round(cost * (1 + 0.5f * (map.penaltyOf(from) + map.penaltyOf(to))));
+    }
+
+    private boolean inBounds(int column, int row) {
+        return column >= 0 && row >= 0 && column < map.getWidth() && row < map.getHeight();
+    }
+
+    /**
+     * Descends the cost-to-goal field from the start, always stepping to the successor with
+     * the lowest step cost plus g.
+     */
+    private int[] extractPath() {
+        int[] path = new int[16];
+        int length = 0;
+        path[length++] = start;
+
+        int current = start;
+        int limit = map.size();
+        while (current != goal && length <= limit) {
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            int next = -1;
+            int best = INFINITY;
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!inBounds(neighborColumn, neighborRow)) {
+                    continue;
+                }
+                int v = map.idOf(neighborColumn, neighborRow);
+                if (walkable[v] && gScore[v] != INFINITY
+                        && stepCost(current, v, d) + gScore[v] < best) {
+                    best = stepCost(current, v, d) + gScore[v];
+                    next = v;
+                }
+            }
+            if (next == -1) {
+                return null;
+            }
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length++] = next;
+            current = next;
+        }
+
+        return current == goal ? Arrays.copyOf(path, length) : null;
+    }
+}
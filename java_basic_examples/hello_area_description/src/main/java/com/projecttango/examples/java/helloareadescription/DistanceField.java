@@ -0,0 +1,156 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Cost-to-goal and next hop for every cell of a {@link GridMap}, from one reverse Dijkstra flood
+ * out of the goal. Once built, "which way now" and "how far left" are single array lookups for
+ * any cell, so a user who drifts off the route needs no new search.
+ *
+ * The field describes the snapshot it was built on. Cells walked after that are unknown to it,
+ * but paths it returns stay valid, since new cells can only add shortcuts.
+ */
+final class DistanceField {
+    // Cells settled between looks at the interrupt flag
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final GridMap map;
+    private final int goal;
+    private final float[] distance;
+    // Length of the route from each cell, in cells; the distance itself on maps without a
+    // penalty
+    private final float[] length;
+    private final int[] nextHop;
+
+    private DistanceField(GridMap map, int goal, float[] distance, float[] length,
+                          int[] nextHop) {
+        this.map = map;
+        this.goal = goal;
+        this.distance = distance;
+        this.length = length;
+        this.nextHop = nextHop;
+    }
+
+    /**
+     * Floods the map out of goal. Returns null if the thread is interrupted first.
+     */
+    static DistanceField build(GridMap map, int goal) {
+        int size = map.size();
+        float[] distance = new float[size];
+        float[] length = distance;
+        if (map.hasPenalty()) {
+            length = new float[size];
+            Arrays.fill(length, Float.POSITIVE_INFINITY);
+            length[goal] = 0;
+        }
+        int[] nextHop = new int[size];
+        Arrays.fill(distance, Float.POSITIVE_INFINITY);
+        Arrays.fill(nextHop, -1);
+
+        IndexedMinHeap openList = new IndexedMinHeap();
+        openList.reset(size);
+        distance[goal] = 0;
+        openList.insert(goal, 0);
+
+        int sinceCheck = 0;
+        while (!openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            int v = openList.poll();
+            // Only walkable cells can be stepped into, so an unwalkable cell gets a distance
+            // (the user may be standing on it) but nothing is routed through it
+            if (!map.isWalkable(v)) {
+                continue;
+            }
+
+            int column = map.columnOf(v);
+            int row = map.rowOf(v);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (neighborColumn < 0 || neighborRow < 0
+                        || neighborColumn >= map.getWidth() || neighborRow >= map.getHeight()) {
+                    continue;
+                }
+
+                int u = map.idOf(neighborColumn, neighborRow);
+                float tentative = distance[v] + map.stepCost(u, v, d);
+                if (tentative < distance[u]) {
+                    boolean queued = openList.contains(u);
+                    distance[u] = tentative;
+                    if (length != distance) {
+                        length[u] = length[v] + GridMap.DIRECTION_COST[d];
+                    }
+                    nextHop[u] = v;
+                    if (queued) {
+                        openList.decreaseKey(u, tentative);
+                    } else {
+                        openList.insert(u, tentative);
+                    }
+                }
+            }
+        }
+
+        return new DistanceField(map, goal, distance, length, nextHop);
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    int getGoal() {
+        return goal;
+    }
+
+    boolean isReachable(int id) {
+        return distance[id] != Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Remaining cost from id to the goal, in cells. Infinite if the goal cannot be reached.
+     */
+    float distanceFrom(int id) {
+        return distance[id];
+    }
+
+    /**
+     * Length of the route from id to the goal, in cells, which is less than its cost on maps
+     * with a penalty. Infinite if the goal cannot be reached.
+     */
+    float lengthFrom(int id) {
+        return length[id];
+    }
+
+    /**
+     * The cell to step to from id on a shortest route, or -1 at the goal or when unreachable.
+     */
+    int nextStep(int id) {
+        return nextHop[id];
+    }
+
+    /**
+     * Follows the next hops from id to the goal, or returns null if id cannot reach it.
+     */
+    int[] pathFrom(int id) {
+        if (!isReachable(id)) {
+            return null;
+        }
+
+        int length = 1;
+        for (int cursor = id; cursor != goal; cursor = nextHop[cursor]) {
+            length++;
+        }
+
+        int[] path = new int[length];
+        int index = 0;
+        for (int cursor = id; cursor != goal; cursor = nextHop[cursor]) {
+            path[index++] = cursor;
+        }
+        path[index] = goal;
+        return path;
+    }
+}
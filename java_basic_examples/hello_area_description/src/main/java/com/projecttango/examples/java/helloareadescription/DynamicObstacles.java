@@ -0,0 +1,231 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Cells of one floor blocked for a while, e.g. by a cart left in a corridor, on top of the
+ * walked cells. Each obstacle is a box of cells that expires at a given time.
+ *
+ * Obstacles are indexed by the {@link OccupancyGrid} tiles they overlap, so checking a cell or
+ * a route only looks at the obstacles nearby, and queued by expiry, so expire only touches the
+ * obstacles that are due rather than every one or the map. Times are in milliseconds of
+ * whatever clock the caller uses throughout.
+ *
+ * Not thread-safe; PlannerService confines it to the planner thread.
+ */
+final class DynamicObstacles {
+    /**
+     * A box of cells, corners included, blocked until expiresAt.
+     */
+    static final class Obstacle {
+        private final int minX;
+        private final int minY;
+        private final int maxX;
+        private final int maxY;
+        private final long expiresAt;
+
+        private Obstacle(int minX, int minY, int maxX, int maxY, long expiresAt) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.expiresAt = expiresAt;
+        }
+
+        int getMinX() {
+            return minX;
+        }
+
+        int getMinY() {
+            return minY;
+        }
+
+        int getMaxX() {
+            return maxX;
+        }
+
+        int getMaxY() {
+            return maxY;
+        }
+
+        long getExpiresAt() {
+            return expiresAt;
+        }
+
+        boolean contains(int cellX, int cellY) {
+            return cellX >= minX && cellX <= maxX && cellY >= minY && cellY <= maxY;
+        }
+
+        boolean overlaps(int otherMinX, int otherMinY, int otherMaxX, int otherMaxY) {
+            return minX <= otherMaxX && otherMinX <= maxX && minY <= otherMaxY
+                    && otherMinY <= maxY;
+        }
+    }
+
+    private static final int TILE_SHIFT = OccupancyGrid.TILE_SHIFT;
+
+    // Obstacles overlapping each tile, by tile key
+    private final Map<Long, List<Obstacle>> tiles = new HashMap<Long, List<Obstacle>>();
+    private final PriorityQueue<Obstacle> byExpiry = new PriorityQueue<Obstacle>(11,
+            new Comparator<Obstacle>() {
+                @Override
+                public int compare(Obstacle a, Obstacle b) {
+                    return a.expiresAt < b.expiresAt ? -1 : a.expiresAt > b.expiresAt ? 1 : 0;
+                }
+            });
+    // Bumped by every obstacle added or expired, so blocked maps know when to be rebuilt
+    private int version;
+
+    boolean isEmpty() {
+        return byExpiry.isEmpty();
+    }
+
+    int size() {
+        return byExpiry.size();
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Blocks the cells from (minX, minY) to (maxX, maxY), corners included, until expiresAt.
+     */
+    Obstacle add(int minX, int minY, int maxX, int maxY, long expiresAt) {
+        Obstacle obstacle = new Obstacle(Math.min(minX, maxX), Math.min(minY, maxY),
+                Math.max(minX, maxX), Math.max(minY, maxY), expiresAt);
+        for (int tileY = obstacle.minY >> TILE_SHIFT; tileY <= obstacle.maxY >> TILE_SHIFT;
+             tileY++) {
+            for (int tileX = obstacle.minX >> TILE_SHIFT; tileX <= obstacle.maxX >> TILE_SHIFT;
+                 tileX++) {
+                long key = tileKey(tileX, tileY);
+                List<Obstacle> nearby = tiles.get(key);
+                if (nearby == null) {
+                    nearby = new ArrayList<Obstacle>(2);
+                    tiles.put(key, nearby);
+                }
+                nearby.add(obstacle);
+            }
+        }
+        byExpiry.add(obstacle);
+        version++;
+        return obstacle;
+    }
+
+    /**
+     * Time the next obstacle expires at, or Long.MAX_VALUE if there are none.
+     */
+    long nextExpiry() {
+        Obstacle next = byExpiry.peek();
+        return next == null ? Long.MAX_VALUE : next.expiresAt;
+    }
+
+    /**
+     * Removes and returns the obstacles that have expired by now.
+     */
+    List<Obstacle> expire(long now) {
+        List<Obstacle> expired = new ArrayList<Obstacle>();
+        while (!byExpiry.isEmpty() && byExpiry.peek().expiresAt <= now) {
+            Obstacle obstacle = byExpiry.poll();
+            for (int tileY = obstacle.minY >> TILE_SHIFT; tileY <= obstacle.maxY >> TILE_SHIFT;
+                 tileY++) {
+                for (int tileX = obstacle.minX >> TILE_SHIFT;
+                     tileX <= obstacle.maxX >> TILE_SHIFT; tileX++) {
+                    long key = tileKey(tileX, tileY);
+                    List<Obstacle> nearby = tiles.get(key);
+                    nearby.remove(obstacle);
+                    if (nearby.isEmpty()) {
+                        tiles.remove(key);
+                    }
+                }
+            }
+            expired.add(obstacle);
+        }
+        if (!expired.isEmpty()) {
+            version++;
+        }
+        return expired;
+    }
+
+    boolean isBlocked(int cellX, int cellY) {
+        List<Obstacle> nearby = tiles.get(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+        if (nearby == null) {
+            return false;
+        }
+        for (int i = 0; i < nearby.size(); i++) {
+            if (nearby.get(i).contains(cellX, cellY)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the path, taken as straight segments between its nodes, passes through a blocked
+     * cell. Segments are sampled every half cell, which catches any box they cross.
+     */
+    boolean crosses(List<Node> path, float granularity) {
+        if (isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < path.size(); i++) {
+            Node to = path.get(i);
+            Node from = i == 0 ? to : path.get(i - 1);
+            float dx = to.getX() - from.getX();
+            float dy = to.getY() - from.getY();
+            int steps = Math.max(1,
+                    (int) Math.ceil(2 * Math.max(Math.abs(dx), Math.abs(dy)) / granularity));
+            for (int step = i == 0 ? steps : 1; step <= steps; step++) {
+                float t = step / (float) steps;
+                if (isBlocked(GridMap.toCell(from.getX() + dx * t, granularity),
+                        GridMap.toCell(from.getY() + dy * t, granularity))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The snapshot with every walkable cell under an obstacle blocked; the snapshot itself if
+     * there is none in its bounding box.
+     */
+    GridMap applyTo(GridMap map) {
+        int minX = map.getOriginX();
+        int minY = map.getOriginY();
+        int maxX = minX + map.getWidth() - 1;
+        int maxY = minY + map.getHeight() - 1;
+        int[] blocked = new int[16];
+        int count = 0;
+        for (Obstacle obstacle : byExpiry) {
+            if (!obstacle.overlaps(minX, minY, maxX, maxY)) {
+                continue;
+            }
+            for (int cellY = Math.max(minY, obstacle.minY);
+                 cellY <= Math.min(maxY, obstacle.maxY); cellY++) {
+                for (int cellX = Math.max(minX, obstacle.minX);
+                     cellX <= Math.min(maxX, obstacle.maxX); cellX++) {
+                    int id = map.idOfCell(cellX, cellY);
+                    if (!map.isWalkable(id)) {
+                        continue;
+                    }
+                    if (count == blocked.length) {
+                        blocked = Arrays.copyOf(blocked, count * 2);
+                    }
+                    blocked[count++] = id;
+                }
+            }
+        }
+        return count == 0 ? map : map.withBlocked(Arrays.copyOf(blocked, count));
+    }
+
+    private static long tileKey(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xffffffffL);
+    }
+}
@@ -0,0 +1,95 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A way between two floors of a {@link FloorMap} that was walked once: the last cell on one
+ * floor, the first cell on the other, and what it costs to get from one to the other. Usable
+ * in both directions. Cells are in cell coordinates (world / granularity).
+ */
+class FloorConnector {
+    enum Kind {
+        STAIRS,
+        ELEVATOR
+    }
+
+    private final Kind kind;
+    private final int fromFloor;
+    private final int fromX;
+    private final int fromY;
+    private final int toFloor;
+    private final int toX;
+    private final int toY;
+    // In metres, like a walk of that length
+    private final float cost;
+
+    @JsonCreator
+    public FloorConnector(@JsonProperty("kind") Kind kind,
+                          @JsonProperty("fromFloor") int fromFloor,
+                          @JsonProperty("fromX") int fromX, @JsonProperty("fromY") int fromY,
+                          @JsonProperty("toFloor") int toFloor,
+                          @JsonProperty("toX") int toX, @JsonProperty("toY") int toY,
+                          @JsonProperty("cost") float cost) {
+        this.kind = kind;
+        this.fromFloor = fromFloor;
+        this.fromX = fromX;
+        this.fromY = fromY;
+        this.toFloor = toFloor;
+        this.toX = toX;
+        this.toY = toY;
+        this.cost = cost;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getFromFloor() {
+        return fromFloor;
+    }
+
+    public int getFromX() {
+        return fromX;
+    }
+
+    public int getFromY() {
+        return fromY;
+    }
+
+    public int getToFloor() {
+        return toFloor;
+    }
+
+    public int getToX() {
+        return toX;
+    }
+
+    public int getToY() {
+        return toY;
+    }
+
+    public float getCost() {
+        return cost;
+    }
+
+    /**
+     * Whether this connector joins the same two floors as other at ends no more than
+     * maxCells apart, in either direction.
+     */
+    boolean isNear(FloorConnector other, int maxCells) {
+        if (fromFloor == other.fromFloor && toFloor == other.toFloor) {
+            return near(fromX, fromY, other.fromX, other.fromY, maxCells)
+                    && near(toX, toY, other.toX, other.toY, maxCells);
+        }
+        if (fromFloor == other.toFloor && toFloor == other.fromFloor) {
+            return near(fromX, fromY, other.toX, other.toY, maxCells)
+                    && near(toX, toY, other.fromX, other.fromY, maxCells);
+        }
+        return false;
+    }
+
+    private static boolean near(int x1, int y1, int x2, int y2, int maxCells) {
+        return Math.abs(x1 - x2) <= maxCells && Math.abs(y1 - y2) <= maxCells;
+    }
+}
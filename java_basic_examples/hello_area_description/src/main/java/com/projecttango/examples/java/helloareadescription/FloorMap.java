@@ -0,0 +1,446 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The walked cells of a multi-storey map: one {@link OccupancyGrid} per floor, told apart by
+ * the height of the poses, and the {@link FloorConnector}s walked between them.
+ *
+ * recordPose sorts every pose onto the floor within FLOOR_TOLERANCE of its height. A pose off
+ * every floor is on stairs or in an elevator; once poses settle at a new height at least
+ * MIN_FLOOR_SPACING from the known floors, that height becomes a new floor. Arriving on
+ * another floor than the one left records a connector between the last cell on the old floor
+ * and the first on the new one: an elevator if the trip barely moved sideways, stairs
+ * otherwise.
+ *
+ * On a floor, the cells between consecutive poses are marked as well, so the walked corridor
+ * stays connected however sparse the poses; strides longer than MAX_STRIDE are taken for
+ * relocalizations and left unfilled. Each pose also counts a visit to its cell. The height of
+ * the poses is fitted against the distance walked over every RAMP_STRETCH, which averages out
+ * how the device bobs in the hand; a stretch that rises or falls by at least RAMP_GRADIENT
+ * marks its cells as a ramp in the floor's {@link CellLayers}. Doors and hazards are marked
+ * through markCell.
+ *
+ * Floor 0 always exists; a map that has never seen a pose takes its height from the first
+ * one. Not thread-safe; the activity guards it with its shared lock.
+ */
+final class FloorMap {
+    // Poses this far above or below a floor's height still count as on it, in metres
+    static final float FLOOR_TOLERANCE = 1.0f;
+    static final float MIN_FLOOR_SPACING = 2.0f;
+    // Poses that stay within this band of one another for STABLE_SECONDS have settled
+    private static final float STABLE_BAND = 0.3f;
+    private static final double STABLE_SECONDS = 3.0;
+    // Trips between floors that move less than this sideways are elevator rides, in metres
+    private static final float ELEVATOR_MAX_DRIFT = 1.5f;
+    // What an elevator ride costs, as a walk of that many metres, for the wait
+    private static final float ELEVATOR_COST = 15f;
+    // Consecutive poses further apart than this, in metres, are a relocalization rather than
+    // a walk, and the cells between them are left alone
+    private static final float MAX_STRIDE = 3.0f;
+    // A new connector this close, in cells, to a known one at both ends is the same one
+    private static final int CONNECTOR_MERGE_CELLS = 4;
+    private static final String STORAGE_PREFIX = "occupancy_tiles_";
+    // Metres walked on a floor over which the height of the poses is fitted for a slope
+    static final float RAMP_STRETCH = 4.0f;
+    // Slopes at least this steep are ramps, and count as steepest at 1:12, the most building
+    // codes allow
+    static final float RAMP_GRADIENT = 1 / 20f;
+    private static final float STEEPEST_RAMP = 1 / 12f;
+    private static final int LAYERS_FILE_VERSION = 2;
+
+    private final float granularity;
+    private final List<OccupancyGrid> grids = new ArrayList<OccupancyGrid>();
+    private final List<Float> heights = new ArrayList<Float>();
+    private final List<FloorConnector> connectors = new ArrayList<FloorConnector>();
+    private File storageDirectory;
+
+    // Floor of the last pose that was on one, and its cell there
+    private int currentFloor = 0;
+    private int lastCellX;
+    private int lastCellY;
+    private boolean hasPose;
+    // Between floors: where the last pose was and how far the trip has gone sideways
+    private boolean inTransit;
+    private float transitLength;
+    private float lastX;
+    private float lastY;
+    // Where the poses began to stay at one height off every floor, and the trip up to there
+    private float settleHeight;
+    private float settleX;
+    private float settleY;
+    private float settleTransitLength;
+    private double settleStart;
+    private boolean settling;
+    // The stretch walked since the last slope fit: its cells as x, y pairs, and sums over its
+    // poses of the distance s walked up to them and their height z
+    private int[] stretchCells = new int[32];
+    private int stretchCellCount;
+    private float stretchLength;
+    private int stretchPoses;
+    private double sumS;
+    private double sumZ;
+    private double sumSS;
+    private double sumSZ;
+
+    /**
+     * A map with an empty floor 0 whose height the first pose sets.
+     */
+    FloorMap(float granularity) {
+        this(granularity, new OccupancyGrid(granularity, 0), Float.NaN);
+    }
+
+    /**
+     * A map whose floor 0 is the given grid, at the given height.
+     */
+    FloorMap(float granularity, OccupancyGrid groundFloor, float height) {
+        this.granularity = granularity;
+        grids.add(groundFloor);
+        heights.add(height);
+    }
+
+    float getGranularity() {
+        return granularity;
+    }
+
+    int getFloorCount() {
+        return grids.size();
+    }
+
+    OccupancyGrid getGrid(int floor) {
+        return grids.get(floor);
+    }
+
+    /**
+     * Height of the floor in the ADF's frame, in metres; NaN for a floor 0 no pose has
+     * reached yet.
+     */
+    float getHeight(int floor) {
+        return heights.get(floor);
+    }
+
+    /**
+     * Floor of the last pose that was on one; 0 before the first.
+     */
+    int getCurrentFloor() {
+        return currentFloor;
+    }
+
+    List<FloorConnector> getConnectors() {
+        return Collections.unmodifiableList(connectors);
+    }
+
+    /**
+     * Adds a floor loaded from storage; returns its index, which grid must have been made for.
+     */
+    int addFloor(float height, OccupancyGrid grid) {
+        if (grid.getFloor() != grids.size()) {
+            throw new IllegalArgumentException("Grid of floor " + grid.getFloor()
+                    + " added as floor " + grids.size());
+        }
+        grids.add(grid);
+        heights.add(height);
+        attachStorage(grid);
+        return grids.size() - 1;
+    }
+
+    void addConnector(FloorConnector connector) {
+        for (int i = 0; i < connectors.size(); i++) {
+            FloorConnector known = connectors.get(i);
+            if (known.isNear(connector, CONNECTOR_MERGE_CELLS)) {
+                if (connector.getCost() < known.getCost()) {
+                    connectors.set(i, connector);
+                }
+                return;
+            }
+        }
+        connectors.add(connector);
+    }
+
+    /**
+     * Floor whose height is nearest to z, for placing a saved destination.
+     */
+    int floorAt(float z) {
+        int best = 0;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for (int floor = 0; floor < heights.size(); floor++) {
+            float distance = Math.abs(z - heights.get(floor));
+            if (distance < bestDistance) {
+                best = floor;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Records a pose of the device, taken at the given time in seconds, marking its cell walked
+     * on the floor it is on. Returns that floor, or -1 while between floors. Poses need not come
+     * at a steady rate; repeats of the last cell may be left out.
+     */
+    int recordPose(float x, float y, float z, double timestamp) {
+        if (inTransit && hasPose) {
+            float dx = x - lastX;
+            float dy = y - lastY;
+            transitLength += (float) Math.sqrt(dx * dx + dy * dy);
+        }
+        lastX = x;
+        lastY = y;
+
+        if (Float.isNaN(heights.get(0))) {
+            heights.set(0, z);
+        }
+        int floor = floorWithin(z, FLOOR_TOLERANCE);
+        int cellX = GridMap.toCell(x, granularity);
+        int cellY = GridMap.toCell(y, granularity);
+        if (floor < 0 && hasSettled(x, y, z, timestamp)) {
+            OccupancyGrid grid = new OccupancyGrid(granularity, grids.size());
+            floor = addFloor(settleHeight, grid);
+            // The trip ended where the poses settled, not where the new floor was noticed
+            if (inTransit && hasPose) {
+                transitLength = settleTransitLength;
+                int settleCellX = GridMap.toCell(settleX, granularity);
+                int settleCellY = GridMap.toCell(settleY, granularity);
+                addConnector(newConnector(currentFloor, floor, settleCellX, settleCellY));
+            }
+        } else if (floor >= 0 && inTransit && hasPose && floor != currentFloor) {
+            addConnector(newConnector(currentFloor, floor, cellX, cellY));
+        }
+        if (floor < 0) {
+            inTransit = true;
+            return -1;
+        }
+
+        // Fill in the cells walked through since the last pose, which a fast walk or a dropped
+        // pose would otherwise leave as a gap in the corridor
+        float strideX = (cellX - lastCellX) * granularity;
+        float strideY = (cellY - lastCellY) * granularity;
+        boolean walked = hasPose && !inTransit && floor == currentFloor
+                && strideX * strideX + strideY * strideY <= MAX_STRIDE * MAX_STRIDE;
+        if (walked) {
+            grids.get(floor).addSegment(lastCellX, lastCellY, cellX, cellY);
+        } else {
+            grids.get(floor).add(cellX, cellY);
+        }
+        recordAttributes(floor, cellX, cellY, z, walked);
+        inTransit = false;
+        transitLength = 0;
+        settling = false;
+        hasPose = true;
+        currentFloor = floor;
+        lastCellX = cellX;
+        lastCellY = cellY;
+        return floor;
+    }
+
+    /**
+     * Sets the layer, one of CellLayers' DOOR, RAMP or HAZARD, of the cell at (x, y) on the
+     * current floor to value, 0 to clear it and up to CellLayers.MAX_VALUE.
+     */
+    void markCell(int layer, float x, float y, int value) {
+        grids.get(currentFloor).getLayers().set(layer, GridMap.toCell(x, granularity),
+                GridMap.toCell(y, granularity), value);
+    }
+
+    /**
+     * Writes the cell attributes and visit counts of every floor, for readLayers.
+     */
+    void writeLayers(DataOutputStream out) throws IOException {
+        out.writeInt(LAYERS_FILE_VERSION);
+        out.writeFloat(granularity);
+        out.writeInt(grids.size());
+        for (OccupancyGrid grid : grids) {
+            grid.getLayers().writeTo(out);
+            grid.writeVisits(out);
+        }
+    }
+
+    /**
+     * Replaces the cell attributes and visit counts of every floor with those written by
+     * writeLayers. Returns false, leaving the attributes alone, if they were written for
+     * another granularity or version; floors the map does not have (yet) are skipped.
+     */
+    boolean readLayers(DataInputStream in) throws IOException {
+        if (in.readInt() != LAYERS_FILE_VERSION || in.readFloat() != granularity) {
+            return false;
+        }
+        int floorCount = in.readInt();
+        for (int floor = 0; floor < floorCount; floor++) {
+            OccupancyGrid grid = floor < grids.size() ? grids.get(floor)
+                    : new OccupancyGrid(granularity, floor);
+            if (!grid.getLayers().readFrom(in)) {
+                return false;
+            }
+            grid.readVisits(in);
+        }
+        return true;
+    }
+
+    /**
+     * Lets every floor evict tiles to a file of its own in the given directory.
+     */
+    void setStorageDirectory(File directory) {
+        storageDirectory = directory;
+        for (OccupancyGrid grid : grids) {
+            attachStorage(grid);
+        }
+    }
+
+    void closeStorage() throws IOException {
+        storageDirectory = null;
+        for (OccupancyGrid grid : grids) {
+            grid.closeStorage();
+        }
+    }
+
+    int getResidentTileCount() {
+        int count = 0;
+        for (OccupancyGrid grid : grids) {
+            count += grid.getResidentTileCount();
+        }
+        return count;
+    }
+
+    /**
+     * Evicts every tile of the floors the device is not on, and the least recently used tiles
+     * of the current floor beyond maxResidentTiles, leaving each floor's grid to write them
+     * with writeEvicted. Returns the number evicted.
+     */
+    int evictColdTiles(int maxResidentTiles) {
+        int evicted = 0;
+        for (int floor = 0; floor < grids.size(); floor++) {
+            int keep = floor == currentFloor ? maxResidentTiles : 0;
+            evicted += grids.get(floor).evictColdTiles(keep);
+        }
+        return evicted;
+    }
+
+    private void attachStorage(OccupancyGrid grid) {
+        if (storageDirectory == null) {
+            return;
+        }
+        try {
+            grid.setStorage(new File(storageDirectory, STORAGE_PREFIX + grid.getFloor()));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Counts a visit to the cell unless the last pose was in it already, and adds the pose to
+     * the stretch being fitted for a slope; walked is false after a jump, which starts a new
+     * stretch since heights on either side of it do not make a slope.
+     */
+    private void recordAttributes(int floor, int cellX, int cellY, float z, boolean walked) {
+        OccupancyGrid grid = grids.get(floor);
+        if (!walked) {
+            stretchCellCount = 0;
+            stretchPoses = 0;
+            stretchLength = 0;
+        } else {
+            float strideX = (cellX - lastCellX) * granularity;
+            float strideY = (cellY - lastCellY) * granularity;
+            stretchLength += (float) Math.sqrt(strideX * strideX + strideY * strideY);
+        }
+        if (!walked || cellX != lastCellX || cellY != lastCellY) {
+            grid.visit(cellX, cellY);
+            if (stretchCellCount + 2 > stretchCells.length) {
+                stretchCells = Arrays.copyOf(stretchCells, stretchCells.length * 2);
+            }
+            stretchCells[stretchCellCount++] = cellX;
+            stretchCells[stretchCellCount++] = cellY;
+        }
+        if (stretchPoses == 0) {
+            sumS = sumZ = sumSS = sumSZ = 0;
+        }
+        stretchPoses++;
+        sumS += stretchLength;
+        sumZ += z;
+        sumSS += (double) stretchLength * stretchLength;
+        sumSZ += (double) stretchLength * z;
+        if (stretchLength < RAMP_STRETCH) {
+            return;
+        }
+
+        // Least-squares slope of height over distance walked
+        double spread = stretchPoses * sumSS - sumS * sumS;
+        float gradient = spread <= 0 ? 0
+                : (float) Math.abs((stretchPoses * sumSZ - sumS * sumZ) / spread);
+        if (gradient >= RAMP_GRADIENT) {
+            int steepness = Math.round(CellLayers.MAX_VALUE
+                    * Math.min(1f, gradient / STEEPEST_RAMP));
+            CellLayers layers = grid.getLayers();
+            for (int i = 0; i < stretchCellCount; i += 2) {
+                int x = stretchCells[i];
+                int y = stretchCells[i + 1];
+                if (steepness > layers.get(CellLayers.RAMP, x, y)) {
+                    layers.set(CellLayers.RAMP, x, y, steepness);
+                }
+            }
+        }
+        // The next stretch starts at this pose
+        stretchCells[0] = cellX;
+        stretchCells[1] = cellY;
+        stretchCellCount = 2;
+        stretchLength = 0;
+        stretchPoses = 1;
+        sumS = sumSS = sumSZ = 0;
+        sumZ = z;
+    }
+
+    private int floorWithin(float z, float tolerance) {
+        int best = -1;
+        float bestDistance = tolerance;
+        for (int floor = 0; floor < heights.size(); floor++) {
+            float distance = Math.abs(z - heights.get(floor));
+            if (distance <= bestDistance) {
+                best = floor;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Whether the poses off every floor have stayed at one height for STABLE_SECONDS, far
+     * enough from the known floors to be a new one.
+     */
+    private boolean hasSettled(float x, float y, float z, double timestamp) {
+        if (!settling || Math.abs(z - settleHeight) > STABLE_BAND) {
+            settleHeight = z;
+            settleX = x;
+            settleY = y;
+            settleTransitLength = transitLength;
+            settleStart = timestamp;
+            settling = true;
+        }
+        return timestamp - settleStart >= STABLE_SECONDS
+                && floorWithin(settleHeight, MIN_FLOOR_SPACING) < 0;
+    }
+
+    private FloorConnector newConnector(int fromFloor, int toFloor, int toX, int toY) {
+        float dx = (toX - lastCellX) * granularity;
+        float dy = (toY - lastCellY) * granularity;
+        // Never cheaper than the straight line, which the planner's estimate relies on
+        float straight = (float) Math.sqrt(dx * dx + dy * dy);
+        float climb = Math.abs(heights.get(toFloor) - heights.get(fromFloor));
+        FloorConnector.Kind kind;
+        float cost;
+        if (transitLength < ELEVATOR_MAX_DRIFT) {
+            kind = FloorConnector.Kind.ELEVATOR;
+            cost = Math.max(ELEVATOR_COST, straight);
+        } else {
+            kind = FloorConnector.Kind.STAIRS;
+            cost = Math.max(transitLength, straight) + climb;
+        }
+        return new FloorConnector(kind, fromFloor, lastCellX, lastCellY, toFloor, toX, toY,
+                cost);
+    }
+}
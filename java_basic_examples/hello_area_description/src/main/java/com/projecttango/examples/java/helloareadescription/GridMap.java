@@ -0,0 +1,493 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Packed snapshot of the walked cells. Every cell of the bounding box gets an int id
+ * (row * width + column) so that the planners can keep their state in primitive arrays
+ * instead of on {@link Node} objects.
+ */
+final class GridMap {
+    // The 8-connected moves, straight ones first, and their cost in cells
+    static final int[] DIRECTION_X = {1, 0, -1, 0, 1, -1, -1, 1};
+    static final int[] DIRECTION_Y = {0, 1, 0, -1, 1, 1, -1, -1};
+    static final float SQRT2 = 1.4142135f;
+    static final float[] DIRECTION_COST = {1f, 1f, 1f, 1f, SQRT2, SQRT2, SQRT2, SQRT2};
+    // Cell size, in metres, of maps saved before it was stored with them
+    static final float DEFAULT_GRANULARITY = 0.5f;
+
+    private final float granularity;
+    // Index of the floor in the FloorMap the cells came from; 0 for single-floor maps
+    private final int floor;
+    // Cell coordinate (world / granularity) of column 0 and row 0
+    private final int originX;
+    private final int originY;
+    private final int width;
+    private final int height;
+    private final boolean[] walkable;
+    private final int walkableCount;
+    // Extra cost per cell, as a fraction of the plain step cost, e.g. near the edges of the
+    // walked area; null when every step costs the same. Never written to once shared.
+    private final float[] penalty;
+    // How far, in cells, a cell newly walked can change the penalty of others
+    private int penaltyReach;
+    // CellLayers.LAYER_COUNT attribute bytes per id, copied from the grid's CellLayers; null
+    // on maps made by fromNodes or from an empty grid, which fromOccupancy otherwise always
+    // fills in, if only with the visit counts
+    private final byte[] attributes;
+    // CellLayers.getVersion() of the grid when the attributes were copied
+    private int attributeVersion;
+    // Lazily computed by fingerprint(); 0 until then
+    private int fingerprint;
+    // Set by fromOccupancy: the grid, its change count, and that of every tile overlapping the
+    // bounding box, row by row of tiles; see changedIdsSince
+    private OccupancyGrid source;
+    private int changeCount;
+    private int[] tileChanges;
+    // Set by withBlocked: the map the cells were blocked on, and the ids blocked
+    private GridMap unblocked;
+    private int[] blocked;
+
+    private GridMap(float granularity, int floor, int originX, int originY, int width,
+                    int height, boolean[] walkable, int walkableCount) {
+        this(granularity, floor, originX, originY, width, height, walkable, walkableCount, null,
+                null);
+    }
+
+    private GridMap(float granularity, int floor, int originX, int originY, int width,
+                    int height, boolean[] walkable, int walkableCount, float[] penalty,
+                    byte[] attributes) {
+        this.granularity = granularity;
+        this.floor = floor;
+        this.originX = originX;
+        this.originY = originY;
+        this.width = width;
+        this.height = height;
+        this.walkable = walkable;
+        this.walkableCount = walkableCount;
+        this.penalty = penalty;
+        this.attributes = attributes;
+    }
+
+    static GridMap fromNodes(Collection<Node> nodes, float granularity) {
+        if (nodes.isEmpty()) {
+            return new GridMap(granularity, 0, 0, 0, 0, 0, new boolean[0], 0);
+        }
+
+        int minX = Integer.MAX_VALUE;
+        int minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxY = Integer.MIN_VALUE;
+        for (Node n : nodes) {
+            int x = toCell(n.getX(), granularity);
+            int y = toCell(n.getY(), granularity);
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+        }
+
+        int width = maxX - minX + 1;
+        int height = maxY - minY + 1;
+        boolean[] walkable = new boolean[width * height];
+        int count = 0;
+        for (Node n : nodes) {
+            int id = (toCell(n.getY(), granularity) - minY) * width
+                    + (toCell(n.getX(), granularity) - minX);
+            if (!walkable[id]) {
+                walkable[id] = true;
+                count++;
+            }
+        }
+
+        return new GridMap(granularity, 0, minX, minY, width, height, walkable, count);
+    }
+
+    static GridMap fromOccupancy(OccupancyGrid grid) {
+        if (grid.isEmpty()) {
+            return new GridMap(grid.getGranularity(), grid.getFloor(), 0, 0, 0, 0,
+                    new boolean[0], 0);
+        }
+
+        final int minX = grid.getMinX();
+        final int minY = grid.getMinY();
+        final int width = grid.getMaxX() - minX + 1;
+        int height = grid.getMaxY() - minY + 1;
+        final boolean[] walkable = new boolean[width * height];
+        final byte[] attributes = new byte[walkable.length * CellLayers.LAYER_COUNT];
+        final int tileX0 = minX >> OccupancyGrid.TILE_SHIFT;
+        final int tileY0 = minY >> OccupancyGrid.TILE_SHIFT;
+        final int tileColumns = (grid.getMaxX() >> OccupancyGrid.TILE_SHIFT) - tileX0 + 1;
+        int tileRows = (grid.getMaxY() >> OccupancyGrid.TILE_SHIFT) - tileY0 + 1;
+        final int[] tileChanges = new int[tileColumns * tileRows];
+        final OccupancyGrid source = grid;
+        grid.forEachTile(new OccupancyGrid.TileVisitor() {
+            @Override
+            public void visitTile(int tileX, int tileY, int[] rows) {
+                tileChanges[(tileY - tileY0) * tileColumns + tileX - tileX0] =
+                        source.changeCountOf(tileX, tileY);
+                int x0 = (tileX << OccupancyGrid.TILE_SHIFT) - minX;
+                int y0 = (tileY << OccupancyGrid.TILE_SHIFT) - minY;
+                for (int y = 0; y < OccupancyGrid.TILE_SIZE; y++) {
+                    int row = rows[y];
+                    while (row != 0) {
+                        int x = Integer.numberOfTrailingZeros(row);
+                        int id = (y0 + y) * width + x0 + x;
+                        walkable[id] = true;
+                        attributes[id * CellLayers.LAYER_COUNT + CellLayers.VISITS] =
+                                (byte) OccupancyGrid.visitsOf(rows, y, 1 << x);
+                        row &= row - 1;
+                    }
+                }
+            }
+        });
+        CellLayers layers = grid.getLayers();
+        layers.copyInto(attributes, minX, minY, width, height);
+        GridMap map = new GridMap(grid.getGranularity(), grid.getFloor(), minX, minY,
+                width, height, walkable, grid.size(), null, attributes);
+        map.attributeVersion = layers.getVersion();
+        map.source = grid;
+        map.changeCount = grid.getChangeCount();
+        map.tileChanges = tileChanges;
+        return map;
+    }
+
+    /**
+     * The same cells with the given per-cell penalty, one entry per id, or with none if it is
+     * null. The array must not change afterwards.
+     */
+    GridMap withPenalty(float[] penalty) {
+        return withPenalty(penalty, penaltyReach);
+    }
+
+    /**
+     * As withPenalty(penalty), for a penalty that a newly walked cell changes up to reach cells
+     * away, such as the clearance from the edge.
+     */
+    GridMap withPenalty(float[] penalty, int reach) {
+        if (penalty == this.penalty && reach == penaltyReach) {
+            return this;
+        }
+        GridMap map = new GridMap(granularity, floor, originX, originY, width, height, walkable,
+                walkableCount, penalty, attributes);
+        map.fingerprint = fingerprint;
+        map.copyTracking(this);
+        map.penaltyReach = reach;
+        return map;
+    }
+
+    /**
+     * The same cells with what their attributes cost under costs added to the penalty, worked
+     * out once here so that the searches still read a single array. This map if no cell
+     * costs anything extra.
+     */
+    GridMap withLayerCosts(LayerCosts costs) {
+        if (attributes == null) {
+            return this;
+        }
+        float[] combined = penalty == null ? new float[walkable.length]
+                : Arrays.copyOf(penalty, penalty.length);
+        if (!costs.addTo(attributes, combined) && penalty == null) {
+            // Nothing costs extra, so searches can skip the penalty altogether
+            return this;
+        }
+        return withPenalty(combined);
+    }
+
+    /**
+     * The same cells with the given ids no longer walkable, e.g. under {@link DynamicObstacles};
+     * ids may repeat. The walkable cells are copied, but the map keeps the one it was made from
+     * and the ids, so that DStarLiteSearch can repair around just these cells when the next
+     * map is blocked on the same one.
+     */
+    GridMap withBlocked(int[] ids) {
+        GridMap base = unblocked != null ? unblocked : this;
+        int[] allIds = ids;
+        if (blocked != null) {
+            allIds = Arrays.copyOf(blocked, blocked.length + ids.length);
+            System.arraycopy(ids, 0, allIds, blocked.length, ids.length);
+        }
+        boolean[] cells = Arrays.copyOf(walkable, walkable.length);
+        int count = walkableCount;
+        for (int id : ids) {
+            if (cells[id]) {
+                cells[id] = false;
+                count--;
+            }
+        }
+        GridMap map = new GridMap(granularity, floor, originX, originY, width, height, cells, count,
+                penalty, attributes);
+        map.copyTracking(this);
+        map.penaltyReach = penaltyReach;
+        map.unblocked = base;
+        map.blocked = allIds;
+        return map;
+    }
+
+    /**
+     * The map withBlocked was called on to make this one, or this map if it was not made so.
+     */
+    GridMap getUnblocked() {
+        return unblocked != null ? unblocked : this;
+    }
+
+    /**
+     * Ids withBlocked blocked to make this map from getUnblocked(); empty if it was not made
+     * so. Not to be written to.
+     */
+    int[] getBlockedIds() {
+        return blocked != null ? blocked : new int[0];
+    }
+
+    /**
+     * Ids of the cells in every tile of the grid that changed between earlier and this
+     * snapshot, and in the tiles up to reach cells from those, each once. Null if that is not
+     * known: both have to be made by fromOccupancy from the same grid, earlier first, with the
+     * same bounding box. Cells blocked by withBlocked are not included.
+     */
+    int[] changedIdsSince(GridMap earlier, int reach) {
+        if (tileChanges == null || earlier.source != source
+                || earlier.changeCount > changeCount || earlier.originX != originX
+                || earlier.originY != originY || earlier.width != width
+                || earlier.height != height) {
+            return null;
+        }
+        int tileX0 = originX >> OccupancyGrid.TILE_SHIFT;
+        int tileY0 = originY >> OccupancyGrid.TILE_SHIFT;
+        int tileColumns = ((originX + width - 1) >> OccupancyGrid.TILE_SHIFT) - tileX0 + 1;
+        int tileRows = tileChanges.length / tileColumns;
+        int grow = (reach + OccupancyGrid.TILE_SIZE - 1) >> OccupancyGrid.TILE_SHIFT;
+
+        boolean[] marked = new boolean[tileChanges.length];
+        int count = 0;
+        for (int tile = 0; tile < tileChanges.length; tile++) {
+            if (tileChanges[tile] <= earlier.changeCount) {
+                continue;
+            }
+            int tileColumn = tile % tileColumns;
+            int tileRow = tile / tileColumns;
+            for (int r = Math.max(0, tileRow - grow);
+                 r <= Math.min(tileRows - 1, tileRow + grow); r++) {
+                for (int c = Math.max(0, tileColumn - grow);
+                     c <= Math.min(tileColumns - 1, tileColumn + grow); c++) {
+                    if (!marked[r * tileColumns + c]) {
+                        marked[r * tileColumns + c] = true;
+                        count++;
+                    }
+                }
+            }
+        }
+
+        int[] ids = new int[count * OccupancyGrid.TILE_SIZE * OccupancyGrid.TILE_SIZE];
+        int length = 0;
+        for (int tile = 0; tile < marked.length; tile++) {
+            if (!marked[tile]) {
+                continue;
+            }
+            // The tile's cells, clipped to the bounding box
+            int x0 = ((tileX0 + tile % tileColumns) << OccupancyGrid.TILE_SHIFT) - originX;
+            int y0 = ((tileY0 + tile / tileColumns) << OccupancyGrid.TILE_SHIFT) - originY;
+            for (int row = Math.max(0, y0);
+                 row < Math.min(height, y0 + OccupancyGrid.TILE_SIZE); row++) {
+                for (int column = Math.max(0, x0);
+                     column < Math.min(width, x0 + OccupancyGrid.TILE_SIZE); column++) {
+                    ids[length++] = row * width + column;
+                }
+            }
+        }
+        return Arrays.copyOf(ids, length);
+    }
+
+    /**
+     * Cells a newly walked cell can change the penalty of, in each direction; see withPenalty.
+     */
+    int getPenaltyReach() {
+        return penaltyReach;
+    }
+
+    private void copyTracking(GridMap from) {
+        attributeVersion = from.attributeVersion;
+        source = from.source;
+        changeCount = from.changeCount;
+        tileChanges = from.tileChanges;
+    }
+
+    static int toCell(float coordinate, float granularity) {
+        return Math.round(coordinate / granularity);
+    }
+
+    /**
+     * Exact cost of the cheapest 8-connected path on an open grid, in cells.
+     */
+    static float octileDistance(int dx, int dy) {
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        return dx > dy ? dx + (SQRT2 - 1) * dy : dy + (SQRT2 - 1) * dx;
+    }
+
+    float getGranularity() {
+        return granularity;
+    }
+
+    int getFloor() {
+        return floor;
+    }
+
+    int getOriginX() {
+        return originX;
+    }
+
+    int getOriginY() {
+        return originY;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of ids, walkable or not. Search scratch arrays are sized by this.
+     */
+    int size() {
+        return walkable.length;
+    }
+
+    int getWalkableCount() {
+        return walkableCount;
+    }
+
+    /**
+     * Hash of the walkable cells, for telling whether data computed on another snapshot (e.g.
+     * stored next to the map) still describes this one.
+     */
+    int fingerprint() {
+        int result = fingerprint;
+        if (result == 0) {
+            result = 31 * Arrays.hashCode(walkable) + walkableCount;
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    boolean isWalkable(int id) {
+        return walkable[id];
+    }
+
+    boolean hasAttributes() {
+        return attributes != null;
+    }
+
+    /**
+     * Version of the grid's CellLayers the attributes were copied from, telling apart
+     * snapshots whose cells are the same but whose costs are not.
+     */
+    int getAttributeVersion() {
+        return attributeVersion;
+    }
+
+    /**
+     * Value of the given CellLayers layer at the cell; 0 on maps without attributes.
+     */
+    int attributeOf(int layer, int id) {
+        return attributes == null ? 0 : attributes[id * CellLayers.LAYER_COUNT + layer] & 0xff;
+    }
+
+    boolean hasPenalty() {
+        return penalty != null;
+    }
+
+    /**
+     * Extra cost of the cell as a fraction of a step; 0 on maps without a penalty.
+     */
+    float penaltyOf(int id) {
+        return penalty == null ? 0 : penalty[id];
+    }
+
+    /**
+     * Cost in cells of the move in the given direction between two neighbouring cells: the
+     * plain step cost, raised by the mean penalty of the two. The same both ways.
+     */
+    float stepCost(int from, int to, int direction) {
+        float[] p = penalty;
+        if (p == null) {
+            return DIRECTION_COST[direction];
+        }
+        return DIRECTION_COST[direction] * (1 + 0.5f * (p[from] + p[to]));
+    }
+
+    /**
+     * Column/row variant with a bounds check, so neighbor probes can step off the grid.
+     */
+    boolean isWalkable(int column, int row) {
+        return column >= 0 && row >= 0 && column < width && row < height
+                && walkable[row * width + column];
+    }
+
+    int columnOf(int id) {
+        return id % width;
+    }
+
+    int rowOf(int id) {
+        return id / width;
+    }
+
+    int idOf(int column, int row) {
+        return row * width + column;
+    }
+
+    /**
+     * Returns the id of the cell containing the given world position, or -1 if it lies
+     * outside the bounding box.
+     */
+    int idOf(float x, float y) {
+        int column = toCell(x, granularity) - originX;
+        int row = toCell(y, granularity) - originY;
+        if (column < 0 || row < 0 || column >= width || row >= height) {
+            return -1;
+        }
+        return row * width + column;
+    }
+
+    int idOf(Node n) {
+        return idOf(n.getX(), n.getY());
+    }
+
+    /**
+     * Returns the id of the cell at the given cell coordinate (world / granularity), or -1 if
+     * it lies outside the bounding box. Unlike ids, cell coordinates stay the same when the
+     * bounding box grows.
+     */
+    int idOfCell(int cellX, int cellY) {
+        int column = cellX - originX;
+        int row = cellY - originY;
+        if (column < 0 || row < 0 || column >= width || row >= height) {
+            return -1;
+        }
+        return row * width + column;
+    }
+
+    int cellXOf(int id) {
+        return columnOf(id) + originX;
+    }
+
+    int cellYOf(int id) {
+        return rowOf(id) + originY;
+    }
+
+    float worldX(int id) {
+        return (originX + columnOf(id)) * granularity;
+    }
+
+    float worldY(int id) {
+        return (originY + rowOf(id)) * granularity;
+    }
+
+    Node toNode(int id) {
+        return new Node(worldX(id), worldY(id));
+    }
+}
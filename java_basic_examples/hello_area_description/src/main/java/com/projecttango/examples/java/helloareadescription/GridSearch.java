@@ -0,0 +1,29 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * A shortest-path search over a {@link GridMap} between two cell ids.
+ */
+interface GridSearch {
+    /**
+     * Returns every cell id from start to goal inclusive, or null if the goal is unreachable.
+     * The start cell does not have to be walkable itself. Searches that may take long also
+     * return null once the thread is interrupted, e.g. by PlannerService.cancel.
+     */
+    int[] findPath(GridMap map, int start, int goal);
+
+    /**
+     * Number of cells expanded by the last search.
+     */
+    int getExpandedCount();
+
+    /**
+     * Cost of the last path found, in cells (multiply by the granularity for metres).
+     */
+    float getPathCost();
+
+    /**
+     * Landmark distances to tighten the heuristic with, on maps the table is valid for. May be
+     * null, and searches are free to ignore it.
+     */
+    void setLandmarks(LandmarkTable landmarks);
+}
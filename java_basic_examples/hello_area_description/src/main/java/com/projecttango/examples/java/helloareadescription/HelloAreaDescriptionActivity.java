@@ -55,19 +55,25 @@ import com.google.atap.tangoservice.TangoXyzIjData;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static com.projecttango.examples.java.helloareadescription.Helper.getEulerAngleZ;
-import static com.projecttango.examples.java.helloareadescription.Helper.roundToNearestHalf;
+import static com.projecttango.examples.java.helloareadescription.Helper.roundToGranularity;
 import static java.lang.String.valueOf;
 
 /**
@@ -129,7 +135,6 @@ public class HelloAreaDescriptionActivity extends Activity implements
     private String jsonFileString;
     private String chosenLandmark;
 
-    private Set coordinateSet = new HashSet<Node>();
     private float maxX = 0f;
     private float minX = 0f;
     private float maxY = 0f;
@@ -148,13 +153,48 @@ public class HelloAreaDescriptionActivity extends Activity implements
     private String selectedUUID;
 
     private ListView listView;
+    private ArrayAdapter<String> mWaypointAdapter;
 
     private float mRotationDiff;
 
-    private final float granularity = 0.5f;
+    // Cell size in metres; the default for new maps, and read from the sidecar for saved ones
+    private float granularity = GridMap.DEFAULT_GRANULARITY;
+
+    // The walked cells of every floor, guarded by mSharedLock
+    private FloorMap floorMap;
+    // The device has arrived on another floor since the route was last planned
+    private boolean mFloorChanged = false;
+    // Takes the poses that enter a new cell off the Tango thread and into floorMap
+    private MapBuilder mapBuilder;
+    // Grids that evicted tiles in the last batch, to write out without the lock; builder only
+    private final List<OccupancyGrid> mEvictingGrids = new ArrayList<OccupancyGrid>();
 
     private Node end;
 
+    // Longest the planner may spend on the first route to a new destination
+    private static final long PLANNING_BUDGET_MS = 30;
+    // Landmark distance tables are stored next to the ADF's JSON file under this suffix
+    private static final String LANDMARK_TABLE_SUFFIX = "_landmarks";
+    // Routes between the saved landmarks are stored next to it under this suffix
+    private static final String LANDMARK_ROUTES_SUFFIX = "_routes";
+    // and the doors, ramps, hazards and visit counts of the walked cells under this one
+    private static final String CELL_LAYERS_SUFFIX = "_layers";
+    // An obstacle the cane reports is taken to be a box this far ahead, in metres, this wide
+    // either side, that stays for this long
+    private static final float OBSTACLE_DISTANCE = 0.75f;
+    private static final float OBSTACLE_HALF_WIDTH = 0.5f;
+    private static final long OBSTACLE_TTL_MS = 2 * 60 * 1000;
+    // Walked tiles beyond this many go to a cache file, the least recently walked first
+    private static final int MAX_RESIDENT_TILES = 1024;
+
+    private PlannerService plannerService;
+    private Route mRoute;
+    // A replan has been requested and its result has not arrived yet
+    private boolean mAwaitingRoute = false;
+    // Saved waypoints nearest first, as seen from mRankedFrom, with a route to each
+    private List<RankedDestination> mRankedDestinations;
+    private Node mRankedFrom;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -170,6 +210,27 @@ public class HelloAreaDescriptionActivity extends Activity implements
         Toast.makeText(this, toastMessage, Toast.LENGTH_LONG).show();
 
         listView = (ListView) findViewById(R.id.list);
+
+        plannerService = new PlannerService(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                runOnUiThread(command);
+            }
+        }, mSharedLock);
+        plannerService.addListener(mRouteListener);
+        useFloorMap(new FloorMap(granularity));
+        mapBuilder = new MapBuilder(mSharedLock, new PoseRing.Sink() {
+            @Override
+            public void accept(float x, float y, float z, double timestamp) {
+                recordPose(x, y, z, timestamp);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                writeEvictedTiles();
+            }
+        }, granularity);
+        mapBuilder.start();
     }
 
     @Override
@@ -245,10 +306,19 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
     @Override
     protected void onDestroy() {
+        mapBuilder.shutdown();
         if (mIsConstantSpaceRelocalize) {
             storeValuesToJSON(selectedUUID);
             printMatrix();
         }
+        plannerService.shutdown();
+        synchronized (mSharedLock) {
+            try {
+                floorMap.closeStorage();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
 
         super.onDestroy();
     }
@@ -331,6 +401,19 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
             loadValuesFromJson();
             printMatrix();
+
+            // The tables stored next to the ADF describe its ground floor
+            synchronized (mSharedLock) {
+                OccupancyGrid groundFloor = floorMap.getGrid(0);
+                List<Node> savedLandmarks = getSavedLandmarkNodes();
+                plannerService.prepareLandmarks(groundFloor, savedLandmarks,
+                        new File(getFilesDir(), selectedUUID + LANDMARK_TABLE_SUFFIX));
+                plannerService.prepareRouteTable(groundFloor, savedLandmarks,
+                        new File(getFilesDir(), selectedUUID + LANDMARK_ROUTES_SUFFIX));
+                plannerService.prepareCorridorRouter(groundFloor, new File(getFilesDir(),
+                        selectedUUID + CorridorPreprocessor.FILE_SUFFIX));
+                plannerService.prepareCosts(groundFloor);
+            }
         }
     }
 
@@ -390,6 +473,8 @@ public class HelloAreaDescriptionActivity extends Activity implements
             public void onPoseAvailable(final TangoPoseData pose) {
                 // Make sure to have atomic access to Tango Data so that UI loop doesn't interfere
                 // while Pose call back is updating the data.
+                // The map builder is handed the pose after the lock is released
+                float[] walked = null;
                 synchronized (mSharedLock) {
                     currentPose = pose;
 
@@ -411,12 +496,15 @@ public class HelloAreaDescriptionActivity extends Activity implements
                             mPositionString = "X:" + translation[0] + ", Y:" + translation[1] + ", Z:" + translation[2];
                             mZRotationString = String.valueOf(getEulerAngleZ(orientation));
 
-                            updateCoordinates();
+                            walked = translation;
                         } else {
                             mIsRelocalized = false;
                         }
                     }
                 }
+                if (walked != null) {
+                    mapBuilder.offer(walked[0], walked[1], walked[2], pose.timestamp);
+                }
 
                 // get current pose
 
@@ -457,7 +545,11 @@ public class HelloAreaDescriptionActivity extends Activity implements
                                             (lowerBound_Y <= translation[1] && translation[1] <= upperBound_Y) &&
                                             (lowerBound_Z <= translation[2] && translation[2] <= upperBound_Z)));
 
-                                    if (mIsNavigatingMode) {
+                                    if (mIsNavigatingMode && mFloorChanged && !mAwaitingRoute) {
+                                        // Off the stairs or out of the elevator; on to the next leg
+                                        mFloorChanged = false;
+                                        handlePathFinding(translation, mDestinationTranslation);
+                                    } else if (mIsNavigatingMode) {
                                         if (squashedPath.size() > 1) {
                                             Node nextWaypoint = squashedPath.get(1);
                                             if (((nextWaypoint.getX() - 0.5f) <= translation[0] && translation[0] <= (nextWaypoint.getX() + 0.5f))
@@ -473,9 +565,8 @@ public class HelloAreaDescriptionActivity extends Activity implements
                                                     mIsNavigatingMode = false;
                                                     mNextWaypointTextView.setText("");
                                                     mNextRotationTextView.setText("");
-                                                } else {
+                                                } else if (!mAwaitingRoute) {
                                                     handlePathFinding(translation, mDestinationTranslation);
-                                                    updateWaypoint();
                                                 }
 
                                             }
@@ -512,9 +603,13 @@ public class HelloAreaDescriptionActivity extends Activity implements
         });
     }
 
-    private void updateCoordinates() {
-        float x = roundToNearestHalf(translation[0]);
-        float y = roundToNearestHalf(translation[1]);
+    /**
+     * Adds a pose that entered a new cell to the map. Runs on the map builder's thread, with
+     * mSharedLock held.
+     */
+    private void recordPose(float poseX, float poseY, float poseZ, double timestamp) {
+        float x = roundToGranularity(poseX, granularity);
+        float y = roundToGranularity(poseY, granularity);
 
         // Set the min and max to find the length of grid
         if (x > maxX) {
@@ -530,9 +625,37 @@ public class HelloAreaDescriptionActivity extends Activity implements
             minY = y;
         }
 
-        Node currentNode = new Node(x, y);
+        int previousFloor = floorMap.getCurrentFloor();
+        int floor = floorMap.recordPose(x, y, poseZ, timestamp);
+        if (floor >= 0 && floor != previousFloor) {
+            mFloorChanged = true;
+        }
+        if (floorMap.getResidentTileCount() > MAX_RESIDENT_TILES) {
+            // Only drops the tiles from memory; writeEvictedTiles stores them after the batch
+            floorMap.evictColdTiles(MAX_RESIDENT_TILES / 2);
+            for (int i = 0; i < floorMap.getFloorCount(); i++) {
+                if (!mEvictingGrids.contains(floorMap.getGrid(i))) {
+                    mEvictingGrids.add(floorMap.getGrid(i));
+                }
+            }
+        }
+    }
 
-        coordinateSet.add(currentNode);
+    /**
+     * Writes the tiles evicted by the last batch to their cache files. Runs on the map
+     * builder's thread once mSharedLock is released, so the disk writes hold up neither the
+     * Tango thread nor the planner.
+     */
+    private void writeEvictedTiles() {
+        for (int i = mEvictingGrids.size() - 1; i >= 0; i--) {
+            try {
+                mEvictingGrids.get(i).writeEvicted();
+                mEvictingGrids.remove(i);
+            } catch (IOException e) {
+                // Kept, and tried again after the next batch
+                e.printStackTrace();
+            }
+        }
     }
 
     private void processArduinoValues(String arduinoSent) {
@@ -554,16 +677,56 @@ public class HelloAreaDescriptionActivity extends Activity implements
             // Down is clicked
             downButtonClicked();
         }
+        if (arduinoSent.equals("Obstacle")) {
+            blockAhead();
+        }
         if (arduinoSent.equals("Rotation finished")) {
             Node nextWaypoint = squashedPath.get(1);
-            Node current = new Node(Helper.roundToNearestHalf(translation[0]), Helper.roundToNearestHalf(translation[1]));
-            ConvertTextToSpeech(arduinoSent + ", walk forward " +
-                    Math.round((float) (PathFinder.euclideanDistance(current, nextWaypoint) / 0.7))
-                    + " steps");
+            Node current = new Node(roundToGranularity(translation[0], granularity),
+                    roundToGranularity(translation[1], granularity));
+            String speakToUser = arduinoSent + ", walk forward " +
+                    Math.round(PathFinder.euclideanDistance(current, nextWaypoint) / 0.7f)
+                    + " steps";
+            Turn turn = mRoute == null ? null : mRoute.nextTurn(current);
+            if (turn != null) {
+                speakToUser += ", then " + turn.describe().toLowerCase(Locale.US);
+            }
+            float remaining = mRoute == null ? Float.POSITIVE_INFINITY : mRoute.distanceToGoal(current);
+            if (remaining != Float.POSITIVE_INFINITY) {
+                speakToUser += ", " + Math.round(remaining / 0.7) + " steps to destination";
+            }
+            ConvertTextToSpeech(speakToUser);
         }
     }
 
 
+    /**
+     * Keeps routes out of the corridor just ahead, towards the next waypoint, for
+     * OBSTACLE_TTL_MS after the cane runs into something there. The planner repairs the
+     * route around it if it can.
+     */
+    private void blockAhead() {
+        if (!mIsNavigatingMode || translation == null || squashedPath == null
+                || squashedPath.size() < 2) {
+            return;
+        }
+        Node nextWaypoint = squashedPath.get(1);
+        float dx = nextWaypoint.getX() - translation[0];
+        float dy = nextWaypoint.getY() - translation[1];
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if (length < granularity) {
+            return;
+        }
+        float centreX = translation[0] + dx / length * OBSTACLE_DISTANCE;
+        float centreY = translation[1] + dy / length * OBSTACLE_DISTANCE;
+        synchronized (mSharedLock) {
+            plannerService.blockRegion(currentGrid(), centreX - OBSTACLE_HALF_WIDTH,
+                    centreY - OBSTACLE_HALF_WIDTH, centreX + OBSTACLE_HALF_WIDTH,
+                    centreY + OBSTACLE_HALF_WIDTH, OBSTACLE_TTL_MS);
+        }
+        ConvertTextToSpeech("Obstacle ahead, looking for a way around");
+    }
+
     private void fillSavedNamesList() {
         try {
             Log.d("Fill", "fill saved list ");
@@ -578,9 +741,9 @@ public class HelloAreaDescriptionActivity extends Activity implements
                 Log.d("savedwaypoints", key);
             }
 
-            ArrayAdapter<String> adapter = new ArrayAdapter<String>(this,
+            mWaypointAdapter = new ArrayAdapter<String>(this,
                     android.R.layout.simple_list_item_1, android.R.id.text1, savedWaypointNames);
-            listView.setAdapter(adapter);
+            listView.setAdapter(mWaypointAdapter);
 
         } catch (JSONException e) {
             e.printStackTrace();
@@ -619,28 +782,89 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
     private void upButtonClicked() {
         if (savedWaypointNames.size() != 0) {
+            rankWaypoints();
             chosenIndex--;
             if (chosenIndex < 0) {
                 chosenIndex = savedWaypointNames.size() - 1;
             }
 
-            String speakToUser = "Waypoint" + savedWaypointNames.get(chosenIndex);
-            ConvertTextToSpeech(speakToUser);
+            ConvertTextToSpeech(describeWaypoint(savedWaypointNames.get(chosenIndex)));
         }
     }
 
     private void downButtonClicked() {
         if (savedWaypointNames.size() != 0) {
+            rankWaypoints();
             chosenIndex++;
             if (chosenIndex > savedWaypointNames.size() - 1) {
                 chosenIndex = 0;
             }
 
-            String speakToUser = "Waypoint" + savedWaypointNames.get(chosenIndex);
-            ConvertTextToSpeech(speakToUser);
+            ConvertTextToSpeech(describeWaypoint(savedWaypointNames.get(chosenIndex)));
         }
     }
 
+    private String describeWaypoint(String name) {
+        String description = "Waypoint" + name;
+        RankedDestination destination = getRankedDestination(name);
+        if (destination != null && destination.isReachable()) {
+            description += ", " + Math.round(destination.getDistance() / 0.7) + " steps";
+        }
+        return description;
+    }
+
+    /**
+     * Asks the planner to rank the saved waypoints from the current cell, unless the last
+     * ranking was made there. The menu is reordered nearest first once it arrives.
+     */
+    private void rankWaypoints() {
+        if (!mIsRelocalized || translation == null || mIsNavigatingMode) {
+            return;
+        }
+        Node current = new Node(roundToGranularity(translation[0], granularity),
+                roundToGranularity(translation[1], granularity));
+        if (current.equals(mRankedFrom)) {
+            return;
+        }
+        mRankedFrom = current;
+        synchronized (mSharedLock) {
+            plannerService.rankDestinations(currentGrid(), current, getSavedWaypoints(),
+                    mRankingListener);
+        }
+    }
+
+    private final PlannerService.RankingListener mRankingListener =
+            new PlannerService.RankingListener() {
+                @Override
+                public void onDestinationsRanked(Node start, List<RankedDestination> ranking) {
+                    mRankedFrom = start;
+                    mRankedDestinations = ranking;
+
+                    // Keep the entry the user is on selected while the order changes
+                    String chosen = savedWaypointNames.isEmpty() ? null
+                            : savedWaypointNames.get(chosenIndex);
+                    savedWaypointNames.clear();
+                    for (RankedDestination destination : ranking) {
+                        savedWaypointNames.add(destination.getName());
+                    }
+                    chosenIndex = Math.max(0, savedWaypointNames.indexOf(chosen));
+                    if (mWaypointAdapter != null) {
+                        mWaypointAdapter.notifyDataSetChanged();
+                    }
+                }
+            };
+
+    private RankedDestination getRankedDestination(String name) {
+        if (mRankedDestinations != null) {
+            for (RankedDestination destination : mRankedDestinations) {
+                if (destination.getName().equals(name)) {
+                    return destination;
+                }
+            }
+        }
+        return null;
+    }
+
 
     private String readFile(String adfId) {
         StringBuilder finalString = new StringBuilder();
@@ -776,7 +1000,20 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
 
         saveLandmarks(adfUuid);
+        mapBuilder.flush();
         storeValuesToJSON(adfUuid);
+
+        // Start on the route table now; if the app closes first, loading the ADF builds it
+        List<Node> savedLandmarks = new ArrayList<Node>();
+        for (TangoPoseData landmark : landmarkList) {
+            float[] landmarkTranslation = landmark.getTranslationAsFloats();
+            savedLandmarks.add(new Node(roundToGranularity(landmarkTranslation[0], granularity),
+                    roundToGranularity(landmarkTranslation[1], granularity)));
+        }
+        synchronized (mSharedLock) {
+            plannerService.prepareRouteTable(floorMap.getGrid(0), savedLandmarks,
+                    new File(getFilesDir(), adfUuid + LANDMARK_ROUTES_SUFFIX));
+        }
         finish();
     }
 
@@ -796,36 +1033,168 @@ public class HelloAreaDescriptionActivity extends Activity implements
     }
 
 
-    private void handlePathFinding(float[] translation, float[] destination) {
-        PathFinder.coordinateSet = coordinateSet;
-        PathFinder.granularity = granularity;
+    /**
+     * Plans towards a newly chosen destination. The planner thread spends at most
+     * PLANNING_BUDGET_MS on the first route and keeps improving it afterwards.
+     */
+    private void startPathFinding(float[] translation, float[] destination) {
+        Node start = new Node(roundToGranularity(translation[0], granularity),
+                roundToGranularity(translation[1], granularity));
+        end = new Node(roundToGranularity(destination[0], granularity),
+                roundToGranularity(destination[1], granularity));
+
+        synchronized (mSharedLock) {
+            int goalFloor = floorMap.floorAt(destination[2]);
+            if (goalFloor != floorMap.getCurrentFloor()) {
+                plannerService.requestFloorRoute(floorMap, floorMap.getCurrentFloor(), start,
+                        goalFloor, end);
+                mAwaitingRoute = true;
+                return;
+            }
+        }
+
+        // The waypoint ranking already holds a route from here
+        if (start.equals(mRankedFrom) && mRankedDestinations != null) {
+            for (RankedDestination ranked : mRankedDestinations) {
+                if (ranked.isReachable() && ranked.getPosition().equals(end)) {
+                    synchronized (mSharedLock) {
+                        plannerService.useRoute(currentGrid(), ranked.getRoute());
+                    }
+                    mAwaitingRoute = true;
+                    return;
+                }
+            }
+        }
 
-        Node start = new Node(roundToNearestHalf(translation[0]), roundToNearestHalf(translation[1]));
+        synchronized (mSharedLock) {
+            plannerService.requestRouteWithin(currentGrid(), start, end, PLANNING_BUDGET_MS);
+        }
+        mAwaitingRoute = true;
+    }
+
+    private void handlePathFinding(float[] translation, float[] destination) {
+        Node start = new Node(roundToGranularity(translation[0], granularity),
+                roundToGranularity(translation[1], granularity));
         Log.i("Node", start.getX() + " " + start.getY());
-        end = new Node(roundToNearestHalf(destination[0]), roundToNearestHalf(destination[1]));
+        end = new Node(roundToGranularity(destination[0], granularity),
+                roundToGranularity(destination[1], granularity));
         Log.i("Node", end.getX() + " " + end.getY());
 
-        if (PathFinder.pathfind(start, end)) {
+        synchronized (mSharedLock) {
+            int goalFloor = floorMap.floorAt(destination[2]);
+            if (goalFloor != floorMap.getCurrentFloor()) {
+                plannerService.requestFloorRoute(floorMap, floorMap.getCurrentFloor(), start,
+                        goalFloor, end);
+            } else {
+                plannerService.requestRoute(currentGrid(), start, end);
+            }
+        }
+        mAwaitingRoute = true;
+    }
+
+    // Results of startPathFinding and handlePathFinding, delivered on the UI thread
+    private final PlannerService.Listener mRouteListener = new PlannerService.Listener() {
+        @Override
+        public void onRouteFound(Route route) {
+            mAwaitingRoute = false;
+            mRoute = route;
+
             Toast t1 = Toast.makeText(getApplicationContext(), "Path Found!", Toast.LENGTH_SHORT);
             t1.show();
 
             String path = "";
-            for (int i = 0; i < PathFinder.squashedPath.size(); i++) {
-                path += String.valueOf(PathFinder.squashedPath.get(i).getX()) + ", "
-                        + String.valueOf(PathFinder.squashedPath.get(i).getY()) + "\n";
+            for (Node node : route.getSquashedPath()) {
+                path += String.valueOf(node.getX()) + ", " + String.valueOf(node.getY()) + "\n";
+            }
+
+            FloorConnector connector = route.getConnector();
+            String connectorHint = null;
+            if (connector != null) {
+                connectorHint = describeConnector(connector, route.getNextFloor());
+                path += connectorHint + "\n";
             }
 
             Toast t2 = Toast.makeText(getApplicationContext(), path, Toast.LENGTH_LONG);
             t2.show();
 
-            squashedPath = PathFinder.squashedPath;
+            squashedPath = route.getSquashedPath();
             Log.i("Path", path);
+            // Already at the stairs or the elevator
+            if (connectorHint != null && squashedPath.size() <= 2) {
+                ConvertTextToSpeech(connectorHint);
+            }
 
             getRotationsArray(squashedPath);
             mIsNavigatingMode = true;
             waypointIterator = 0;
             updateWaypoint();
         }
+
+        @Override
+        public void onRouteImproved(Route route) {
+            mRoute = route;
+            applyImprovedPath(route.getSquashedPath());
+        }
+
+        @Override
+        public void onRouteRepaired(Route route) {
+            mRoute = route;
+            applyImprovedPath(route.getSquashedPath());
+        }
+
+        @Override
+        public void onNoRoute(Node start, Node goal) {
+            mAwaitingRoute = false;
+            Log.i("Path", "No path from " + start.getX() + ", " + start.getY()
+                    + " to " + goal.getX() + ", " + goal.getY());
+        }
+
+        @Override
+        public void onGoalUnreachable(Node start, Node goal, Node nearest) {
+            mAwaitingRoute = false;
+            Log.i("Path", "No walked path from " + start.getX() + ", " + start.getY()
+                    + " to " + goal.getX() + ", " + goal.getY());
+            if (nearest == null) {
+                ConvertTextToSpeech("Destination cannot be reached from here");
+                return;
+            }
+            // Head for the nearest point that can be reached instead
+            ConvertTextToSpeech("Destination cannot be reached from here, "
+                    + "going to the nearest point that can");
+            mDestinationTranslation[0] = nearest.getX();
+            mDestinationTranslation[1] = nearest.getY();
+            startPathFinding(translation, mDestinationTranslation);
+        }
+    };
+
+    /**
+     * What to tell the user at the end of a leg that ends at the connector to nextFloor.
+     */
+    private String describeConnector(FloorConnector connector, int nextFloor) {
+        String way = connector.getKind() == FloorConnector.Kind.ELEVATOR ? "elevator" : "stairs";
+        synchronized (mSharedLock) {
+            boolean up = floorMap.getHeight(nextFloor) > floorMap.getHeight(
+                    floorMap.getCurrentFloor());
+            return "Take the " + way + (up ? " up" : " down");
+        }
+    }
+
+    /**
+     * Swaps in a better route from the background planner. The user is only prompted again when
+     * the next waypoint actually changes.
+     */
+    private void applyImprovedPath(List<Node> improvedPath) {
+        boolean sameNextWaypoint = mIsNavigatingMode && squashedPath != null
+                && squashedPath.size() > 1 && improvedPath.size() > 1
+                && squashedPath.get(1).equals(improvedPath.get(1));
+
+        squashedPath = improvedPath;
+        getRotationsArray(squashedPath);
+        waypointIterator = 0;
+        if (!sameNextWaypoint) {
+            mIsNavigatingMode = true;
+            updateWaypoint();
+        }
     }
 
     private void getRotationsArray(List<Node> squashedPath) {
@@ -951,7 +1320,7 @@ public class HelloAreaDescriptionActivity extends Activity implements
 
                 if (mIsRelocalized) {
                     Log.d("pathfinding", "starting");
-                    handlePathFinding(translation, mDestinationTranslation);
+                    startPathFinding(translation, mDestinationTranslation);
                 } else
                     Log.d("mIsRelocalized", String.valueOf(mIsRelocalized));
             }
@@ -962,7 +1331,38 @@ public class HelloAreaDescriptionActivity extends Activity implements
         try {
             JSONObject jsonObj = new JSONObject(readFile(fileName));
 
-            jsonObj.put("coordinateSet", new ObjectMapper().writeValueAsString(coordinateSet));
+            // Copied under the lock; serializing and writing them can take a while
+            List<Node> groundCells;
+            List<List<Node>> floorCells = new ArrayList<List<Node>>();
+            float[] heights;
+            List<FloorConnector> connectors;
+            float mapGranularity;
+            ByteArrayOutputStream layers = new ByteArrayOutputStream();
+            synchronized (mSharedLock) {
+                groundCells = floorMap.getGrid(0).toNodes();
+                mapGranularity = floorMap.getGranularity();
+                heights = new float[floorMap.getFloorCount()];
+                for (int floor = 0; floor < heights.length; floor++) {
+                    float height = floorMap.getHeight(floor);
+                    heights[floor] = Float.isNaN(height) ? 0 : height;
+                    if (floor > 0) {
+                        floorCells.add(floorMap.getGrid(floor).toNodes());
+                    }
+                }
+                connectors = new ArrayList<FloorConnector>(floorMap.getConnectors());
+                floorMap.writeLayers(new DataOutputStream(layers));
+            }
+
+            // Floor 0 is still written as the list of positions that maps have always been
+            // saved with; the floors above or below it go alongside
+            ObjectMapper mapper = new ObjectMapper();
+            jsonObj.put("coordinateSet", mapper.writeValueAsString(groundCells));
+            jsonObj.put("granularity", mapGranularity);
+            jsonObj.put("floorHeights", mapper.writeValueAsString(heights));
+            jsonObj.put("floorCells", mapper.writeValueAsString(floorCells));
+            jsonObj.put("floorConnectors", mapper.writeValueAsString(connectors));
+            writeCellLayers(new File(getFilesDir(), fileName + CELL_LAYERS_SUFFIX),
+                    layers.toByteArray());
             jsonObj.put("maxX", maxX);
             jsonObj.put("maxY", maxY);
             jsonObj.put("minX", minX);
@@ -981,14 +1381,47 @@ public class HelloAreaDescriptionActivity extends Activity implements
             e.printStackTrace();
         } catch (JsonProcessingException e) {
             e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     public void loadValuesFromJson() {
         try {
             JSONObject jsonObj = new JSONObject(jsonFileString);
-            coordinateSet = new ObjectMapper().readValue(jsonObj.getString("coordinateSet"), new TypeReference<Set<Node>>() {
-            });
+            ObjectMapper mapper = new ObjectMapper();
+            List<Node> coordinates = mapper.readValue(
+                    jsonObj.getString("coordinateSet"), new TypeReference<List<Node>>() {
+                    });
+            // Maps saved before floors were told apart are all floor 0, at height 0
+            float[] heights = {0};
+            List<List<Node>> floorCells = new ArrayList<List<Node>>();
+            List<FloorConnector> connectors = new ArrayList<FloorConnector>();
+            if (jsonObj.has("floorHeights")) {
+                heights = mapper.readValue(jsonObj.getString("floorHeights"), float[].class);
+                floorCells = mapper.readValue(jsonObj.getString("floorCells"),
+                        new TypeReference<List<List<Node>>>() {
+                        });
+                connectors = mapper.readValue(jsonObj.getString("floorConnectors"),
+                        new TypeReference<List<FloorConnector>>() {
+                        });
+            }
+            synchronized (mSharedLock) {
+                granularity = (float) jsonObj.optDouble("granularity",
+                        GridMap.DEFAULT_GRANULARITY);
+                mapBuilder.setGranularity(granularity);
+                FloorMap floors = new FloorMap(granularity,
+                        OccupancyGrid.fromNodes(coordinates, granularity), heights[0]);
+                for (int floor = 1; floor < heights.length; floor++) {
+                    floors.addFloor(heights[floor], OccupancyGrid.fromNodes(
+                            floorCells.get(floor - 1), granularity, floor));
+                }
+                for (FloorConnector connector : connectors) {
+                    floors.addConnector(connector);
+                }
+                useFloorMap(floors);
+                readCellLayers(new File(getFilesDir(), selectedUUID + CELL_LAYERS_SUFFIX));
+            }
             maxX = (float) jsonObj.getDouble("maxX");
             maxY = (float) jsonObj.getDouble("maxY");
             minX = (float) jsonObj.getDouble("minX");
@@ -1004,33 +1437,128 @@ public class HelloAreaDescriptionActivity extends Activity implements
         }
     }
 
-    public void printMatrix() {
-        int xLength = (int) ((maxX - minX) / granularity) + 1;
-        int yLength = (int) ((maxY - minY) / granularity) + 1;
-        int offsetX = Math.abs((int) (minX / granularity));
-        int offsetY = Math.abs((int) (minY / granularity));
+    /**
+     * Writes the attributes of the walked cells, as written by FloorMap.writeLayers, next to
+     * the old file and renamed over it so that the app closing halfway never leaves half a
+     * file behind.
+     */
+    private void writeCellLayers(File file, byte[] layers) {
+        File partial = new File(file.getPath() + ".partial");
+        try {
+            FileOutputStream out = new FileOutputStream(partial);
+            try {
+                out.write(layers);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the attributes written by writeCellLayers, if there are any. Call with mSharedLock
+     * held.
+     */
+    private void readCellLayers(File file) {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (!floorMap.readLayers(in)) {
+                    Log.d("cellLayers", "ignored layers of another map in " + file);
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-        Log.i("Offset", offsetX + " " + offsetY);
+    /**
+     * Positions of the landmarks saved with this ADF by saveLandmarks.
+     */
+    private List<Node> getSavedLandmarkNodes() {
+        return new ArrayList<Node>(getSavedWaypoints().values());
+    }
 
-        String s = "";
+    /**
+     * The cells of the waypoints saved with the current ADF, by name, in the order they were
+     * saved.
+     */
+    private Map<String, Node> getSavedWaypoints() {
+        Map<String, Node> waypoints = new LinkedHashMap<String, Node>();
+        try {
+            JSONObject jsonObj = new JSONObject(jsonFileString);
+            for (int i = 0; jsonObj.has(String.valueOf(i)); i++) {
+                String name = jsonObj.getString(String.valueOf(i));
+                waypoints.put(name, new Node(
+                        roundToGranularity(Float.valueOf(jsonObj.getString(name + "_x")), granularity),
+                        roundToGranularity(Float.valueOf(jsonObj.getString(name + "_y")), granularity)));
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return waypoints;
+    }
 
-        boolean[][] coordinateMatrix = new boolean[xLength][yLength];
+    /**
+     * Replaces the walked cells, moving the tile cache files over to the new floors.
+     */
+    private void useFloorMap(FloorMap floors) {
+        try {
+            if (floorMap != null && floors != floorMap) {
+                floorMap.closeStorage();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        floorMap = floors;
+        floors.setStorageDirectory(getCacheDir());
+    }
+
+    /**
+     * The walked cells of the floor the device is on. Call with mSharedLock held.
+     */
+    private OccupancyGrid currentGrid() {
+        return floorMap.getGrid(floorMap.getCurrentFloor());
+    }
 
-        for (Object coordinate : coordinateSet) {
-            Node current = (Node) coordinate;
-            coordinateMatrix[(int) (current.getX() / granularity) + offsetX][(int) (current.getY() / granularity) + offsetY] = true;
+    /**
+     * Logs the walked cells of every floor one tile at a time, each tile as a matrix with a line
+     * per x.
+     */
+    public void printMatrix() {
+        final StringBuilder s = new StringBuilder();
+        synchronized (mSharedLock) {
+            for (int floor = 0; floor < floorMap.getFloorCount(); floor++) {
+                Log.i("Floor", floor + " at " + floorMap.getHeight(floor));
+                printTiles(floorMap.getGrid(floor), s);
+            }
         }
+    }
 
-        for (int i = 0; i < xLength; i++) {
-            for (int j = 0; j < yLength; j++) {
-                if (coordinateMatrix[i][j]) {
-                    s += "1,";
-                } else {
-                    s += "0,";
+    private void printTiles(OccupancyGrid grid, final StringBuilder s) {
+        grid.forEachTile(new OccupancyGrid.TileVisitor() {
+            @Override
+            public void visitTile(int tileX, int tileY, int[] rows) {
+                Log.i("Offset", -tileX * OccupancyGrid.TILE_SIZE + " "
+                        + -tileY * OccupancyGrid.TILE_SIZE);
+                for (int x = 0; x < OccupancyGrid.TILE_SIZE; x++) {
+                    for (int y = 0; y < OccupancyGrid.TILE_SIZE; y++) {
+                        s.append((rows[y] & (1 << x)) != 0 ? "1," : "0,");
+                    }
+                    Log.i("Matrix", s.substring(0, s.length() - 1) + ";");
+                    s.setLength(0);
                 }
             }
-            Log.i("Matrix", s.substring(0, s.length() - 1) + ";");
-            s = "";
-        }
+        });
     }
 }
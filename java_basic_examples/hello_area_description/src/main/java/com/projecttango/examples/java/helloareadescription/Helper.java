@@ -16,7 +16,10 @@ class Helper {
         return (Math.toDegrees(Math.atan2(t1, t2)) + 450) % 360;
     }
 
-    static float roundToNearestHalf(float f) {
-        return ((float)Math.round(f*2))/2;
+    /**
+     * Snaps f to the centre of its cell on a grid of the given cell size.
+     */
+    static float roundToGranularity(float f, float granularity) {
+        return GridMap.toCell(f, granularity) * granularity;
     }
 }
@@ -0,0 +1,577 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical path-finding (HPA*, Botea et al. 2004). The grid is cut into
+ * square clusters; the places where a path can cross from one cluster into the next become
+ * entrance nodes of an abstract graph, linked by the costs of the shortest paths between them
+ * inside each cluster. A query searches that small graph and only the segments about to be
+ * walked have to be refined into cells, each by a search confined to one cluster.
+ *
+ * Routes are not always shortest, since they cross borders only at entrances: on open ground
+ * they are about 3% longer on average, and up to three quarters longer for short trips that
+ * have to bend through an entrance well off their line. A goal in the same or a neighboring
+ * cluster is also tried directly. When a new snapshot has the same bounds, only the clusters
+ * around the changed cells are abstracted again.
+ */
+final class HierarchicalPlanner implements GridSearch {
+    static final int DEFAULT_CLUSTER_SIZE = 16;
+    // Border runs wider than this get an entrance at both ends instead of one in the middle
+    private static final int MAX_ENTRANCE_WIDTH = 6;
+    // Abstract nodes expanded between looks at the interrupt flag
+    private static final int CHECK_INTERVAL = 256;
+
+    private final int clusterSize;
+
+    private GridMap map;
+    private ClusterLayout layout;
+    private Cluster[] clusters = new Cluster[0];
+    // Crossings out of each cluster over its east and south borders, as (inside, outside) cell
+    // pairs. East crossings also hold the diagonal steps into the clusters at its corners
+    private int[][] eastCrossings = new int[0][];
+    private int[][] southCrossings = new int[0][];
+
+    // Confined to one cluster at a time
+    private final SearchState local = new SearchState();
+    private final SearchState abstractState = new SearchState();
+
+    private int expandedCount;
+    private float pathCost;
+    private float abstractCost;
+
+    HierarchicalPlanner(int clusterSize) {
+        this.clusterSize = clusterSize;
+    }
+
+    /**
+     * Full cell path through the abstract route. Use findAbstractPath and refineSegment to
+     * refine only what is needed.
+     */
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        update(map);
+        pathCost = Float.POSITIVE_INFINITY;
+        int[] corridor = findAbstractPath(start, goal);
+        if (corridor == null) {
+            return null;
+        }
+
+        int[] path = new int[] {start};
+        for (int i = 0; i + 1 < corridor.length; i++) {
+            int[] segment = refineSegment(corridor, i);
+            int length = path.length;
+            path = Arrays.copyOf(path, length + segment.length - 1);
+            System.arraycopy(segment, 1, path, length, segment.length - 1);
+        }
+        pathCost = abstractCost;
+        return path;
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+        // The abstract graph is small enough that the octile heuristic does fine
+    }
+
+    /**
+     * Abstracts the given snapshot. If it has the same bounds as the last one, only the
+     * clusters near cells that changed are redone.
+     */
+    void update(GridMap newMap) {
+        if (newMap == map) {
+            return;
+        }
+        if (map == null || newMap.getWidth() != map.getWidth()
+                || newMap.getHeight() != map.getHeight()
+                || newMap.getOriginX() != map.getOriginX()
+                || newMap.getOriginY() != map.getOriginY()
+                || newMap.getGranularity() != map.getGranularity()) {
+            map = newMap;
+            buildAll();
+            return;
+        }
+
+        boolean[] changed = new boolean[clusters.length];
+        boolean anyChanged = false;
+        for (int id = 0; id < newMap.size(); id++) {
+            if (newMap.isWalkable(id) != map.isWalkable(id)) {
+                changed[layout.clusterOf(id)] = true;
+                anyChanged = true;
+            }
+        }
+        map = newMap;
+        layout = new ClusterLayout(map, clusterSize);
+        if (!anyChanged) {
+            return;
+        }
+
+        // A border scan reads cells one cluster beyond its owner, and a cluster's entrances
+        // come from the borders of its neighbors, hence the two rings
+        boolean[] rescan = grow(changed);
+        boolean[] rebuild = grow(rescan);
+        for (int c = 0; c < clusters.length; c++) {
+            if (rescan[c]) {
+                scanBorders(c);
+            }
+        }
+        for (int c = 0; c < clusters.length; c++) {
+            if (rebuild[c]) {
+                buildCluster(c);
+            }
+        }
+    }
+
+    /**
+     * Searches the abstract graph and returns the cells the route passes through, from start
+     * to goal: the start, the entrances it uses and the goal. Consecutive cells always lie in
+     * the same cluster or in two neighboring ones. Returns null if there is no route, or if
+     * the thread is interrupted first.
+     */
+    int[] findAbstractPath(int start, int goal) {
+        expandedCount = 0;
+        abstractCost = Float.POSITIVE_INFINITY;
+        if (start == goal) {
+            abstractCost = 0;
+            return new int[] {start};
+        }
+
+        int goalClusterId = layout.clusterOf(goal);
+        layout.floodCluster(local, goalClusterId, goal, -1);
+        float[] goalCosts = localCosts(clusters[goalClusterId].nodes);
+        boolean startWalkable = map.isWalkable(start);
+
+        SearchState s = abstractState;
+        s.prepare(map.size());
+        s.touch(start);
+        s.gScore[start] = 0;
+        s.openList.insert(start, heuristic(start, goal));
+
+        int sinceCheck = 0;
+        while (!s.openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            int current = s.openList.poll();
+            if (current == goal) {
+                abstractCost = s.gScore[goal];
+                s.openList.clear();
+                return s.reconstructPath(goal);
+            }
+            s.closed[current] = true;
+            expandedCount++;
+
+            if (current == start && !startWalkable) {
+                // A start off the walked cells has no entrances; its first step can lead into
+                // any neighboring cluster, so each walkable neighbor becomes an entry cell
+                int column = map.columnOf(start);
+                int row = map.rowOf(start);
+                for (int d = 0; d < 8; d++) {
+                    int neighborColumn = column + GridMap.DIRECTION_X[d];
+                    int neighborRow = row + GridMap.DIRECTION_Y[d];
+                    if (map.isWalkable(neighborColumn, neighborRow)) {
+                        relax(current, map.idOf(neighborColumn, neighborRow),
+                                GridMap.DIRECTION_COST[d], goal);
+                    }
+                }
+            } else if (current == start || (!startWalkable && s.parent[current] == start)) {
+                // Temporarily link the entry cell to the entrances of its cluster
+                int entryCluster = layout.clusterOf(current);
+                layout.floodCluster(local, entryCluster, current, -1);
+                int[] nodes = clusters[entryCluster].nodes;
+                for (int i = 0; i < nodes.length; i++) {
+                    if (local.isTouched(nodes[i])) {
+                        relax(current, nodes[i], local.gScore[nodes[i]], goal);
+                    }
+                }
+                // A goal in the same or a neighboring cluster may be reached directly, and
+                // often cheaper than through the entrances when it lies just over a border
+                if (layout.neighbors(entryCluster, goalClusterId)) {
+                    if (entryCluster != goalClusterId) {
+                        layout.floodClusters(local, entryCluster, goalClusterId, current, goal);
+                    }
+                    if (local.isTouched(goal)) {
+                        relax(current, goal, local.gScore[goal], goal);
+                    }
+                }
+            }
+
+            int clusterId = layout.clusterOf(current);
+            Cluster cluster = clusters[clusterId];
+            int index = cluster.indexOf(current);
+            if (index < 0) {
+                continue;
+            }
+            int n = cluster.nodes.length;
+            for (int j = 0; j < n; j++) {
+                relax(current, cluster.nodes[j], cluster.cost[index * n + j], goal);
+            }
+            int[] links = cluster.links[index];
+            for (int k = 0; k < links.length; k++) {
+                relax(current, links[k], cluster.linkCost[index][k], goal);
+            }
+            if (clusterId == goalClusterId) {
+                relax(current, goal, goalCosts[index], goal);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Cost of the route last returned by findAbstractPath, in cells.
+     */
+    float getAbstractCost() {
+        return abstractCost;
+    }
+
+    /**
+     * The cells from corridor[index] to corridor[index + 1] inclusive.
+     */
+    int[] refineSegment(int[] corridor, int index) {
+        int from = corridor[index];
+        int to = corridor[index + 1];
+        int fromColumn = map.columnOf(from);
+        int fromRow = map.rowOf(from);
+        if (Math.abs(fromColumn - map.columnOf(to)) <= 1 && Math.abs(fromRow - map.rowOf(to)) <= 1) {
+            return new int[] {from, to};
+        }
+        layout.floodClusters(local, layout.clusterOf(from), layout.clusterOf(to), from, to);
+        return local.reconstructPath(to);
+    }
+
+    int getClusterSize() {
+        return clusterSize;
+    }
+
+    /**
+     * The abstract graph of the last map passed to update: one node per entrance, with an edge
+     * for every crossing into a neighboring cluster and for every pair of entrances connected
+     * inside their cluster.
+     */
+    CorridorGraph toCorridorGraph() {
+        int total = 0;
+        for (Cluster cluster : clusters) {
+            total += cluster.nodes.length;
+        }
+        int[] cells = new int[total];
+        int next = 0;
+        for (Cluster cluster : clusters) {
+            System.arraycopy(cluster.nodes, 0, cells, next, cluster.nodes.length);
+            next += cluster.nodes.length;
+        }
+        Arrays.sort(cells);
+
+        int[] offsets = new int[total + 1];
+        for (Cluster cluster : clusters) {
+            int n = cluster.nodes.length;
+            for (int i = 0; i < n; i++) {
+                int node = Arrays.binarySearch(cells, cluster.nodes[i]);
+                for (int j = 0; j < n; j++) {
+                    if (j != i && cluster.cost[i * n + j] != Float.POSITIVE_INFINITY) {
+                        offsets[node + 1]++;
+                    }
+                }
+                offsets[node + 1] += cluster.links[i].length;
+            }
+        }
+        for (int node = 0; node < total; node++) {
+            offsets[node + 1] += offsets[node];
+        }
+
+        int[] targets = new int[offsets[total]];
+        float[] weights = new float[offsets[total]];
+        for (Cluster cluster : clusters) {
+            int n = cluster.nodes.length;
+            for (int i = 0; i < n; i++) {
+                int node = Arrays.binarySearch(cells, cluster.nodes[i]);
+                int edge = offsets[node];
+                for (int j = 0; j < n; j++) {
+                    if (j != i && cluster.cost[i * n + j] != Float.POSITIVE_INFINITY) {
+                        targets[edge] = Arrays.binarySearch(cells, cluster.nodes[j]);
+                        weights[edge++] = cluster.cost[i * n + j];
+                    }
+                }
+                for (int k = 0; k < cluster.links[i].length; k++) {
+                    targets[edge] = Arrays.binarySearch(cells, cluster.links[i][k]);
+                    weights[edge++] = cluster.linkCost[i][k];
+                }
+            }
+        }
+        return new CorridorGraph(map, clusterSize, cells, offsets, targets, weights);
+    }
+
+    private void relax(int from, int to, float cost, int goal) {
+        if (cost == Float.POSITIVE_INFINITY) {
+            return;
+        }
+        SearchState s = abstractState;
+        float tentativegScore = s.gScore[from] + cost;
+        if (!s.isTouched(to)) {
+            s.touch(to);
+        } else if (s.closed[to] || tentativegScore >= s.gScore[to]) {
+            return;
+        }
+        s.parent[to] = from;
+        s.gScore[to] = tentativegScore;
+        s.push(to, tentativegScore + heuristic(to, goal));
+    }
+
+    private float heuristic(int from, int to) {
+        return GridMap.octileDistance(map.columnOf(from) - map.columnOf(to),
+                map.rowOf(from) - map.rowOf(to));
+    }
+
+    private float[] localCosts(int[] nodes) {
+        float[] costs = new float[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            costs[i] = local.isTouched(nodes[i]) ? local.gScore[nodes[i]] : Float.POSITIVE_INFINITY;
+        }
+        return costs;
+    }
+
+    private void buildAll() {
+        layout = new ClusterLayout(map, clusterSize);
+        int count = layout.getClusterCount();
+        clusters = new Cluster[count];
+        eastCrossings = new int[count][];
+        southCrossings = new int[count][];
+        for (int c = 0; c < count; c++) {
+            scanBorders(c);
+        }
+        for (int c = 0; c < count; c++) {
+            buildCluster(c);
+        }
+    }
+
+    /**
+     * Marks every cluster next to a marked one as well.
+     */
+    private boolean[] grow(boolean[] marked) {
+        int columns = layout.getColumns();
+        int rows = layout.getRows();
+        boolean[] grown = new boolean[marked.length];
+        for (int c = 0; c < marked.length; c++) {
+            if (!marked[c]) {
+                continue;
+            }
+            int cx = c % columns;
+            int cy = c / columns;
+            for (int y = Math.max(0, cy - 1); y <= Math.min(rows - 1, cy + 1); y++) {
+                for (int x = Math.max(0, cx - 1); x <= Math.min(columns - 1, cx + 1); x++) {
+                    grown[y * columns + x] = true;
+                }
+            }
+        }
+        return grown;
+    }
+
+    private void scanBorders(int c) {
+        int columns = layout.getColumns();
+        int cx = c % columns;
+        int cy = c / columns;
+        int x0 = cx * clusterSize;
+        int y0 = cy * clusterSize;
+        int x1 = Math.min(x0 + clusterSize, map.getWidth()) - 1;
+        int y1 = Math.min(y0 + clusterSize, map.getHeight()) - 1;
+
+        eastCrossings[c] = cx + 1 < columns
+                ? scanBorder(x1, y0, y1, 1, true) : new int[0];
+        southCrossings[c] = cy + 1 < layout.getRows()
+                ? scanBorder(y1, x0, x1, 0, false) : new int[0];
+    }
+
+    /**
+     * Finds the crossings over one border line. For the east border, line is the last column
+     * of the cluster and [first, last] its rows; for the south border, the last row and its
+     * columns. Straight crossings are grouped into runs of adjacent ones, each represented by
+     * its middle (or both ends if wide); diagonal crossings that no run already covers are kept
+     * as they are. Only the east scan keeps diagonals into the clusters at the corners, so
+     * none is found twice.
+     */
+    private int[] scanBorder(int line, int first, int last, int dx, boolean corners) {
+        int[] crossings = new int[8];
+        int count = 0;
+
+        int runStart = -1;
+        for (int i = first; i <= last + 1; i++) {
+            boolean straight = i <= last && straightCrossing(line, i, dx);
+            if (straight && runStart < 0) {
+                runStart = i;
+            } else if (!straight && runStart >= 0) {
+                int runEnd = i - 1;
+                if (runEnd - runStart + 1 > MAX_ENTRANCE_WIDTH) {
+                    crossings = add(crossings, count, inside(line, runStart, dx), outside(line, runStart, dx));
+                    count += 2;
+                    crossings = add(crossings, count, inside(line, runEnd, dx), outside(line, runEnd, dx));
+                    count += 2;
+                } else {
+                    int middle = (runStart + runEnd) / 2;
+                    crossings = add(crossings, count, inside(line, middle, dx), outside(line, middle, dx));
+                    count += 2;
+                }
+                runStart = -1;
+            }
+        }
+
+        for (int i = first; i <= last; i++) {
+            if (!walkableAt(line, i, dx)) {
+                continue;
+            }
+            for (int side = -1; side <= 1; side += 2) {
+                int j = i + side;
+                boolean corner = j < first || j > last;
+                if ((corner && !corners) || !walkableAcross(line, j, dx)) {
+                    continue;
+                }
+                // Two adjacent straight crossings belong to the same run
+                if (!corner && straightCrossing(line, i, dx) && straightCrossing(line, j, dx)) {
+                    continue;
+                }
+                crossings = add(crossings, count, inside(line, i, dx), outside(line, j, dx));
+                count += 2;
+            }
+        }
+        return Arrays.copyOf(crossings, count);
+    }
+
+    private boolean straightCrossing(int line, int i, int dx) {
+        return walkableAt(line, i, dx) && walkableAcross(line, i, dx);
+    }
+
+    private boolean walkableAt(int line, int i, int dx) {
+        return dx != 0 ? map.isWalkable(line, i) : map.isWalkable(i, line);
+    }
+
+    private boolean walkableAcross(int line, int i, int dx) {
+        return dx != 0 ? map.isWalkable(line + 1, i) : map.isWalkable(i, line + 1);
+    }
+
+    private int inside(int line, int i, int dx) {
+        return dx != 0 ? map.idOf(line, i) : map.idOf(i, line);
+    }
+
+    private int outside(int line, int i, int dx) {
+        return dx != 0 ? map.idOf(line + 1, i) : map.idOf(i, line + 1);
+    }
+
+    private static int[] add(int[] pairs, int count, int a, int b) {
+        if (count + 2 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        pairs[count] = a;
+        pairs[count + 1] = b;
+        return pairs;
+    }
+
+    /**
+     * Collects the entrances of cluster c from the crossings of every border it touches and
+     * computes the costs between them inside the cluster.
+     */
+    private void buildCluster(int c) {
+        int columns = layout.getColumns();
+        int cx = c % columns;
+        int cy = c / columns;
+        Cluster cluster = new Cluster();
+
+        cluster.addCrossings(eastCrossings[c], true, this, c);
+        cluster.addCrossings(southCrossings[c], true, this, c);
+        for (int y = Math.max(0, cy - 1); y <= Math.min(layout.getRows() - 1, cy + 1); y++) {
+            if (cx > 0) {
+                cluster.addCrossings(eastCrossings[y * columns + cx - 1], false, this, c);
+            }
+        }
+        if (cy > 0) {
+            cluster.addCrossings(southCrossings[c - columns], false, this, c);
+        }
+        cluster.trim();
+
+        int n = cluster.nodes.length;
+        cluster.cost = new float[n * n];
+        for (int i = 0; i < n; i++) {
+            layout.floodCluster(local, c, cluster.nodes[i], -1);
+            float[] costs = localCosts(cluster.nodes);
+            System.arraycopy(costs, 0, cluster.cost, i * n, n);
+        }
+        clusters[c] = cluster;
+    }
+
+    /**
+     * The entrances of one cluster: nodes[i] links to links[i][k] in a neighboring cluster at
+     * linkCost[i][k], and reaches nodes[j] inside the cluster at cost[i * n + j].
+     */
+    private static final class Cluster {
+        int[] nodes = new int[4];
+        int[][] links = new int[4][];
+        float[][] linkCost = new float[4][];
+        float[] cost;
+        private int count;
+
+        int indexOf(int id) {
+            for (int i = 0; i < nodes.length; i++) {
+                if (nodes[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Adds the crossings with a cell in cluster c; own is true if the inside cells of the
+         * pairs belong to c, false if the outside ones do.
+         */
+        void addCrossings(int[] pairs, boolean own, HierarchicalPlanner planner, int c) {
+            for (int k = 0; k < pairs.length; k += 2) {
+                int node = own ? pairs[k] : pairs[k + 1];
+                int partner = own ? pairs[k + 1] : pairs[k];
+                if (!own && planner.layout.clusterOf(node) != c) {
+                    continue;
+                }
+                GridMap map = planner.map;
+                boolean diagonal = map.columnOf(node) != map.columnOf(partner)
+                        && map.rowOf(node) != map.rowOf(partner);
+                addLink(node, partner, diagonal ? GridMap.SQRT2 : 1f);
+            }
+        }
+
+        void trim() {
+            nodes = Arrays.copyOf(nodes, count);
+            links = Arrays.copyOf(links, count);
+            linkCost = Arrays.copyOf(linkCost, count);
+        }
+
+        private void addLink(int node, int partner, float linkCostValue) {
+            int i = 0;
+            while (i < count && nodes[i] != node) {
+                i++;
+            }
+            if (i == count) {
+                if (count == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, count * 2);
+                    links = Arrays.copyOf(links, count * 2);
+                    linkCost = Arrays.copyOf(linkCost, count * 2);
+                }
+                nodes[count] = node;
+                links[count] = new int[0];
+                linkCost[count] = new float[0];
+                count++;
+            }
+            int k = links[i].length;
+            links[i] = Arrays.copyOf(links[i], k + 1);
+            linkCost[i] = Arrays.copyOf(linkCost[i], k + 1);
+            links[i][k] = partner;
+            linkCost[i][k] = linkCostValue;
+        }
+    }
+}
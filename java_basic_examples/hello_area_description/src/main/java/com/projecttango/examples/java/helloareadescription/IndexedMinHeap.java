@@ -0,0 +1,180 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int ids keyed by float priorities. Unlike {@link java.util.PriorityQueue}
+ * it knows where every id sits, so contains() is O(1) and decreaseKey() is O(log n).
+ * The arrays are kept between searches and only grow.
+ *
+ * Priorities can carry a second component that breaks ties, for searches such as D* Lite
+ * that order their keys lexicographically. It is 0 unless given.
+ */
+final class IndexedMinHeap {
+    private int[] heap = new int[0];
+    // Position of each id in heap, -1 if it is not queued
+    private int[] position = new int[0];
+    private float[] key = new float[0];
+    private float[] tieBreak = new float[0];
+    private int size;
+
+    /**
+     * Makes room for ids in [0, capacity) and empties the heap.
+     */
+    void reset(int capacity) {
+        if (position.length < capacity) {
+            heap = new int[capacity];
+            position = new int[capacity];
+            key = new float[capacity];
+            tieBreak = new float[capacity];
+            Arrays.fill(position, -1);
+        } else {
+            clear();
+        }
+        size = 0;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int id) {
+        return position[id] >= 0;
+    }
+
+    float keyOf(int id) {
+        return key[id];
+    }
+
+    float peekKey() {
+        return key[heap[0]];
+    }
+
+    float peekTieBreak() {
+        return tieBreak[heap[0]];
+    }
+
+    int peek() {
+        return heap[0];
+    }
+
+    /**
+     * The id stored at the given heap slot, for walking every queued id in no particular order.
+     */
+    int idAt(int index) {
+        return heap[index];
+    }
+
+    void insert(int id, float priority) {
+        insert(id, priority, 0f);
+    }
+
+    void insert(int id, float priority, float secondary) {
+        key[id] = priority;
+        tieBreak[id] = secondary;
+        heap[size] = id;
+        position[id] = size;
+        siftUp(size++);
+    }
+
+    void decreaseKey(int id, float priority) {
+        key[id] = priority;
+        tieBreak[id] = 0f;
+        siftUp(position[id]);
+    }
+
+    /**
+     * Sets a new priority for a queued id, moving it either way.
+     */
+    void update(int id, float priority, float secondary) {
+        boolean decreased = priority < key[id]
+                || (priority == key[id] && secondary < tieBreak[id]);
+        key[id] = priority;
+        tieBreak[id] = secondary;
+        if (decreased) {
+            siftUp(position[id]);
+        } else {
+            siftDown(position[id]);
+        }
+    }
+
+    int poll() {
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0) {
+            heap[0] = heap[size];
+            position[heap[0]] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    void remove(int id) {
+        int index = position[id];
+        position[id] = -1;
+        size--;
+        if (index == size) {
+            return;
+        }
+        int last = heap[size];
+        heap[index] = last;
+        position[last] = index;
+        if (index > 0 && less(last, heap[(index - 1) >>> 1])) {
+            siftUp(index);
+        } else {
+            siftDown(index);
+        }
+    }
+
+    private void siftUp(int index) {
+        int id = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            int parent = heap[parentIndex];
+            if (!less(id, parent)) {
+                break;
+            }
+            heap[index] = parent;
+            position[parent] = index;
+            index = parentIndex;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+
+    private void siftDown(int index) {
+        int id = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && less(heap[right], heap[child])) {
+                child = right;
+            }
+            if (!less(heap[child], id)) {
+                break;
+            }
+            heap[index] = heap[child];
+            position[heap[index]] = index;
+            index = child;
+        }
+        heap[index] = id;
+        position[id] = index;
+    }
+
+    private boolean less(int a, int b) {
+        return key[a] < key[b] || (key[a] == key[b] && tieBreak[a] < tieBreak[b]);
+    }
+}
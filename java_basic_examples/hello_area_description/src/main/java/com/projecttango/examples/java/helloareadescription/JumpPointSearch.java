@@ -0,0 +1,234 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Jump Point Search over a {@link GridMap}. Returns the same optimal paths as
+ * {@link AStarSearch}, but instead of queueing every neighbor it jumps along straight and
+ * diagonal lines and only queues cells with a forced neighbor, so open corridors cost a
+ * handful of expansions instead of one per cell.
+ *
+ * The movement model matches AStarSearch: a diagonal step only needs its target cell to be
+ * walkable, so diagonal-only trails from walking at an angle stay connected.
+ */
+final class JumpPointSearch implements GridSearch {
+    // Jump points expanded between looks at the interrupt flag
+    private static final int CHECK_INTERVAL = 256;
+
+    private final SearchState state = new SearchState();
+    private int expandedCount;
+    private float pathCost;
+    private LandmarkTable landmarks;
+
+    private GridMap map;
+    private LandmarkTable alt;
+    private int goal;
+    private int goalColumn;
+    private int goalRow;
+
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        SearchState s = state;
+        s.prepare(map.size());
+        this.map = map;
+        alt = landmarks != null && landmarks.isValidFor(map) ? landmarks : null;
+        this.goal = goal;
+        expandedCount = 0;
+        pathCost = Float.POSITIVE_INFINITY;
+        goalColumn = map.columnOf(goal);
+        goalRow = map.rowOf(goal);
+
+        s.touch(start);
+        s.gScore[start] = 0;
+        s.openList.insert(start, LandmarkTable.estimate(map, alt, start, goal));
+
+        try {
+            int sinceCheck = 0;
+            while (!s.openList.isEmpty()) {
+                if (++sinceCheck == CHECK_INTERVAL) {
+                    sinceCheck = 0;
+                    if (Thread.currentThread().isInterrupted()) {
+                        return null;
+                    }
+                }
+                int current = s.openList.poll();
+
+                if (current == goal) {
+                    pathCost = s.gScore[goal];
+                    s.openList.clear();
+                    return expandPath(s.reconstructPath(goal));
+                }
+
+                s.closed[current] = true;
+                expandedCount++;
+                expand(current);
+            }
+            return null;
+        } finally {
+            this.map = null;
+            alt = null;
+        }
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+
+    private void expand(int current) {
+        int column = map.columnOf(current);
+        int row = map.rowOf(current);
+        int parent = state.parent[current];
+
+        if (parent == -1) {
+            // The start has no direction to prune by
+            for (int d = 0; d < 8; d++) {
+                jumpFrom(current, column, row, GridMap.DIRECTION_X[d], GridMap.DIRECTION_Y[d]);
+            }
+            return;
+        }
+
+        int dx = Integer.signum(column - map.columnOf(parent));
+        int dy = Integer.signum(row - map.rowOf(parent));
+
+        if (dx != 0 && dy != 0) {
+            // Natural neighbors of a diagonal move
+            jumpFrom(current, column, row, dx, 0);
+            jumpFrom(current, column, row, 0, dy);
+            jumpFrom(current, column, row, dx, dy);
+            // Forced neighbors
+            if (!map.isWalkable(column - dx, row)) {
+                jumpFrom(current, column, row, -dx, dy);
+            }
+            if (!map.isWalkable(column, row - dy)) {
+                jumpFrom(current, column, row, dx, -dy);
+            }
+        } else if (dx != 0) {
+            jumpFrom(current, column, row, dx, 0);
+            if (!map.isWalkable(column, row + 1)) {
+                jumpFrom(current, column, row, dx, 1);
+            }
+            if (!map.isWalkable(column, row - 1)) {
+                jumpFrom(current, column, row, dx, -1);
+            }
+        } else {
+            jumpFrom(current, column, row, 0, dy);
+            if (!map.isWalkable(column + 1, row)) {
+                jumpFrom(current, column, row, 1, dy);
+            }
+            if (!map.isWalkable(column - 1, row)) {
+                jumpFrom(current, column, row, -1, dy);
+            }
+        }
+    }
+
+    private void jumpFrom(int current, int column, int row, int dx, int dy) {
+        int jumpPoint = dx != 0 && dy != 0
+                ? jumpDiagonal(column, row, dx, dy)
+                : jumpStraight(column, row, dx, dy);
+        if (jumpPoint == -1) {
+            return;
+        }
+
+        SearchState s = state;
+        int jumpColumn = map.columnOf(jumpPoint);
+        int jumpRow = map.rowOf(jumpPoint);
+        float tentativegScore = s.gScore[current]
+                + GridMap.octileDistance(jumpColumn - column, jumpRow - row);
+        if (!s.isTouched(jumpPoint)) {
+            s.touch(jumpPoint);
+        } else if (s.closed[jumpPoint] || tentativegScore >= s.gScore[jumpPoint]) {
+            return;
+        }
+
+        s.parent[jumpPoint] = current;
+        s.gScore[jumpPoint] = tentativegScore;
+        s.push(jumpPoint, tentativegScore + LandmarkTable.estimate(map, alt, jumpPoint, goal));
+    }
+
+    /**
+     * Walks from (column, row) in a straight direction and returns the first cell that is the
+     * goal or has a forced neighbor, or -1 if the walk runs into an unwalked cell.
+     */
+    private int jumpStraight(int column, int row, int dx, int dy) {
+        while (true) {
+            column += dx;
+            row += dy;
+            if (!map.isWalkable(column, row)) {
+                return -1;
+            }
+            if ((column == goalColumn && row == goalRow) || hasForcedStraight(column, row, dx, dy)) {
+                return map.idOf(column, row);
+            }
+        }
+    }
+
+    private int jumpDiagonal(int column, int row, int dx, int dy) {
+        while (true) {
+            column += dx;
+            row += dy;
+            if (!map.isWalkable(column, row)) {
+                return -1;
+            }
+            if (column == goalColumn && row == goalRow) {
+                return map.idOf(column, row);
+            }
+            if ((!map.isWalkable(column - dx, row) && map.isWalkable(column - dx, row + dy))
+                    || (!map.isWalkable(column, row - dy) && map.isWalkable(column + dx, row - dy))) {
+                return map.idOf(column, row);
+            }
+            // A diagonal cell is a jump point if either straight component reaches one
+            if (jumpStraight(column, row, dx, 0) != -1 || jumpStraight(column, row, 0, dy) != -1) {
+                return map.idOf(column, row);
+            }
+        }
+    }
+
+    private boolean hasForcedStraight(int column, int row, int dx, int dy) {
+        if (dx != 0) {
+            return (!map.isWalkable(column, row + 1) && map.isWalkable(column + dx, row + 1))
+                    || (!map.isWalkable(column, row - 1) && map.isWalkable(column + dx, row - 1));
+        }
+        return (!map.isWalkable(column + 1, row) && map.isWalkable(column + 1, row + dy))
+                || (!map.isWalkable(column - 1, row) && map.isWalkable(column - 1, row + dy));
+    }
+
+    /**
+     * Fills in the cells between consecutive jump points, which always lie on a straight or
+     * diagonal line, so callers get the same cell-by-cell path as from AStarSearch.
+     */
+    private int[] expandPath(int[] jumpPoints) {
+        int length = 1;
+        for (int i = 1; i < jumpPoints.length; i++) {
+            length += Math.max(
+                    Math.abs(map.columnOf(jumpPoints[i]) - map.columnOf(jumpPoints[i - 1])),
+                    Math.abs(map.rowOf(jumpPoints[i]) - map.rowOf(jumpPoints[i - 1])));
+        }
+
+        int[] path = new int[length];
+        int index = 0;
+        path[index++] = jumpPoints[0];
+        for (int i = 1; i < jumpPoints.length; i++) {
+            int column = map.columnOf(jumpPoints[i - 1]);
+            int row = map.rowOf(jumpPoints[i - 1]);
+            int toColumn = map.columnOf(jumpPoints[i]);
+            int toRow = map.rowOf(jumpPoints[i]);
+            int dx = Integer.signum(toColumn - column);
+            int dy = Integer.signum(toRow - row);
+            while (column != toColumn || row != toRow) {
+                column += dx;
+                row += dy;
+                path[index++] = map.idOf(column, row);
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,280 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Shortest routes between every pair of saved landmarks of an ADF. The landmarks do not change
+ * once the ADF is saved, and most trips end at one, so a trip only needs a short connector
+ * search onto one of these routes.
+ *
+ * Routes are kept in cell coordinates rather than {@link GridMap} ids, so the table stays usable
+ * while the walked area, and with it the bounding box, grows. Cells only ever become walkable,
+ * so a stored route stays walkable too; pathBetween still checks it against the map.
+ */
+final class LandmarkRouteTable {
+    /**
+     * A cell on one of the stored routes towards some landmark: the landmark that route starts
+     * from, the cell's position along it, and the cost of the route left from there, in cells.
+     */
+    static final class RouteCell {
+        private final int from;
+        private final int index;
+        private final float rest;
+
+        private RouteCell(int from, int index, float rest) {
+            this.from = from;
+            this.index = index;
+            this.rest = rest;
+        }
+
+        int getFrom() {
+            return from;
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        float getRest() {
+            return rest;
+        }
+    }
+
+    private static final int FILE_VERSION = 1;
+
+    private final float granularity;
+    private final int[] landmarkX;
+    private final int[] landmarkY;
+    // Route of pair (i, j), i < j, from i to j as alternating cell x and y; null if unreachable
+    private final int[][] routes;
+    // In cells, infinite if unreachable
+    private final float[] costs;
+    // Landmark index by cell, the first one where several share a cell
+    private final Map<Long, Integer> landmarkByCell = new HashMap<Long, Integer>();
+    // Per landmark, built on first use: the cells of the routes towards it, each with the
+    // route that leaves the least to walk from there
+    private final Map<Integer, Map<Long, RouteCell>> routeCellsTo =
+            new HashMap<Integer, Map<Long, RouteCell>>();
+
+    private LandmarkRouteTable(float granularity, int[] landmarkX, int[] landmarkY,
+                               int[][] routes, float[] costs) {
+        this.granularity = granularity;
+        this.landmarkX = landmarkX;
+        this.landmarkY = landmarkY;
+        this.routes = routes;
+        this.costs = costs;
+        for (int i = landmarkX.length - 1; i >= 0; i--) {
+            landmarkByCell.put(cellKey(landmarkX[i], landmarkY[i]), i);
+        }
+    }
+
+    /**
+     * Runs one multi-target search per landmark, to the landmarks after it. Throws
+     * CancellationException if the thread is interrupted meanwhile.
+     */
+    static LandmarkRouteTable build(GridMap map, List<Node> landmarks) {
+        int count = landmarks.size();
+        int[] landmarkX = new int[count];
+        int[] landmarkY = new int[count];
+        int[] ids = new int[count];
+        for (int i = 0; i < count; i++) {
+            landmarkX[i] = GridMap.toCell(landmarks.get(i).getX(), map.getGranularity());
+            landmarkY[i] = GridMap.toCell(landmarks.get(i).getY(), map.getGranularity());
+            ids[i] = map.idOfCell(landmarkX[i], landmarkY[i]);
+        }
+
+        int[][] routes = new int[count * (count - 1) / 2][];
+        float[] costs = new float[routes.length];
+        MultiTargetSearch search = new MultiTargetSearch();
+        for (int i = 0; i < count; i++) {
+            boolean usable = ids[i] >= 0 && map.isWalkable(ids[i]);
+            float[] distances = usable ? search.findDistances(map, ids[i], ids) : null;
+            if (usable && distances == null) {
+                throw new CancellationException("Interrupted while building landmark routes");
+            }
+            for (int j = i + 1; j < count; j++) {
+                int pair = pairIndex(count, i, j);
+                int[] path = distances == null ? null : search.pathTo(ids[j]);
+                costs[pair] = path == null ? Float.POSITIVE_INFINITY : distances[j];
+                if (path != null) {
+                    int[] cells = new int[2 * path.length];
+                    for (int k = 0; k < path.length; k++) {
+                        cells[2 * k] = map.cellXOf(path[k]);
+                        cells[2 * k + 1] = map.cellYOf(path[k]);
+                    }
+                    routes[pair] = cells;
+                }
+            }
+        }
+        return new LandmarkRouteTable(map.getGranularity(), landmarkX, landmarkY, routes, costs);
+    }
+
+    /**
+     * Reads a table written by writeTo, or returns null if it was built for other landmarks or
+     * at another granularity.
+     */
+    static LandmarkRouteTable readFrom(DataInputStream in, float granularity,
+                                       List<Node> landmarks) throws IOException {
+        if (in.readInt() != FILE_VERSION || in.readFloat() != granularity
+                || in.readInt() != landmarks.size()) {
+            return null;
+        }
+
+        int count = landmarks.size();
+        int[] landmarkX = new int[count];
+        int[] landmarkY = new int[count];
+        for (int i = 0; i < count; i++) {
+            landmarkX[i] = in.readInt();
+            landmarkY[i] = in.readInt();
+            if (landmarkX[i] != GridMap.toCell(landmarks.get(i).getX(), granularity)
+                    || landmarkY[i] != GridMap.toCell(landmarks.get(i).getY(), granularity)) {
+                return null;
+            }
+        }
+
+        int[][] routes = new int[count * (count - 1) / 2][];
+        float[] costs = new float[routes.length];
+        for (int pair = 0; pair < routes.length; pair++) {
+            costs[pair] = in.readFloat();
+            int length = in.readInt();
+            if (length >= 0) {
+                int[] cells = new int[2 * length];
+                for (int k = 0; k < cells.length; k++) {
+                    cells[k] = in.readInt();
+                }
+                routes[pair] = cells;
+            }
+        }
+        return new LandmarkRouteTable(granularity, landmarkX, landmarkY, routes, costs);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeFloat(granularity);
+        out.writeInt(landmarkX.length);
+        for (int i = 0; i < landmarkX.length; i++) {
+            out.writeInt(landmarkX[i]);
+            out.writeInt(landmarkY[i]);
+        }
+        for (int pair = 0; pair < routes.length; pair++) {
+            out.writeFloat(costs[pair]);
+            int[] cells = routes[pair];
+            out.writeInt(cells == null ? -1 : cells.length / 2);
+            if (cells != null) {
+                for (int cell : cells) {
+                    out.writeInt(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Index of the landmark in the given cell of map, or -1 if there is none.
+     */
+    int landmarkAt(GridMap map, int id) {
+        if (map.getGranularity() != granularity || id < 0) {
+            return -1;
+        }
+        Integer landmark = landmarkByCell.get(cellKey(map.cellXOf(id), map.cellYOf(id)));
+        return landmark == null ? -1 : landmark;
+    }
+
+    /**
+     * The given cell as part of a stored route towards landmark to, or null if none passes it.
+     * Of several routes through the cell, the one with the least left to walk is taken.
+     */
+    synchronized RouteCell routeCellAt(int to, int cellX, int cellY) {
+        Map<Long, RouteCell> cells = routeCellsTo.get(to);
+        if (cells == null) {
+            cells = indexRoutesTo(to);
+            routeCellsTo.put(to, cells);
+        }
+        return cells.get(cellKey(cellX, cellY));
+    }
+
+    /**
+     * Cost of the stored route between two landmarks, in cells; infinite if there is none.
+     */
+    float costBetween(int from, int to) {
+        return from == to ? 0 : costs[pairIndex(landmarkX.length, Math.min(from, to),
+                Math.max(from, to))];
+    }
+
+    /**
+     * Ids in map of the stored route from one landmark to another, or null if there is none
+     * or it leaves map's walkable cells.
+     */
+    int[] pathBetween(GridMap map, int from, int to) {
+        if (map.getGranularity() != granularity) {
+            return null;
+        }
+        if (from == to) {
+            int id = map.idOfCell(landmarkX[from], landmarkY[from]);
+            return id < 0 ? null : new int[] {id};
+        }
+
+        int[] cells = routes[pairIndex(landmarkX.length, Math.min(from, to), Math.max(from, to))];
+        if (cells == null) {
+            return null;
+        }
+        int length = cells.length / 2;
+        int[] path = new int[length];
+        for (int k = 0; k < length; k++) {
+            int id = map.idOfCell(cells[2 * k], cells[2 * k + 1]);
+            if (id < 0 || !map.isWalkable(id)) {
+                return null;
+            }
+            // Routes between walkable cells can be walked either way
+            path[from < to ? k : length - 1 - k] = id;
+        }
+        return path;
+    }
+
+    private Map<Long, RouteCell> indexRoutesTo(int to) {
+        Map<Long, RouteCell> index = new HashMap<Long, RouteCell>();
+        for (int from = 0; from < landmarkX.length; from++) {
+            int[] cells = from == to ? null
+                    : routes[pairIndex(landmarkX.length, Math.min(from, to), Math.max(from, to))];
+            if (cells == null) {
+                continue;
+            }
+            // Walk back from the landmark so the rest of the route is known at every cell;
+            // k counts along the route as walked from 'from', as pathBetween returns it
+            int length = cells.length / 2;
+            float rest = 0;
+            int nextX = 0;
+            int nextY = 0;
+            for (int k = length - 1; k >= 0; k--) {
+                int stored = from < to ? k : length - 1 - k;
+                int x = cells[2 * stored];
+                int y = cells[2 * stored + 1];
+                if (k < length - 1) {
+                    rest += x != nextX && y != nextY ? GridMap.SQRT2 : 1f;
+                }
+                long key = cellKey(x, y);
+                RouteCell known = index.get(key);
+                if (known == null || rest < known.rest) {
+                    index.put(key, new RouteCell(from, k, rest));
+                }
+                nextX = x;
+                nextY = y;
+            }
+        }
+        return index;
+    }
+
+    private static long cellKey(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xffffffffL);
+    }
+
+    private static int pairIndex(int count, int i, int j) {
+        // Pairs (0, 1) .. (0, count - 1), then (1, 2) .. and so on
+        return i * (2 * count - i - 1) / 2 + (j - i - 1);
+    }
+}
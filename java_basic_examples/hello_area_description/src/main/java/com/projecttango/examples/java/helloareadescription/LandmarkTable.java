@@ -0,0 +1,243 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Shortest-path distances from every cell of a {@link GridMap} to a handful of landmark cells,
+ * for ALT heuristics (A*, Landmarks, Triangle inequality; Goldberg and Harrelson 2005). For any
+ * landmark L, d(v, goal) >= d(v, L) - d(goal, L), and the largest such bound is usually far
+ * tighter than the straight-line distance on maps with walls.
+ *
+ * A table only describes the map it was built on; {@link #isValidFor(GridMap)} tells whether it
+ * can be used with another snapshot.
+ */
+final class LandmarkTable {
+    static final int DEFAULT_LANDMARK_COUNT = 6;
+    private static final int FILE_VERSION = 1;
+
+    private final GridMap map;
+    private final int mapFingerprint;
+    // Last snapshot isValidFor accepted, so repeated searches on it skip the fingerprint
+    private volatile GridMap validatedMap;
+    private final int[] landmarks;
+    // distance[l][id]: cost from id to landmark l, in cells
+    private final float[][] distance;
+
+    private LandmarkTable(GridMap map, int mapFingerprint, int[] landmarks, float[][] distance) {
+        this.map = map;
+        this.validatedMap = map;
+        this.mapFingerprint = mapFingerprint;
+        this.landmarks = landmarks;
+        this.distance = distance;
+    }
+
+    /**
+     * Uses the walkable cells among seeds as landmarks (e.g. the waypoints the user saved), then
+     * adds cells far from every landmark so far until there are count of them. Throws
+     * CancellationException if the thread is interrupted meanwhile.
+     */
+    static LandmarkTable build(GridMap map, int[] seeds, int count) {
+        List<Integer> chosen = new ArrayList<Integer>();
+        List<float[]> tables = new ArrayList<float[]>();
+        for (int seed : seeds) {
+            if (seed >= 0 && map.isWalkable(seed) && !chosen.contains(seed)) {
+                chosen.add(seed);
+                tables.add(distancesTo(map, seed));
+            }
+        }
+
+        if (chosen.isEmpty()) {
+            int first = firstWalkable(map);
+            if (first < 0) {
+                return new LandmarkTable(map, map.fingerprint(), new int[0], new float[0][]);
+            }
+            // The cell farthest from an arbitrary one lies on the edge of the map
+            int farthest = farthestFrom(map, tables, distancesTo(map, first));
+            chosen.add(farthest);
+            tables.add(distancesTo(map, farthest));
+        }
+
+        while (chosen.size() < count) {
+            int next = farthestFrom(map, tables, null);
+            if (next < 0 || chosen.contains(next)) {
+                break;
+            }
+            chosen.add(next);
+            tables.add(distancesTo(map, next));
+        }
+
+        int[] landmarks = new int[chosen.size()];
+        for (int i = 0; i < landmarks.length; i++) {
+            landmarks[i] = chosen.get(i);
+        }
+        return new LandmarkTable(map, map.fingerprint(), landmarks,
+                tables.toArray(new float[tables.size()][]));
+    }
+
+    /**
+     * Reads a table written by writeTo, or returns null if it was built on a different map.
+     */
+    static LandmarkTable readFrom(DataInputStream in, GridMap map) throws IOException {
+        if (in.readInt() != FILE_VERSION) {
+            return null;
+        }
+        float granularity = in.readFloat();
+        int originX = in.readInt();
+        int originY = in.readInt();
+        int width = in.readInt();
+        int height = in.readInt();
+        int fingerprint = in.readInt();
+        if (granularity != map.getGranularity() || originX != map.getOriginX()
+                || originY != map.getOriginY() || width != map.getWidth()
+                || height != map.getHeight() || fingerprint != map.fingerprint()) {
+            return null;
+        }
+
+        int[] landmarks = new int[in.readInt()];
+        float[][] distance = new float[landmarks.length][map.size()];
+        for (int l = 0; l < landmarks.length; l++) {
+            landmarks[l] = in.readInt();
+            float[] table = distance[l];
+            for (int id = 0; id < table.length; id++) {
+                table[id] = in.readFloat();
+            }
+        }
+        return new LandmarkTable(map, fingerprint, landmarks, distance);
+    }
+
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeFloat(map.getGranularity());
+        out.writeInt(map.getOriginX());
+        out.writeInt(map.getOriginY());
+        out.writeInt(map.getWidth());
+        out.writeInt(map.getHeight());
+        out.writeInt(mapFingerprint);
+        out.writeInt(landmarks.length);
+        for (int l = 0; l < landmarks.length; l++) {
+            out.writeInt(landmarks[l]);
+            for (float d : distance[l]) {
+                out.writeFloat(d);
+            }
+        }
+    }
+
+    /**
+     * Whether the bounds hold on the given snapshot, i.e. it has exactly the cells this table
+     * was built on. A map with more cells may have shorter paths than the table knows about.
+     * Cells blocked by GridMap.withBlocked only make paths longer, so a blocked map is judged
+     * by the map it was blocked on.
+     */
+    boolean isValidFor(GridMap other) {
+        GridMap base = other.getUnblocked();
+        if (base == validatedMap) {
+            return true;
+        }
+        boolean valid = base.getGranularity() == map.getGranularity()
+                && base.getOriginX() == map.getOriginX()
+                && base.getOriginY() == map.getOriginY()
+                && base.getWidth() == map.getWidth()
+                && base.getHeight() == map.getHeight()
+                && base.getWalkableCount() == map.getWalkableCount()
+                && base.fingerprint() == mapFingerprint;
+        if (valid) {
+            validatedMap = base;
+        }
+        return valid;
+    }
+
+    /**
+     * The octile distance from one cell to another, raised to the ALT bound when landmarks is
+     * not null. landmarks must be valid for map.
+     */
+    static float estimate(GridMap map, LandmarkTable landmarks, int from, int to) {
+        float octile = GridMap.octileDistance(map.columnOf(from) - map.columnOf(to),
+                map.rowOf(from) - map.rowOf(to));
+        if (landmarks == null) {
+            return octile;
+        }
+        return Math.max(octile, landmarks.lowerBound(from, to));
+    }
+
+    int[] getLandmarks() {
+        return landmarks.clone();
+    }
+
+    /**
+     * Lower bound on the cost from one cell to another, in cells. Only meaningful on a map for
+     * which isValidFor holds.
+     */
+    float lowerBound(int from, int to) {
+        // Paths between walkable cells can be walked backwards at the same cost; a path out of
+        // an unwalkable cell (a start off the map) cannot
+        boolean symmetric = map.isWalkable(from);
+        float best = 0;
+        for (float[] table : distance) {
+            float fromDistance = table[from];
+            float toDistance = table[to];
+            if (fromDistance == Float.POSITIVE_INFINITY || toDistance == Float.POSITIVE_INFINITY) {
+                continue;
+            }
+            float bound = fromDistance - toDistance;
+            if (symmetric && -bound > bound) {
+                bound = -bound;
+            }
+            if (bound > best) {
+                best = bound;
+            }
+        }
+        return best;
+    }
+
+    private static float[] distancesTo(GridMap map, int landmark) {
+        // Plain step costs, so the bounds hold whether or not the searches add a penalty
+        DistanceField field = DistanceField.build(map.withPenalty(null), landmark);
+        if (field == null) {
+            throw new CancellationException("Interrupted while building landmark tables");
+        }
+        float[] table = new float[map.size()];
+        for (int id = 0; id < table.length; id++) {
+            table[id] = field.distanceFrom(id);
+        }
+        return table;
+    }
+
+    private static int firstWalkable(GridMap map) {
+        for (int id = 0; id < map.size(); id++) {
+            if (map.isWalkable(id)) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The walkable cell whose distance to the nearest of the given tables (or to extra, if not
+     * null) is largest among those that can reach them.
+     */
+    private static int farthestFrom(GridMap map, List<float[]> tables, float[] extra) {
+        int best = -1;
+        float bestDistance = 0;
+        for (int id = 0; id < map.size(); id++) {
+            if (!map.isWalkable(id)) {
+                continue;
+            }
+            float nearest = extra != null ? extra[id] : Float.POSITIVE_INFINITY;
+            if (extra == null) {
+                for (float[] table : tables) {
+                    nearest = Math.min(nearest, table[id]);
+                }
+            }
+            if (nearest != Float.POSITIVE_INFINITY && nearest > bestDistance) {
+                bestDistance = nearest;
+                best = id;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,67 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * What the attributes of {@link CellLayers} add to the cost of a cell, as a fraction of a plain
+ * step: a door, ramp or hazard at full strength adds its weight, and a cell walked fewer than
+ * FAMILIAR_VISITS times adds the unfamiliar weight, scaled by how far short it is. Immutable.
+ */
+final class LayerCosts {
+    // Cells walked this often, as many as the grid counts, are familiar and cost nothing extra
+    static final int FAMILIAR_VISITS = OccupancyGrid.MAX_VISITS;
+    static final LayerCosts DEFAULT = new LayerCosts(1f, 0.5f, 4f, 0f);
+
+    private final float door;
+    private final float ramp;
+    private final float hazard;
+    private final float unfamiliar;
+
+    LayerCosts(float door, float ramp, float hazard, float unfamiliar) {
+        this.door = door;
+        this.ramp = ramp;
+        this.hazard = hazard;
+        this.unfamiliar = unfamiliar;
+    }
+
+    float getDoor() {
+        return door;
+    }
+
+    float getRamp() {
+        return ramp;
+    }
+
+    float getHazard() {
+        return hazard;
+    }
+
+    float getUnfamiliar() {
+        return unfamiliar;
+    }
+
+    /**
+     * Adds the cost of every cell's attributes, LAYER_COUNT bytes per cell as GridMap keeps
+     * them, to the cell's entry in penalty. Returns whether any cell costs extra.
+     */
+    boolean addTo(byte[] attributes, float[] penalty) {
+        boolean any = false;
+        float doorScale = door / CellLayers.MAX_VALUE;
+        float rampScale = ramp / CellLayers.MAX_VALUE;
+        float hazardScale = hazard / CellLayers.MAX_VALUE;
+        float visitScale = unfamiliar / FAMILIAR_VISITS;
+        int a = 0;
+        for (int id = 0; id < penalty.length; id++, a += CellLayers.LAYER_COUNT) {
+            float cost = doorScale * (attributes[a + CellLayers.DOOR] & 0xff)
+                    + rampScale * (attributes[a + CellLayers.RAMP] & 0xff)
+                    + hazardScale * (attributes[a + CellLayers.HAZARD] & 0xff);
+            int missing = FAMILIAR_VISITS - (attributes[a + CellLayers.VISITS] & 0xff);
+            if (missing > 0) {
+                cost += visitScale * missing;
+            }
+            if (cost > 0) {
+                penalty[id] += cost;
+                any = true;
+            }
+        }
+        return any;
+    }
+}
@@ -0,0 +1,169 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Plans across the floors of a {@link FloorMap}. A* runs over a small graph of the start, the
+ * goal and both ends of every {@link FloorConnector}; expanding one of them floods its floor
+ * with a {@link MultiTargetSearch} to the others on that floor not yet expanded, so a floor is
+ * flooded once for each of its nodes that gets expanded. Floors the route cannot profit from
+ * are never searched.
+ *
+ * The estimate is the straight-line distance to the goal, raised to the cheapest connector
+ * while on another floor. It never overestimates as long as no connector costs less than the
+ * distance between its two ends, which holds for stairs and lifts measured as walked.
+ *
+ * The result is the first leg, on the start floor, as a {@link Route} that ends at the
+ * connector to take next with the rest of the trip as its unrefined length. Once the device
+ * arrives on the next floor the caller plans again from there.
+ */
+final class LayeredPlanner {
+    private final MultiTargetSearch floorSearch = new MultiTargetSearch();
+    private final AStarSearch legSearch = new AStarSearch();
+    private final IndexedMinHeap openList = new IndexedMinHeap();
+    private int searchedFloors;
+
+    /**
+     * Number of floors searched by the last call.
+     */
+    int getSearchedFloorCount() {
+        return searchedFloors;
+    }
+
+    /**
+     * Route from start on startFloor to goal on goalFloor, or null if there is none or the
+     * thread is interrupted first. floors[f] is a snapshot of floor f; all share one
+     * granularity.
+     */
+    Route findRoute(GridMap[] floors, List<FloorConnector> connectors, int startFloor,
+                    Node start, int goalFloor, Node goal) {
+        searchedFloors = 0;
+        // Graph nodes: 0 is the start, 1 the goal, 2k + 2 and 2k + 3 the ends of connector k
+        int nodeCount = 2 + 2 * connectors.size();
+        int[] floorOf = new int[nodeCount];
+        int[] cellOf = new int[nodeCount];
+        floorOf[0] = startFloor;
+        cellOf[0] = floors[startFloor].idOf(start);
+        floorOf[1] = goalFloor;
+        cellOf[1] = floors[goalFloor].idOf(goal);
+        for (int k = 0; k < connectors.size(); k++) {
+            FloorConnector connector = connectors.get(k);
+            floorOf[2 * k + 2] = connector.getFromFloor();
+            cellOf[2 * k + 2] = floors[connector.getFromFloor()].idOfCell(connector.getFromX(),
+                    connector.getFromY());
+            floorOf[2 * k + 3] = connector.getToFloor();
+            cellOf[2 * k + 3] = floors[connector.getToFloor()].idOfCell(connector.getToX(),
+                    connector.getToY());
+        }
+        if (cellOf[0] < 0 || cellOf[1] < 0 || !floors[goalFloor].isWalkable(cellOf[1])) {
+            return null;
+        }
+
+        float granularity = floors[startFloor].getGranularity();
+        // Leaving any floor but the goal's takes at least one connector
+        float floorChange = Float.POSITIVE_INFINITY;
+        for (FloorConnector connector : connectors) {
+            floorChange = Math.min(floorChange, connector.getCost());
+        }
+        float goalX = floors[goalFloor].worldX(cellOf[1]);
+        float goalY = floors[goalFloor].worldY(cellOf[1]);
+        float[] gScore = new float[nodeCount];
+        Arrays.fill(gScore, Float.POSITIVE_INFINITY);
+        int[] parent = new int[nodeCount];
+        boolean[] closed = new boolean[nodeCount];
+        boolean[] floorSearched = new boolean[floors.length];
+        gScore[0] = 0;
+        parent[0] = -1;
+        openList.reset(nodeCount);
+        openList.insert(0,
+                estimate(floors, floorOf, cellOf, 0, goalFloor, floorChange, goalX, goalY));
+        while (!openList.isEmpty()) {
+            int current = openList.poll();
+            if (current == 1) {
+                break;
+            }
+            closed[current] = true;
+            int floor = floorOf[current];
+            if (cellOf[current] < 0) {
+                continue;
+            }
+            if (!floorSearched[floor]) {
+                floorSearched[floor] = true;
+                searchedFloors++;
+            }
+
+            // Every other node on this floor, through the floor
+            int[] targets = new int[nodeCount];
+            for (int n = 0; n < nodeCount; n++) {
+                targets[n] = floorOf[n] == floor && n != current && !closed[n] ? cellOf[n] : -1;
+            }
+            float[] distances = floorSearch.findDistances(floors[floor], cellOf[current], targets);
+            if (distances == null) {
+                openList.clear();
+                return null;
+            }
+            for (int n = 0; n < nodeCount; n++) {
+                relax(floors, floorOf, cellOf, gScore, parent, current, n,
+                        distances[n] * granularity, goalFloor, floorChange, goalX, goalY);
+            }
+            // The other end of the connector, if this is one
+            if (current >= 2) {
+                relax(floors, floorOf, cellOf, gScore, parent, current, current ^ 1,
+                        connectors.get((current - 2) / 2).getCost(), goalFloor, floorChange,
+                        goalX, goalY);
+            }
+        }
+        openList.clear();
+        if (gScore[1] == Float.POSITIVE_INFINITY) {
+            return null;
+        }
+
+        // The first leg runs to the last node on the start floor before a connector is taken
+        int legEnd = 1;
+        for (int n = 1; n != 0; n = parent[n]) {
+            if (parent[n] >= 2 && floorOf[parent[n]] != floorOf[n]) {
+                legEnd = parent[n];
+            }
+        }
+        GridMap map = floors[startFloor];
+        int[] path = legSearch.findPath(map, cellOf[0], cellOf[legEnd]);
+        if (path == null) {
+            return null;
+        }
+        Route leg = new Route(start, goal, PathFinder.toNodes(map, path),
+                PathFinder.squash(map, path), true, null, gScore[1] - gScore[legEnd]);
+        if (legEnd == 1) {
+            return leg;
+        }
+        FloorConnector connector = connectors.get((legEnd - 2) / 2);
+        return leg.withConnector(connector, floorOf[legEnd ^ 1]);
+    }
+
+    private void relax(GridMap[] floors, int[] floorOf, int[] cellOf, float[] gScore,
+                       int[] parent, int from, int to, float cost, int goalFloor,
+                       float floorChange, float goalX, float goalY) {
+        float tentative = gScore[from] + cost;
+        if (cost == Float.POSITIVE_INFINITY || cellOf[to] < 0 || tentative >= gScore[to]) {
+            return;
+        }
+        gScore[to] = tentative;
+        parent[to] = from;
+        float key = tentative
+                + estimate(floors, floorOf, cellOf, to, goalFloor, floorChange, goalX, goalY);
+        if (openList.contains(to)) {
+            openList.decreaseKey(to, key);
+        } else {
+            openList.insert(to, key);
+        }
+    }
+
+    private static float estimate(GridMap[] floors, int[] floorOf, int[] cellOf, int n,
+                                  int goalFloor, float floorChange, float goalX, float goalY) {
+        GridMap map = floors[floorOf[n]];
+        float dx = map.worldX(cellOf[n]) - goalX;
+        float dy = map.worldY(cellOf[n]) - goalY;
+        float straight = (float) Math.sqrt(dx * dx + dy * dy);
+        return floorOf[n] == goalFloor ? straight : Math.max(straight, floorChange);
+    }
+}
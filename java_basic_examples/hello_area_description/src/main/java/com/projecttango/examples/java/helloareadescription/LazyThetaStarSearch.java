@@ -0,0 +1,321 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Any-angle search (Lazy Theta*, Nash et al. 2010). Like A*, but a cell may take its parent's
+ * parent as its own whenever the straight line between them only crosses walkable cells, so
+ * the search tree is made of straight segments between turning points rather than single steps.
+ * Line of sight is only checked when a cell is expanded, which keeps the number of checks close
+ * to the number of expansions.
+ *
+ * findPath returns every cell along those segments so the result still walks the grid;
+ * getWaypoints returns just the turning points, which need no further simplification.
+ * turningPoints gives the paths of the other searches the same kind of waypoints.
+ */
+final class LazyThetaStarSearch implements GridSearch {
+    // Expansions between looks at the interrupt flag; line-of-sight checks make them dear
+    private static final int CHECK_INTERVAL = 128;
+
+    private final SearchState state = new SearchState();
+    private int expandedCount;
+    private float pathCost;
+    private int[] waypoints;
+
+    /**
+     * Landmark bounds are 8-connected distances, which any-angle paths can undercut, so they
+     * would make the heuristic inadmissible; the straight-line distance is used instead.
+     */
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+    }
+
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        SearchState s = state;
+        s.prepare(map.size());
+        expandedCount = 0;
+        pathCost = Float.POSITIVE_INFINITY;
+        waypoints = null;
+
+        s.touch(start);
+        s.gScore[start] = 0;
+        s.openList.insert(start, distance(map, start, goal));
+
+        int sinceCheck = 0;
+        while (!s.openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    return null;
+                }
+            }
+            int current = s.openList.poll();
+
+            // The parent was assumed to see current when it was queued, at a cost estimated from
+            // the penalties at the two ends; settle that now, and fall back to the best expanded
+            // neighbour if it does not see it or the line turns out dearer
+            int parent = s.parent[current];
+            if (parent != -1) {
+                float viaParent = s.gScore[parent] + lineCost(map, parent, current);
+                if (viaParent != s.gScore[current]) {
+                    setParentFromNeighbors(map, current);
+                    if (viaParent < s.gScore[current]) {
+                        s.parent[current] = parent;
+                        s.gScore[current] = viaParent;
+                    }
+                }
+            }
+
+            if (current == goal) {
+                pathCost = s.gScore[goal];
+                s.openList.clear();
+                waypoints = s.reconstructPath(goal);
+                return traceSegments(map, waypoints);
+            }
+
+            s.closed[current] = true;
+            expandedCount++;
+
+            // The start is its own parent
+            int origin = s.parent[current] != -1 ? s.parent[current] : current;
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentativegScore = s.gScore[origin] + segmentCost(map, origin, n);
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                    continue;
+                }
+
+                s.parent[n] = origin;
+                s.gScore[n] = tentativegScore;
+                s.push(n, tentativegScore + distance(map, n, goal));
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Turning points of the last path found, start and goal included, or null if there was
+     * none.
+     */
+    int[] getWaypoints() {
+        return waypoints;
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+
+    private void setParentFromNeighbors(GridMap map, int id) {
+        SearchState s = state;
+        int column = map.columnOf(id);
+        int row = map.rowOf(id);
+        float best = Float.POSITIVE_INFINITY;
+        for (int d = 0; d < 8; d++) {
+            int neighborColumn = column - GridMap.DIRECTION_X[d];
+            int neighborRow = row - GridMap.DIRECTION_Y[d];
+            if (neighborColumn < 0 || neighborRow < 0 || neighborColumn >= map.getWidth()
+                    || neighborRow >= map.getHeight()) {
+                continue;
+            }
+            // Expanded cells include an unwalkable start, so no walkability check here
+            int n = map.idOf(neighborColumn, neighborRow);
+            if (!s.isTouched(n) || !s.closed[n]) {
+                continue;
+            }
+            float g = s.gScore[n] + map.stepCost(n, id, d);
+            if (g < best) {
+                best = g;
+                s.parent[id] = n;
+            }
+        }
+        s.gScore[id] = best;
+    }
+
+    /**
+     * Whether every cell the line from one cell centre to another passes through is walkable,
+     * apart from the first, which may be an off-map start. Steps the same way as traceLine, so
+     * a visible segment can always be walked cell by cell.
+     */
+    static boolean lineOfSight(GridMap map, int from, int to) {
+        int x = map.columnOf(from);
+        int y = map.rowOf(from);
+        int dx = Math.abs(map.columnOf(to) - x);
+        int dy = Math.abs(map.rowOf(to) - y);
+        int stepX = map.columnOf(to) > x ? 1 : -1;
+        int stepY = map.rowOf(to) > y ? 1 : -1;
+        int error = dx - dy;
+        for (int i = Math.max(dx, dy); i > 0; i--) {
+            int doubled = 2 * error;
+            if (doubled > -dy) {
+                error -= dy;
+                x += stepX;
+            }
+            if (doubled < dx) {
+                error += dx;
+                y += stepY;
+            }
+            if (!map.isWalkable(x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cost of the straight line between two cells: its length, raised by the mean penalty of
+     * the cells it passes through, both ends included. Infinite if it is not walkable; see
+     * lineOfSight.
+     */
+    private static float lineCost(GridMap map, int from, int to) {
+        if (!map.hasPenalty()) {
+            return lineOfSight(map, from, to) ? distance(map, from, to)
+                    : Float.POSITIVE_INFINITY;
+        }
+        int x = map.columnOf(from);
+        int y = map.rowOf(from);
+        int dx = Math.abs(map.columnOf(to) - x);
+        int dy = Math.abs(map.rowOf(to) - y);
+        int stepX = map.columnOf(to) > x ? 1 : -1;
+        int stepY = map.rowOf(to) > y ? 1 : -1;
+        int error = dx - dy;
+        int steps = Math.max(dx, dy);
+        float penalty = map.penaltyOf(from);
+        for (int i = steps; i > 0; i--) {
+            int doubled = 2 * error;
+            if (doubled > -dy) {
+                error -= dy;
+                x += stepX;
+            }
+            if (doubled < dx) {
+                error += dx;
+                y += stepY;
+            }
+            if (!map.isWalkable(x, y)) {
+                return Float.POSITIVE_INFINITY;
+            }
+            penalty += map.penaltyOf(map.idOf(x, y));
+        }
+        return distance(map, from, to) * (1 + penalty / (steps + 1));
+    }
+
+    /**
+     * Estimate of lineCost from the penalties at the ends alone, which is exact for single
+     * steps and needs no walk along the line.
+     */
+    private static float segmentCost(GridMap map, int from, int to) {
+        float cost = distance(map, from, to);
+        if (!map.hasPenalty()) {
+            return cost;
+        }
+        return cost * (1 + 0.5f * (map.penaltyOf(from) + map.penaltyOf(to)));
+    }
+
+    /**
+     * Turning points of an 8-connected cell path, first and last cell included: from each
+     * point kept the path is followed for as long as the straight line to the cell reached is
+     * walkable and costs no more than the stretch of path it stands for. The line only ever
+     * crosses walkable cells, as in findPath, though the points need not be the ones findPath
+     * would turn at.
+     */
+    static int[] turningPoints(GridMap map, int[] path) {
+        if (path.length <= 2) {
+            return path.clone();
+        }
+        int[] points = new int[path.length];
+        int count = 0;
+        points[count++] = path[0];
+        int anchor = 0;
+        // Cost along the path from the anchor to the current cell
+        float stretch = 0;
+        for (int i = 1; i < path.length; i++) {
+            float step = segmentCost(map, path[i - 1], path[i]);
+            if (i - anchor > 1
+                    && lineCost(map, path[anchor], path[i]) > (stretch + step) * 1.0001f) {
+                // The line cuts a corner or crosses costlier cells, so the path turns before i
+                anchor = i - 1;
+                points[count++] = path[anchor];
+                stretch = 0;
+            }
+            stretch += step;
+        }
+        points[count++] = path[path.length - 1];
+        return Arrays.copyOf(points, count);
+    }
+
+    /**
+     * Expands consecutive turning points into the cells between them.
+     */
+    static int[] traceSegments(GridMap map, int[] points) {
+        int length = 1;
+        for (int i = 1; i < points.length; i++) {
+            length += chebyshevDistance(map, points[i - 1], points[i]);
+        }
+
+        int[] cells = new int[length];
+        cells[0] = points[0];
+        int next = 1;
+        for (int i = 1; i < points.length; i++) {
+            next = traceLine(map, points[i - 1], points[i], cells, next);
+        }
+        return cells;
+    }
+
+    /**
+     * Writes the cells after from up to and including to into out, starting at offset, and
+     * returns the offset after the last one.
+     */
+    private static int traceLine(GridMap map, int from, int to, int[] out, int offset) {
+        int x = map.columnOf(from);
+        int y = map.rowOf(from);
+        int dx = Math.abs(map.columnOf(to) - x);
+        int dy = Math.abs(map.rowOf(to) - y);
+        int stepX = map.columnOf(to) > x ? 1 : -1;
+        int stepY = map.rowOf(to) > y ? 1 : -1;
+        int error = dx - dy;
+        for (int i = Math.max(dx, dy); i > 0; i--) {
+            int doubled = 2 * error;
+            if (doubled > -dy) {
+                error -= dy;
+                x += stepX;
+            }
+            if (doubled < dx) {
+                error += dx;
+                y += stepY;
+            }
+            out[offset++] = map.idOf(x, y);
+        }
+        return offset;
+    }
+
+    private static int chebyshevDistance(GridMap map, int from, int to) {
+        return Math.max(Math.abs(map.columnOf(to) - map.columnOf(from)),
+                Math.abs(map.rowOf(to) - map.rowOf(from)));
+    }
+
+    /**
+     * Straight-line distance between two cell centres, in cells.
+     */
+    private static float distance(GridMap map, int from, int to) {
+        int dx = map.columnOf(to) - map.columnOf(from);
+        int dy = map.rowOf(to) - map.rowOf(from);
+        return (float) Math.sqrt(dx * dx + dy * dy);
+    }
+}
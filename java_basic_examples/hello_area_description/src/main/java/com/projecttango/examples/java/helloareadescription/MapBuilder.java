@@ -0,0 +1,165 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves map building off the thread that delivers poses. offer keeps only the poses that
+ * enter a new cell, or a new HEIGHT_STEP band for the floor detection, and queues them in a
+ * {@link PoseRing}; a thread of its own drains the ring into the sink while holding the lock
+ * that guards the map, one batch per lock, and then runs the given housekeeping, such as disk
+ * writes, with the lock released.
+ *
+ * offer is for a single producer thread, and costs a few arithmetic operations and no
+ * allocation or lock for a pose in the same cell as the one before. It takes no lock itself, so
+ * the producer should not call it holding the map's lock either, or the builder's batch holds
+ * up the producer.
+ *
+ * A sink or housekeeping step that throws is logged, and the builder goes on with the next
+ * batch; the pose the sink threw on is lost.
+ */
+final class MapBuilder implements Runnable {
+    private static final String TAG = MapBuilder.class.getSimpleName();
+    private static final int CAPACITY = 1024;
+    // Height changes of this much, in metres, are passed on even within a cell
+    private static final float HEIGHT_STEP = 0.1f;
+    // Longest the builder sleeps before looking at the ring again, should a wake-up be missed
+    private static final long IDLE_PARK_NANOS = 50 * 1000 * 1000;
+
+    private final PoseRing ring = new PoseRing(CAPACITY);
+    private final Object lock;
+    private final PoseRing.Sink sink;
+    private final Runnable afterBatch;
+    private volatile float granularity;
+    private volatile boolean running;
+    // The builder is parked or about to be; the producer unparks it
+    private volatile boolean idle;
+    private volatile Thread thread;
+
+    // Confined to the producer: the cell and band of the last pose queued
+    private boolean hasLast;
+    private float lastGranularity;
+    private int lastCellX;
+    private int lastCellY;
+    private int lastBand;
+    private volatile long droppedCount;
+
+    /**
+     * afterBatch runs on the builder thread after every batch, without the lock.
+     */
+    MapBuilder(Object lock, PoseRing.Sink sink, Runnable afterBatch, float granularity) {
+        this.lock = lock;
+        this.sink = sink;
+        this.afterBatch = afterBatch;
+        this.granularity = granularity;
+    }
+
+    /**
+     * Sets the cell size the filter compares poses at, e.g. after a map is loaded.
+     */
+    void setGranularity(float granularity) {
+        this.granularity = granularity;
+    }
+
+    synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, "MapBuilder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues the pose unless it is in the same cell and height band as the last one queued.
+     * Returns whether it was queued. Producer thread only.
+     */
+    boolean offer(float x, float y, float z, double timestamp) {
+        float cellSize = granularity;
+        int cellX = GridMap.toCell(x, cellSize);
+        int cellY = GridMap.toCell(y, cellSize);
+        int band = (int) Math.floor(z / HEIGHT_STEP);
+        if (hasLast && cellX == lastCellX && cellY == lastCellY && band == lastBand
+                && cellSize == lastGranularity) {
+            return false;
+        }
+        if (!ring.offer(x, y, z, timestamp)) {
+            // Left as the last cell unqueued, so the next pose in it tries again
+            droppedCount++;
+            return false;
+        }
+        hasLast = true;
+        lastGranularity = cellSize;
+        lastCellX = cellX;
+        lastCellY = cellY;
+        lastBand = band;
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return true;
+    }
+
+    /**
+     * Number of new cells offered while the ring was full.
+     */
+    long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Waits until every pose queued so far has reached the sink. Must not be called holding the
+     * lock.
+     */
+    void flush() {
+        long target = ring.getOfferedCount();
+        Thread builder = thread;
+        while (ring.getDrainedCount() < target && builder != null && builder.isAlive()) {
+            LockSupport.unpark(builder);
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Drains what is left into the sink and stops the builder thread.
+     */
+    void shutdown() {
+        Thread builder;
+        synchronized (this) {
+            builder = thread;
+            running = false;
+        }
+        if (builder == null) {
+            return;
+        }
+        LockSupport.unpark(builder);
+        try {
+            builder.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running || !ring.isEmpty()) {
+            if (ring.isEmpty()) {
+                idle = true;
+                if (running && ring.isEmpty()) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+            try {
+                synchronized (lock) {
+                    ring.drain(sink);
+                }
+                afterBatch.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Map update failed", e);
+            }
+        }
+    }
+}
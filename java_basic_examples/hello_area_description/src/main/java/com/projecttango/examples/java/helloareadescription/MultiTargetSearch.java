@@ -0,0 +1,106 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * One Dijkstra search from a start cell to several target cells at once. It grows outwards
+ * until every reachable target is settled, so ranking n destinations costs one flood rather
+ * than n searches, and the parent links left behind give the shortest path to each of them.
+ */
+final class MultiTargetSearch {
+    // How many cells are settled before the interrupt flag is looked at again
+    private static final int CHECK_INTERVAL = 1024;
+
+    private final SearchState state = new SearchState();
+    private int start = -1;
+    private int expandedCount;
+
+    /**
+     * Returns the cost from start to every target, in cells, infinite for unreachable or
+     * unwalkable targets and for -1. The start cell does not have to be walkable. Paths stay
+     * available through pathTo until the next call. Returns null, with no paths, if the thread
+     * is interrupted first.
+     */
+    float[] findDistances(GridMap map, int start, int[] targets) {
+        SearchState s = state;
+        s.prepare(map.size());
+        this.start = start;
+        expandedCount = 0;
+
+        int[] pending = targets.clone();
+        Arrays.sort(pending);
+        int remaining = 0;
+        for (int i = 0; i < pending.length; i++) {
+            if ((i == 0 || pending[i] != pending[i - 1]) && pending[i] >= 0
+                    && (pending[i] == start || map.isWalkable(pending[i]))) {
+                remaining++;
+            }
+        }
+
+        s.touch(start);
+        s.gScore[start] = 0;
+        s.openList.insert(start, 0);
+        int sinceCheck = 0;
+        while (remaining > 0 && !s.openList.isEmpty()) {
+            if (++sinceCheck == CHECK_INTERVAL) {
+                sinceCheck = 0;
+                if (Thread.currentThread().isInterrupted()) {
+                    this.start = -1;
+                    return null;
+                }
+            }
+            int current = s.openList.poll();
+            s.closed[current] = true;
+            expandedCount++;
+            if (Arrays.binarySearch(pending, current) >= 0) {
+                remaining--;
+            }
+
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentativegScore = s.gScore[current] + map.stepCost(current, n, d);
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentativegScore >= s.gScore[n]) {
+                    continue;
+                }
+
+                s.parent[n] = current;
+                s.gScore[n] = tentativegScore;
+                s.push(n, tentativegScore);
+            }
+        }
+        s.openList.clear();
+
+        float[] distances = new float[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            int target = targets[i];
+            boolean settled = target >= 0 && s.isTouched(target) && s.closed[target];
+            distances[i] = settled ? s.gScore[target] : Float.POSITIVE_INFINITY;
+        }
+        return distances;
+    }
+
+    /**
+     * Cells from the last start to the given target, or null if it was not reached.
+     */
+    int[] pathTo(int target) {
+        SearchState s = state;
+        if (start < 0 || target < 0 || !s.isTouched(target) || !s.closed[target]) {
+            return null;
+        }
+        return s.reconstructPath(target);
+    }
+
+    int getExpandedCount() {
+        return expandedCount;
+    }
+}
@@ -1,26 +1,23 @@
 package com.projecttango.examples.java.helloareadescription;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 /**
  * Created by ChrisYang on 3/1/17.
  */
 
+// Maps saved before the search state moved into AStarSearch still carry prev/gScore/fScore
+@JsonIgnoreProperties(ignoreUnknown = true)
 class Node {
     private float x;
     private float y;
-    private Node prev;
-    private float gScore;
-    private float fScore;
 
     @JsonCreator
     public Node(@JsonProperty("x")float x, @JsonProperty("y")float y) {
         this.x = x;
         this.y = y;
-        this.prev = null;
-        this.gScore = Float.MAX_VALUE;
-        this.fScore = Float.MAX_VALUE;
     }
 
     public float getX() {
@@ -31,30 +28,6 @@ class Node {
         return y;
     }
 
-    public Node getPrev() {
-        return prev;
-    }
-
-    public void setPrev(Node prev) {
-        this.prev = prev;
-    }
-
-    public float getgScore() {
-        return gScore;
-    }
-
-    public void setgScore(float gScore) {
-        this.gScore = gScore;
-    }
-
-    public float getfScore() {
-        return fScore;
-    }
-
-    public void setfScore(float fScore) {
-        this.fScore = fScore;
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -0,0 +1,793 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The walked cells, one bit each, keyed by integer cell coordinates (world / granularity). Cells
+ * are kept in tiles of TILE_SIZE x TILE_SIZE, found through an open-addressing table of tile
+ * coordinates, so memory follows the walked area rather than its bounding box. Adding and
+ * testing a cell never allocates except for a new tile or a larger table.
+ *
+ * Each tile also counts how often its cells were visited, up to MAX_VISITS, in two more bit
+ * planes, so the counts cost two bits a cell and go wherever the tile goes.
+ *
+ * With storage set, the least recently used tiles can be evicted to it and are read back when
+ * touched again, which bounds the memory of a long walk through a large building. Evicting only
+ * drops the tiles from the grid; writeEvicted writes them out later, without the grid's lock.
+ *
+ * The connected components of the cells are kept up to date as cells are added, with
+ * {@link CellComponents} over the few pieces each tile's cells fall into, so a destination cut
+ * off from the start is known at once without keeping anything per cell. Doors, ramps and
+ * hazards are kept in {@link CellLayers}, only for the tiles that have any; those stay in
+ * memory when tiles are evicted.
+ *
+ * Not thread-safe, except for writeEvicted; the activity guards it with its shared lock.
+ */
+final class OccupancyGrid {
+    static final int TILE_SHIFT = 5;
+    static final int TILE_SIZE = 1 << TILE_SHIFT;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    // The occupied rows, then the low and the high bit of each cell's visit count
+    private static final int TILE_INTS = TILE_SIZE * 3;
+    private static final int TILE_BYTES = TILE_INTS * 4;
+    // Visits are counted up to this many
+    static final int MAX_VISITS = 3;
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Receives the tiles of forEachTile. Bit x of rows[y] is cell
+     * (tileX * TILE_SIZE + x, tileY * TILE_SIZE + y), and the same bit of
+     * rows[TILE_SIZE + y] and rows[2 * TILE_SIZE + y] the low and the high bit of its visit
+     * count; rows must not be modified or kept.
+     */
+    interface TileVisitor {
+        void visitTile(int tileX, int tileY, int[] rows);
+    }
+
+    private final float granularity;
+    private final int floor;
+
+    // Open-addressing table of the tiles that have at least one occupied cell
+    private boolean[] used = new boolean[INITIAL_CAPACITY];
+    private long[] keys = new long[INITIAL_CAPACITY];
+    // Rows of the tile, or null while it is evicted
+    private int[][] tiles = new int[INITIAL_CAPACITY][];
+    // Offset of the tile's copy in storage, or -1 if it has none
+    private long[] storedAt = new long[INITIAL_CAPACITY];
+    // Whether the tile changed since it was last stored
+    private boolean[] dirty = new boolean[INITIAL_CAPACITY];
+    // changeCount as of the tile's last new cell or visit count
+    private int[] changedAt = new int[INITIAL_CAPACITY];
+    private long[] lastUsed = new long[INITIAL_CAPACITY];
+    // Pieces of the tile as (cell, piece) pairs, the cell numbered y * TILE_SIZE + x: every
+    // occupied cell of the tile is connected within it to the cell of exactly one pair
+    private int[][] pieces = new int[INITIAL_CAPACITY][];
+    private int tileCount;
+    private int residentCount;
+    // Cells added plus visit counts changed, ever
+    private int changeCount;
+    private long clock;
+    // The last tile looked up, since consecutive cells mostly share one
+    private long lastKey;
+    private int lastSlot = -1;
+
+    private File storageFile;
+    // Guarded by storageLock as well, since writeEvicted uses it without the grid's lock
+    private RandomAccessFile storage;
+    private long storageLength;
+    private final Object storageLock = new Object();
+    // Rows of evicted tiles not written to storage yet, by offset; never modified once here
+    private final ConcurrentMap<Long, int[]> unwritten =
+            new ConcurrentHashMap<Long, int[]>();
+    private final int[] scratch = new int[TILE_INTS];
+
+    private final CellComponents components = new CellComponents();
+    private final int[] region = new int[TILE_SIZE];
+    // The piece last looked up and the cells of its tile that belong to it, until the next add
+    private final int[] cachedRegion = new int[TILE_SIZE];
+    private int cachedSlot = -1;
+    private int cachedPiece;
+    private final CellLayers layers = new CellLayers();
+
+    private int size;
+    // Bounding box of the occupied cells, valid while size > 0
+    private int minX;
+    private int minY;
+    private int maxX;
+    private int maxY;
+
+    OccupancyGrid(float granularity) {
+        this(granularity, 0);
+    }
+
+    /**
+     * A grid for the given floor of a {@link FloorMap}, which its snapshots carry along.
+     */
+    OccupancyGrid(float granularity, int floor) {
+        this.granularity = granularity;
+        this.floor = floor;
+    }
+
+    static OccupancyGrid fromNodes(Collection<Node> nodes, float granularity) {
+        return fromNodes(nodes, granularity, 0);
+    }
+
+    static OccupancyGrid fromNodes(Collection<Node> nodes, float granularity, int floor) {
+        OccupancyGrid grid = new OccupancyGrid(granularity, floor);
+        for (Node n : nodes) {
+            grid.add(GridMap.toCell(n.getX(), granularity), GridMap.toCell(n.getY(), granularity));
+        }
+        return grid;
+    }
+
+    float getGranularity() {
+        return granularity;
+    }
+
+    int getFloor() {
+        return floor;
+    }
+
+    /**
+     * Number of occupied cells. Only ever grows, so callers can tell a changed grid by it.
+     */
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int getMinX() {
+        return minX;
+    }
+
+    int getMinY() {
+        return minY;
+    }
+
+    int getMaxX() {
+        return maxX;
+    }
+
+    int getMaxY() {
+        return maxY;
+    }
+
+    /**
+     * Attributes of the cells, for reading and writing.
+     */
+    CellLayers getLayers() {
+        return layers;
+    }
+
+    int getTileCount() {
+        return tileCount;
+    }
+
+    /**
+     * Number of tiles held in memory rather than in storage.
+     */
+    int getResidentTileCount() {
+        return residentCount;
+    }
+
+    boolean contains(int cellX, int cellY) {
+        int slot = find(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+        if (!used[slot]) {
+            return false;
+        }
+        int[] rows = residentTile(slot);
+        return (rows[cellY & TILE_MASK] & (1 << (cellX & TILE_MASK))) != 0;
+    }
+
+    /**
+     * Whether the cell containing the given world position is occupied.
+     */
+    boolean containsPosition(float x, float y) {
+        return contains(GridMap.toCell(x, granularity), GridMap.toCell(y, granularity));
+    }
+
+    /**
+     * Marks the cell occupied; returns false if it already was.
+     */
+    boolean add(int cellX, int cellY) {
+        long key = tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT);
+        int slot = find(key);
+        if (!used[slot]) {
+            if ((tileCount + 1) * 2 > keys.length) {
+                rehash(keys.length * 2);
+                slot = find(key);
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            tiles[slot] = new int[TILE_INTS];
+            pieces[slot] = new int[0];
+            storedAt[slot] = -1;
+            tileCount++;
+            residentCount++;
+        }
+        int[] rows = residentTile(slot);
+        int mask = 1 << (cellX & TILE_MASK);
+        if ((rows[cellY & TILE_MASK] & mask) != 0) {
+            return false;
+        }
+        rows[cellY & TILE_MASK] |= mask;
+        dirty[slot] = true;
+        changedAt[slot] = ++changeCount;
+        cachedSlot = -1;
+        int piece = joinPiece(slot, rows, cellX & TILE_MASK, cellY & TILE_MASK);
+        components.grow(piece);
+        // Pieces of the neighboring tiles the cell touches
+        for (int d = 0; d < 8; d++) {
+            int neighborX = cellX + GridMap.DIRECTION_X[d];
+            int neighborY = cellY + GridMap.DIRECTION_Y[d];
+            if (neighborX >> TILE_SHIFT == cellX >> TILE_SHIFT
+                    && neighborY >> TILE_SHIFT == cellY >> TILE_SHIFT) {
+                continue;
+            }
+            int neighbor = pieceOf(neighborX, neighborY);
+            if (neighbor >= 0) {
+                components.union(piece, neighbor);
+            }
+        }
+        if (size == 0) {
+            minX = maxX = cellX;
+            minY = maxY = cellY;
+        } else {
+            minX = Math.min(minX, cellX);
+            minY = Math.min(minY, cellY);
+            maxX = Math.max(maxX, cellX);
+            maxY = Math.max(maxY, cellY);
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * Counts a visit to the cell, if it is occupied, unless it has MAX_VISITS already.
+     */
+    void visit(int cellX, int cellY) {
+        int slot = find(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+        if (!used[slot]) {
+            return;
+        }
+        int[] rows = residentTile(slot);
+        int y = cellY & TILE_MASK;
+        int mask = 1 << (cellX & TILE_MASK);
+        if ((rows[y] & mask) == 0) {
+            return;
+        }
+        int count = visitsOf(rows, y, mask);
+        if (count < MAX_VISITS) {
+            count++;
+            rows[TILE_SIZE + y] = (rows[TILE_SIZE + y] & ~mask) | ((count & 1) != 0 ? mask : 0);
+            rows[2 * TILE_SIZE + y] = (rows[2 * TILE_SIZE + y] & ~mask)
+                    | ((count & 2) != 0 ? mask : 0);
+            dirty[slot] = true;
+            changedAt[slot] = ++changeCount;
+        }
+    }
+
+    /**
+     * Number of visits counted for the cell, up to MAX_VISITS; 0 if it is not occupied.
+     */
+    int visitsOf(int cellX, int cellY) {
+        int slot = find(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+        if (!used[slot]) {
+            return 0;
+        }
+        return visitsOf(residentTile(slot), cellY & TILE_MASK, 1 << (cellX & TILE_MASK));
+    }
+
+    /**
+     * Visit count of the cell at bit mask of row y of a tile's rows.
+     */
+    static int visitsOf(int[] rows, int y, int mask) {
+        return ((rows[TILE_SIZE + y] & mask) != 0 ? 1 : 0)
+                | ((rows[2 * TILE_SIZE + y] & mask) != 0 ? 2 : 0);
+    }
+
+    /**
+     * Writes the visit counts of every tile, for readVisits.
+     */
+    void writeVisits(DataOutputStream out) throws IOException {
+        out.writeInt(tileCount);
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (!used[slot]) {
+                continue;
+            }
+            int[] rows = tiles[slot];
+            if (rows == null) {
+                readTile(storedAt[slot], scratch);
+                rows = scratch;
+            }
+            out.writeInt((int) (keys[slot] >> 32));
+            out.writeInt((int) keys[slot]);
+            for (int i = TILE_SIZE; i < TILE_INTS; i++) {
+                out.writeInt(rows[i]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the visit counts with those written by writeVisits, for the cells this grid has.
+     */
+    void readVisits(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        int[] counts = new int[TILE_INTS - TILE_SIZE];
+        for (int i = 0; i < count; i++) {
+            long key = tileKey(in.readInt(), in.readInt());
+            for (int k = 0; k < counts.length; k++) {
+                counts[k] = in.readInt();
+            }
+            int slot = find(key);
+            if (!used[slot]) {
+                continue;
+            }
+            int[] rows = residentTile(slot);
+            for (int k = 0; k < counts.length; k++) {
+                rows[TILE_SIZE + k] = counts[k] & rows[k % TILE_SIZE];
+            }
+            dirty[slot] = true;
+            changedAt[slot] = ++changeCount;
+        }
+    }
+
+    /**
+     * Number of cells added and visit counts changed so far. Together with changeCountOf it
+     * tells which tiles changed after an earlier look.
+     */
+    int getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * getChangeCount() as of the last change to the given tile, or 0 if it has no cells.
+     */
+    int changeCountOf(int tileX, int tileY) {
+        int slot = find(tileKey(tileX, tileY));
+        return used[slot] ? changedAt[slot] : 0;
+    }
+
+    /**
+     * Connected component of the cell, or -1 if it is not occupied. Comparable with other
+     * components until the next add.
+     */
+    int componentOf(int cellX, int cellY) {
+        int piece = pieceOf(cellX, cellY);
+        return piece < 0 ? -1 : components.find(piece);
+    }
+
+    int getComponentCount() {
+        return components.getComponentCount();
+    }
+
+    /**
+     * Whether a walk through occupied cells leads from the first cell to the second.
+     */
+    boolean isConnected(int fromX, int fromY, int toX, int toY) {
+        int component = componentOf(fromX, fromY);
+        return component >= 0 && component == componentOf(toX, toY);
+    }
+
+    /**
+     * The occupied cell nearest to (toX, toY), within maxRadius cells along either axis, that
+     * is connected to (fromX, fromY); as {x, y}, or null if there is none.
+     */
+    int[] nearestConnected(int fromX, int fromY, int toX, int toY, int maxRadius) {
+        int component = componentOf(fromX, fromY);
+        if (component < 0) {
+            return null;
+        }
+        int[] best = null;
+        long bestDistance = Long.MAX_VALUE;
+        // Square rings around the target; ring r holds no cell nearer than r
+        for (int r = 0; r <= maxRadius && (long) r * r < bestDistance; r++) {
+            for (int dy = -r; dy <= r; dy++) {
+                int step = dy == -r || dy == r ? 1 : 2 * r;
+                for (int dx = -r; dx <= r; dx += step) {
+                    long distance = (long) dx * dx + (long) dy * dy;
+                    if (distance < bestDistance
+                            && componentOf(toX + dx, toY + dy) == component) {
+                        best = new int[] {toX + dx, toY + dy};
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Piece of the newly added cell (x, y) of the tile in slot: a new one if no neighbor
+     * within the tile is occupied, otherwise the neighbors' pieces, joined into one.
+     */
+    private int joinPiece(int slot, int[] rows, int x, int y) {
+        int[] own = pieces[slot];
+        boolean alone = true;
+        for (int d = 0; d < 8 && alone; d++) {
+            int neighborX = x + GridMap.DIRECTION_X[d];
+            int neighborY = y + GridMap.DIRECTION_Y[d];
+            alone = neighborX < 0 || neighborY < 0 || neighborX >= TILE_SIZE
+                    || neighborY >= TILE_SIZE || (rows[neighborY] & (1 << neighborX)) == 0;
+        }
+        if (alone) {
+            int piece = components.newPiece();
+            own = Arrays.copyOf(own, own.length + 2);
+            own[own.length - 2] = y * TILE_SIZE + x;
+            own[own.length - 1] = piece;
+            pieces[slot] = own;
+            return piece;
+        }
+        if (own.length == 2) {
+            return own[1];
+        }
+
+        // The cell may have joined several pieces; keep the first and merge the rest into it
+        CellComponents.flood(rows, x, y, region);
+        int piece = -1;
+        int[] kept = new int[own.length];
+        int count = 0;
+        for (int k = 0; k < own.length; k += 2) {
+            if (!inRegion(region, own[k])) {
+                kept[count++] = own[k];
+                kept[count++] = own[k + 1];
+            } else if (piece < 0) {
+                piece = own[k + 1];
+                kept[count++] = own[k];
+                kept[count++] = piece;
+            } else {
+                components.union(piece, own[k + 1]);
+            }
+        }
+        pieces[slot] = count == own.length ? own : Arrays.copyOf(kept, count);
+        return piece;
+    }
+
+    /**
+     * Piece of the cell, or -1 if it is not occupied.
+     */
+    private int pieceOf(int cellX, int cellY) {
+        int slot = find(tileKey(cellX >> TILE_SHIFT, cellY >> TILE_SHIFT));
+        if (!used[slot]) {
+            return -1;
+        }
+        int[] rows = residentTile(slot);
+        int x = cellX & TILE_MASK;
+        int y = cellY & TILE_MASK;
+        if ((rows[y] & (1 << x)) == 0) {
+            return -1;
+        }
+        if (slot == cachedSlot && (cachedRegion[y] & (1 << x)) != 0) {
+            return cachedPiece;
+        }
+        CellComponents.flood(rows, x, y, cachedRegion);
+        int[] own = pieces[slot];
+        for (int k = 0; k < own.length; k += 2) {
+            if (inRegion(cachedRegion, own[k])) {
+                cachedSlot = slot;
+                cachedPiece = own[k + 1];
+                return cachedPiece;
+            }
+        }
+        throw new IllegalStateException("Occupied cell outside every piece of its tile");
+    }
+
+    private static boolean inRegion(int[] region, int cell) {
+        return (region[cell / TILE_SIZE] & (1 << (cell % TILE_SIZE))) != 0;
+    }
+
+    /**
+     * Marks every cell that the straight line between the centres of the two cells passes
+     * through, ends included (a supercover: where the line crosses a cell corner, both cells
+     * beside it are marked too). Returns the number of cells newly marked.
+     */
+    int addSegment(int x0, int y0, int x1, int y1) {
+        int dx = Math.abs(x1 - x0);
+        int dy = Math.abs(y1 - y0);
+        int stepX = x1 > x0 ? 1 : -1;
+        int stepY = y1 > y0 ? 1 : -1;
+        int x = x0;
+        int y = y0;
+        int added = add(x, y) ? 1 : 0;
+        // Step along whichever axis the line crosses a cell boundary on first
+        for (int ix = 0, iy = 0; ix < dx || iy < dy; ) {
+            long decision = (1 + 2L * ix) * dy - (1 + 2L * iy) * dx;
+            if (decision == 0) {
+                added += (add(x + stepX, y) ? 1 : 0) + (add(x, y + stepY) ? 1 : 0);
+                x += stepX;
+                y += stepY;
+                ix++;
+                iy++;
+            } else if (decision < 0) {
+                x += stepX;
+                ix++;
+            } else {
+                y += stepY;
+                iy++;
+            }
+            added += add(x, y) ? 1 : 0;
+        }
+        return added;
+    }
+
+    /**
+     * Marks the cell containing the given world position occupied.
+     */
+    boolean addPosition(float x, float y) {
+        return add(GridMap.toCell(x, granularity), GridMap.toCell(y, granularity));
+    }
+
+    /**
+     * Hands every tile with at least one occupied cell to the visitor, in no particular order.
+     * Evicted tiles are read from storage without being brought back into memory.
+     */
+    void forEachTile(TileVisitor visitor) {
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (!used[slot]) {
+                continue;
+            }
+            int[] rows = tiles[slot];
+            if (rows == null) {
+                readTile(storedAt[slot], scratch);
+                rows = scratch;
+            }
+            visitor.visitTile((int) (keys[slot] >> 32), (int) keys[slot], rows);
+        }
+    }
+
+    /**
+     * World positions of the occupied cells, for saving them in the map's sidecar.
+     */
+    List<Node> toNodes() {
+        final List<Node> nodes = new ArrayList<Node>(size);
+        forEachTile(new TileVisitor() {
+            @Override
+            public void visitTile(int tileX, int tileY, int[] rows) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    int row = rows[y];
+                    while (row != 0) {
+                        int x = Integer.numberOfTrailingZeros(row);
+                        nodes.add(new Node(((tileX << TILE_SHIFT) + x) * granularity,
+                                ((tileY << TILE_SHIFT) + y) * granularity));
+                        row &= row - 1;
+                    }
+                }
+            }
+        });
+        return nodes;
+    }
+
+    /**
+     * Lets evictColdTiles write tiles to the given file, which the grid then owns: it is
+     * truncated now and deleted by closeStorage.
+     */
+    void setStorage(File file) throws IOException {
+        closeStorage();
+        RandomAccessFile opened = new RandomAccessFile(file, "rw");
+        opened.setLength(0);
+        synchronized (storageLock) {
+            storage = opened;
+        }
+        storageFile = file;
+        storageLength = 0;
+    }
+
+    /**
+     * Brings every evicted tile back into memory and deletes the storage file.
+     */
+    void closeStorage() throws IOException {
+        if (storage == null) {
+            return;
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot]) {
+                residentTile(slot);
+            }
+            storedAt[slot] = -1;
+        }
+        synchronized (storageLock) {
+            // Any write still to come finds its tile gone from unwritten and skips it
+            unwritten.clear();
+            storage.close();
+            storage = null;
+        }
+        if (!storageFile.delete()) {
+            throw new IOException("Could not delete " + storageFile);
+        }
+        storageFile = null;
+    }
+
+    /**
+     * Drops the least recently used tiles from memory until at most maxResidentTiles remain,
+     * leaving the changed ones for writeEvicted. Returns the number evicted; none without
+     * storage.
+     */
+    int evictColdTiles(int maxResidentTiles) {
+        int excess = residentCount - Math.max(maxResidentTiles, 0);
+        if (storage == null || excess <= 0) {
+            return 0;
+        }
+
+        long[] ages = new long[residentCount];
+        int n = 0;
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (used[slot] && tiles[slot] != null) {
+                ages[n++] = lastUsed[slot];
+            }
+        }
+        Arrays.sort(ages);
+        // Evict everything used before the cutoff, then ties at the cutoff while still over
+        long cutoff = ages[excess - 1];
+        int evicted = 0;
+        for (int pass = 0; pass < 2 && evicted < excess; pass++) {
+            for (int slot = 0; slot < keys.length && evicted < excess; slot++) {
+                if (!used[slot] || tiles[slot] == null) {
+                    continue;
+                }
+                long age = lastUsed[slot];
+                if (pass == 0 ? age < cutoff : age == cutoff) {
+                    evict(slot);
+                    evicted++;
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private void evict(int slot) {
+        if (storedAt[slot] < 0) {
+            storedAt[slot] = storageLength;
+            storageLength += TILE_BYTES;
+            dirty[slot] = true;
+        }
+        if (dirty[slot]) {
+            // The rows are handed over as they are; reading the tile back copies them
+            unwritten.put(storedAt[slot], tiles[slot]);
+            dirty[slot] = false;
+        }
+        tiles[slot] = null;
+        residentCount--;
+        if (slot == lastSlot) {
+            lastSlot = -1;
+        }
+    }
+
+    /**
+     * Writes the tiles evicted since the last call to storage and returns how many were
+     * written. May be called without the grid's lock, from one thread at a time, so that the
+     * disk I/O holds up nothing but reads of evicted tiles; a tile that fails to be written is
+     * kept for the next call.
+     */
+    int writeEvicted() throws IOException {
+        int written = 0;
+        byte[] buffer = new byte[TILE_BYTES];
+        for (Map.Entry<Long, int[]> entry : unwritten.entrySet()) {
+            int[] rows = entry.getValue();
+            for (int y = 0; y < TILE_INTS; y++) {
+                buffer[4 * y] = (byte) (rows[y] >>> 24);
+                buffer[4 * y + 1] = (byte) (rows[y] >>> 16);
+                buffer[4 * y + 2] = (byte) (rows[y] >>> 8);
+                buffer[4 * y + 3] = (byte) rows[y];
+            }
+            synchronized (storageLock) {
+                // Skip tiles evicted again since, or dropped with the storage
+                if (unwritten.get(entry.getKey()) != rows) {
+                    continue;
+                }
+                storage.seek(entry.getKey());
+                storage.write(buffer);
+                // Unless evicted again meanwhile, which does not wait for the lock
+                unwritten.remove(entry.getKey(), rows);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Rows of the tile in slot, reading it back from storage if it was evicted.
+     */
+    private int[] residentTile(int slot) {
+        lastUsed[slot] = ++clock;
+        int[] rows = tiles[slot];
+        if (rows == null) {
+            rows = new int[TILE_INTS];
+            readTile(storedAt[slot], rows);
+            tiles[slot] = rows;
+            residentCount++;
+        }
+        return rows;
+    }
+
+    private void readTile(long offset, int[] rows) {
+        int[] pending = unwritten.get(offset);
+        if (pending != null) {
+            System.arraycopy(pending, 0, rows, 0, TILE_INTS);
+            return;
+        }
+        try {
+            synchronized (storageLock) {
+                storage.seek(offset);
+                for (int y = 0; y < TILE_INTS; y++) {
+                    rows[y] = storage.readInt();
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read an evicted tile", e);
+        }
+    }
+
+    private static long tileKey(int tileX, int tileY) {
+        return ((long) tileX << 32) | (tileY & 0xffffffffL);
+    }
+
+    /**
+     * Slot holding the tile with the given key, or the free slot where it would go.
+     */
+    private int find(long key) {
+        if (lastSlot >= 0 && lastKey == key) {
+            return lastSlot;
+        }
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (used[slot]) {
+            lastKey = key;
+            lastSlot = slot;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        boolean[] oldUsed = used;
+        long[] oldKeys = keys;
+        int[][] oldTiles = tiles;
+        long[] oldStoredAt = storedAt;
+        boolean[] oldDirty = dirty;
+        int[] oldChangedAt = changedAt;
+        long[] oldLastUsed = lastUsed;
+        int[][] oldPieces = pieces;
+        used = new boolean[capacity];
+        keys = new long[capacity];
+        tiles = new int[capacity][];
+        storedAt = new long[capacity];
+        dirty = new boolean[capacity];
+        changedAt = new int[capacity];
+        lastUsed = new long[capacity];
+        pieces = new int[capacity][];
+        lastSlot = -1;
+        cachedSlot = -1;
+        for (int old = 0; old < oldKeys.length; old++) {
+            if (!oldUsed[old]) {
+                continue;
+            }
+            int slot = find(oldKeys[old]);
+            used[slot] = true;
+            keys[slot] = oldKeys[old];
+            tiles[slot] = oldTiles[old];
+            storedAt[slot] = oldStoredAt[old];
+            dirty[slot] = oldDirty[old];
+            changedAt[slot] = oldChangedAt[old];
+            lastUsed[slot] = oldLastUsed[old];
+            pieces[slot] = oldPieces[old];
+        }
+        lastSlot = -1;
+    }
+}
@@ -0,0 +1,189 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Answers many route queries on one map at once, e.g. for precomputing routes offline or
+ * simulating several users. The {@link GridMap} is immutable and every thread searches with its
+ * own scratch arrays, so pathfind may be called from any number of threads without locking.
+ * pathfindAll spreads a batch of queries over a fixed pool.
+ */
+final class ParallelPlanner {
+    /**
+     * One (start, goal) pair of a batch.
+     */
+    static final class Query {
+        final Node start;
+        final Node goal;
+
+        Query(Node start, Node goal) {
+            this.start = start;
+            this.goal = goal;
+        }
+    }
+
+    // One search of each mode per thread, created on first use; their scratch arrays are reused
+    // by every later query on that thread
+    private static final ThreadLocal<GridSearch[]> SEARCHES = new ThreadLocal<GridSearch[]>() {
+        @Override
+        protected GridSearch[] initialValue() {
+            return new GridSearch[PathFinder.Mode.values().length];
+        }
+    };
+
+    private final GridMap map;
+    private final PathFinder.Mode mode;
+    private final int threadCount;
+    private final ExecutorService executor;
+    private volatile LandmarkTable landmarks;
+
+    /**
+     * Uses one thread per available processor.
+     */
+    ParallelPlanner(GridMap map, PathFinder.Mode mode) {
+        this(map, mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    ParallelPlanner(GridMap map, PathFinder.Mode mode, int threadCount) {
+        this.map = map;
+        this.mode = mode;
+        this.threadCount = threadCount;
+        executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ParallelPlanner-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    /**
+     * ALT table for the searches; ignored if it was built on a different map. May be null.
+     */
+    void setLandmarks(LandmarkTable landmarks) {
+        this.landmarks = landmarks;
+    }
+
+    /**
+     * Returns the route the planner's mode finds from start to goal, or null if there is none.
+     * Safe to call from any thread.
+     */
+    Route pathfind(Node start, Node goal) {
+        int startId = map.idOf(start);
+        int goalId = map.idOf(goal);
+        if (startId < 0 || goalId < 0) {
+            return null;
+        }
+        if (startId != goalId && !map.isWalkable(goalId)) {
+            return null;
+        }
+
+        GridSearch search = searchForThisThread();
+        search.setLandmarks(landmarks);
+        int[] path = search.findPath(map, startId, goalId);
+        if (path == null) {
+            return null;
+        }
+        List<Node> totalPath = PathFinder.toNodes(map, path);
+        if (search instanceof LazyThetaStarSearch) {
+            List<Node> waypoints =
+                    PathFinder.toNodes(map, ((LazyThetaStarSearch) search).getWaypoints());
+            return new Route(start, goal, totalPath, waypoints, false, null);
+        }
+        if (search instanceof SkeletonPlanner) {
+            return new Route(start, goal, totalPath, PathFinder.squash(map, path), false, null)
+                    .withTurns(((SkeletonPlanner) search).getTurns());
+        }
+        boolean optimal = mode != PathFinder.Mode.HIERARCHICAL;
+        return new Route(start, goal, totalPath, PathFinder.squash(map, path), optimal, null);
+    }
+
+    /**
+     * Plans every query on the pool and returns the routes in query order, with null for
+     * queries that have no route. Blocks until all are done.
+     */
+    Route[] pathfindAll(final List<Query> queries) throws InterruptedException {
+        final Route[] routes = new Route[queries.size()];
+        // Workers pull the next query from a shared counter, so a few long routes do not
+        // leave the other threads idle
+        final AtomicInteger next = new AtomicInteger();
+        int workerCount = Math.min(threadCount, queries.size());
+
+        List<Future<Void>> workers = new ArrayList<Future<Void>>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = next.getAndIncrement(); i < routes.length;
+                         i = next.getAndIncrement()) {
+                        if (Thread.currentThread().isInterrupted()) {
+                            return null;
+                        }
+                        Query query = queries.get(i);
+                        routes[i] = pathfind(query.start, query.goal);
+                    }
+                    return null;
+                }
+            }));
+        }
+
+        try {
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            for (Future<Void> worker : workers) {
+                worker.cancel(true);
+            }
+        }
+        // Future.get() makes every worker's writes to routes visible here
+        return routes;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private GridSearch searchForThisThread() {
+        GridSearch[] searches = SEARCHES.get();
+        int index = mode.ordinal();
+        if (searches[index] == null) {
+            searches[index] = newSearch(mode);
+        }
+        return searches[index];
+    }
+
+    private static GridSearch newSearch(PathFinder.Mode mode) {
+        switch (mode) {
+            case A_STAR:
+                return new AStarSearch();
+            case JUMP_POINT:
+                return new JumpPointSearch();
+            case HIERARCHICAL:
+                return new HierarchicalPlanner(HierarchicalPlanner.DEFAULT_CLUSTER_SIZE);
+            case ANY_ANGLE:
+                return new LazyThetaStarSearch();
+            case SKELETON:
+                return new SkeletonPlanner();
+            default:
+                return new DStarLiteSearch();
+        }
+    }
+}
@@ -5,151 +5,585 @@ package com.projecttango.examples.java.helloareadescription;
  */
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Map;
 
+/**
+ * Plans routes over snapshots of the walked cells. An instance keeps search state between calls
+ * (the incremental planner's tree, the current goal's distance field), so it must be used from
+ * one thread at a time; {@link PlannerService} gives it a thread of its own.
+ */
 class PathFinder {
-    static Set<Node> coordinateSet;
-    static List<Node> totalPath;
-    static List<Node> squashedPath;
-    static float granularity;
-
-    public static boolean pathfind(Node start, Node goal) {
-        List<Node> closedList = new ArrayList<Node>();
-        Queue<Node> openList = new PriorityQueue<Node>(11, new ComparatorfScore());
-
-        start.setgScore(0);
-        start.setfScore(distanceBetween(start, goal));
-        openList.add(start);
-
-        while (!openList.isEmpty()) {
-            // Get the node that has the lowest fScore
-            Node current = openList.remove();
-
-            if (current.equals(goal)) {
-                totalPath = reconstructPath(current);
-                if(totalPath.size() > 2) {
-                    squashedPath = DouglasPeucker(totalPath, 0.75);
-                } else {
-                    squashedPath = totalPath;
-                }
-                return true;
-            }
+    /**
+     * Search algorithm used by pathfind. The first three return optimal paths, with the turning
+     * points of the cell path as waypoints; jump point search expands far fewer cells on open
+     * corridors, and the incremental planner, the default, keeps its search tree between calls
+     * so replanning towards the same goal only repairs what changed.
+     * The hierarchical planner is for building-scale maps: it plans over clusters of cells,
+     * skips the goal's distance field, and only refines the first stretch of the route. The
+     * any-angle planner returns straight segments between turning points, which are both
+     * shorter than 8-connected paths and the waypoints themselves, but has no distance field to
+     * measure the way back to the route from off it.
+     * The skeleton planner keeps to the middle of corridors and names the junctions on the way;
+     * it falls back to the incremental planner where the skeleton is out of reach. All but the
+     * jump point, hierarchical and skeleton planners add the clearance penalty and the cost of
+     * doors, ramps and hazards to their costs.
+     */
+    enum Mode {
+        A_STAR,
+        JUMP_POINT,
+        INCREMENTAL,
+        HIERARCHICAL,
+        ANY_ANGLE,
+        SKELETON
+    }
 
-            closedList.add(current);
-            System.out.println(closedList.size());
+    /**
+     * Receives what pathfindWithin keeps finding after it has returned. Called on a background
+     * thread.
+     */
+    interface RouteListener {
+        /**
+         * A route shorter than any returned or reported before.
+         */
+        void onRouteImproved(Route route);
 
-            List<Node> neighbors = getNeighbors(current);
-            for (Node n : neighbors) {
-                if (closedList.contains(n)) {
-                    continue;
+        /**
+         * The last route is optimal, or no route exists at all.
+         */
+        void onPlanningFinished(boolean routeFound);
+    }
+
+    private final AStarSearch aStarSearch = new AStarSearch();
+    private final JumpPointSearch jumpPointSearch = new JumpPointSearch();
+    private final DStarLiteSearch incrementalSearch = new DStarLiteSearch();
+    private final HierarchicalPlanner hierarchicalPlanner =
+            new HierarchicalPlanner(HierarchicalPlanner.DEFAULT_CLUSTER_SIZE);
+    private final LazyThetaStarSearch anyAngleSearch = new LazyThetaStarSearch();
+    private final SkeletonPlanner skeletonPlanner = new SkeletonPlanner();
+    private final MultiTargetSearch multiTargetSearch = new MultiTargetSearch();
+    // Farthest, in cells, the start may be from a stored landmark route for pathfind to join it
+    private static final int MAX_CONNECTOR_CELLS = 20;
+    // and how much longer than the straight line the connector may be
+    private static final float CONNECTOR_DETOUR = 1.5f;
+    private final AnytimePlanner anytimePlanner = new AnytimePlanner();
+    // Cells closer than this to the edge of the walked area, in metres, cost extra
+    static final float DEFAULT_CLEARANCE_RADIUS = 1.0f;
+    // and a step along the very edge costs this many plain steps extra
+    static final float DEFAULT_CLEARANCE_WEIGHT = 2.0f;
+    // Null while the penalty is switched off
+    private ClearanceField clearance =
+            new ClearanceField(DEFAULT_CLEARANCE_RADIUS, DEFAULT_CLEARANCE_WEIGHT);
+    private LayerCosts layerCosts = LayerCosts.DEFAULT;
+    // Last snapshot given to withCosts and what it made of it, so that repeated queries on
+    // one snapshot share the costs, and the searches' caches keyed on the map instance
+    private GridMap costedInput;
+    private GridMap costedBase;
+    private GridMap costedOutput;
+    // Cells blocked for a while on this floor, and their version costedOutput is blocked with
+    private final DynamicObstacles obstacles = new DynamicObstacles();
+    private int blockedVersion = -1;
+    // How far ahead the hierarchical mode turns the route into cells
+    private static final int REFINE_AHEAD_CELLS = 64;
+    // squash runs on the planner thread, the anytime planner's thread and ParallelPlanner's
+    private static final ThreadLocal<PathSimplifier> SIMPLIFIER =
+            new ThreadLocal<PathSimplifier>() {
+                @Override
+                protected PathSimplifier initialValue() {
+                    PathSimplifier simplifier =
+                            new PathSimplifier(PathSimplifier.Method.DOUGLAS_PEUCKER, 0.75f);
+                    simplifier.setKeepWalkable(true);
+                    return simplifier;
                 }
+            };
+    private DistanceField goalField;
+    private LandmarkTable landmarks;
+    private LandmarkRouteTable routeTable;
+    private CorridorRouter corridorRouter;
+    private Mode mode = Mode.INCREMENTAL;
 
-                float tentativegScore = current.getgScore() + distanceBetween(current, n);
-                if (!openList.contains(n)) {
-                    openList.add(n);
-                } else if (tentativegScore >= n.getgScore()) {
-                    // Already in openList but the gScore is higher than
-                    // originally
-                    continue;
+    Mode getMode() {
+        return mode;
+    }
+
+    void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Makes cells closer than radius metres to the edge of the walked area cost extra, up to
+     * weight plain steps for a step along the edge itself, so that routes keep off the walls.
+     * A weight of 0 switches the penalty off.
+     */
+    void setClearancePenalty(float radius, float weight) {
+        clearance = radius > 0 && weight > 0 ? new ClearanceField(radius, weight) : null;
+        // Built with the old costs
+        goalField = null;
+        costedInput = null;
+        incrementalSearch.reset();
+    }
+
+    LayerCosts getLayerCosts() {
+        return layerCosts;
+    }
+
+    /**
+     * Sets what doors, ramps, hazards and unfamiliar cells add to the cost of a route.
+     */
+    void setLayerCosts(LayerCosts layerCosts) {
+        this.layerCosts = layerCosts;
+        goalField = null;
+        costedInput = null;
+        incrementalSearch.reset();
+    }
+
+    /**
+     * The snapshot with the clearance penalty and the cost of its cells' attributes, after
+     * bringing the clearance up to date with it, and with the cells under obstacles blocked;
+     * only the surroundings of newly walked cells are recomputed. pathfind does this itself,
+     * so calling it ahead just moves the work, e.g. to when a map is loaded.
+     */
+    GridMap withCosts(GridMap map) {
+        if (map != costedInput) {
+            GridMap cleared = clearance == null ? map : clearance.update(map);
+            costedBase = cleared.withLayerCosts(layerCosts);
+            costedInput = map;
+            costedOutput = obstacles.applyTo(costedBase);
+        } else if (blockedVersion != obstacles.getVersion()) {
+            costedOutput = obstacles.applyTo(costedBase);
+        }
+        if (blockedVersion != obstacles.getVersion()) {
+            // Flooded around obstacles that have since come or gone
+            goalField = null;
+            blockedVersion = obstacles.getVersion();
+        }
+        return costedOutput;
+    }
+
+    /**
+     * Cells of this floor blocked for a while; see PlannerService.blockRegion. pathfind and
+     * repair keep routes out of them.
+     */
+    DynamicObstacles getObstacles() {
+        return obstacles;
+    }
+
+    /**
+     * Replans from start to goal with the incremental planner after obstacles have come or
+     * gone. While the goal stays the same, its search tree is only repaired around the cells
+     * blocked or unblocked since its last call. Returns null if there is no route.
+     */
+    Route repair(GridMap map, Node start, Node goal) {
+        map = withCosts(map);
+        int startId = map.idOf(start);
+        int goalId = map.idOf(goal);
+        if (startId < 0 || goalId < 0 || (startId != goalId && !map.isWalkable(goalId))) {
+            return null;
+        }
+        int[] path = incrementalSearch.findPath(map, startId, goalId);
+        if (path == null) {
+            return null;
+        }
+        return new Route(start, goal, toNodes(map, path), turningPoints(map, path), true, null);
+    }
+
+    LandmarkTable getLandmarks() {
+        return landmarks;
+    }
+
+    /**
+     * ALT heuristics for the A*, jump point and anytime searches (the incremental search does
+     * not use them). The table is ignored on snapshots it was not built on.
+     */
+    void setLandmarks(LandmarkTable landmarks) {
+        this.landmarks = landmarks;
+        aStarSearch.setLandmarks(landmarks);
+        jumpPointSearch.setLandmarks(landmarks);
+        incrementalSearch.setLandmarks(landmarks);
+        anytimePlanner.setLandmarks(landmarks);
+    }
+
+    LandmarkRouteTable getRouteTable() {
+        return routeTable;
+    }
+
+    /**
+     * Stored routes between the saved landmarks. While one is set, trips to a landmark join
+     * the best stored route towards it through a short connector search instead of planning
+     * the whole way. Only the A*, jump point and incremental modes use it, and only while
+     * neither the clearance penalty nor any layer cost applies. May be null.
+     */
+    void setRouteTable(LandmarkRouteTable routeTable) {
+        this.routeTable = routeTable;
+    }
+
+    CorridorRouter getCorridorRouter() {
+        return corridorRouter;
+    }
+
+    /**
+     * Preprocessed router for the map as it was loaded. While one is set, the hierarchical mode
+     * asks it first and only plans on the snapshot itself when start or goal lie in cells
+     * walked since. Like that mode, it ignores the clearance penalty and the layer costs, so
+     * the other modes never use it. May be null.
+     */
+    void setCorridorRouter(CorridorRouter corridorRouter) {
+        this.corridorRouter = corridorRouter;
+    }
+
+    /**
+     * Returns the shortest route from start to goal over the given snapshot, or null if there
+     * is none. Hierarchical routes, and trips to a landmark near a stored landmark route, may
+     * be longer.
+     */
+    Route pathfind(GridMap map, Node start, Node goal) {
+        map = withCosts(map);
+        int startId = map.idOf(start);
+        int goalId = map.idOf(goal);
+        if (startId < 0 || goalId < 0) {
+            return null;
+        }
+        if (startId != goalId && !map.isWalkable(goalId)) {
+            return null;
+        }
+        if (mode == Mode.HIERARCHICAL) {
+            // The router plans on plain step costs too, just on a preprocessed graph
+            if (corridorRouter != null) {
+                GridMap routerMap = corridorRouter.getMap();
+                int[] path = corridorRouter.findPath(routerMap.idOf(start), routerMap.idOf(goal));
+                List<Node> nodes = path == null ? null : toNodes(routerMap, path);
+                // Stored routes know nothing of obstacles; plan afresh where they run into one
+                if (nodes != null && !obstacles.crosses(nodes, routerMap.getGranularity())) {
+                    return new Route(start, goal, nodes, squash(routerMap, path), false, null);
                 }
+            }
+            return pathfindHierarchical(map, start, goal, startId, goalId);
+        }
+        if (mode == Mode.ANY_ANGLE) {
+            int[] path = anyAngleSearch.findPath(map, startId, goalId);
+            if (path == null) {
+                return null;
+            }
+            return new Route(start, goal, toNodes(map, path),
+                    toNodes(map, anyAngleSearch.getWaypoints()), false, null);
+        }
+        if (mode == Mode.SKELETON) {
+            int[] path = skeletonPlanner.findPath(map, startId, goalId);
+            if (path != null) {
+                return new Route(start, goal, toNodes(map, path), squash(map, path), false, null)
+                        .withTurns(skeletonPlanner.getTurns());
+            }
+            // Start or goal too far from the skeleton: plan on the cells instead
+            path = incrementalSearch.findPath(map, startId, goalId);
+            if (path == null) {
+                return null;
+            }
+            return new Route(start, goal, toNodes(map, path), turningPoints(map, path), true,
+                    null);
+        }
 
-                n.setPrev(current);
-                n.setgScore(tentativegScore);
-                n.setfScore(n.getgScore() + distanceBetween(n, goal));
+        // The destination stays fixed while we walk to it, so once prepareGoalField has
+        // flooded it, later calls towards it are answered from the field
+        DistanceField field = hasGoalField(map, goal) ? goalField : null;
+        if (field != null) {
+            GridMap fieldMap = field.getMap();
+            int fieldStart = fieldMap.idOf(start);
+            int[] path = fieldStart < 0 ? null : field.pathFrom(fieldStart);
+            if (path != null) {
+                return new Route(start, goal, toNodes(fieldMap, path),
+                        turningPoints(fieldMap, path), true, field);
             }
+            // The start lies in cells walked after the field was built
+        }
+
+        // Stored routes were planned on plain step costs, so they only stand in for searches
+        // on a map without a penalty
+        if (routeTable != null && !map.hasPenalty()) {
+            Route stored = pathfindViaRouteTable(map, start, goal, startId, goalId);
+            if (stored != null
+                    && !obstacles.crosses(stored.getTotalPath(), map.getGranularity())) {
+                return stored;
+            }
+        }
+        int[] path = getSearch().findPath(map, startId, goalId);
+        if (path == null) {
+            return null;
+        }
+        return new Route(start, goal, toNodes(map, path), turningPoints(map, path), true, field);
+    }
+
+    /**
+     * Floods the distance field towards goal that pathfind answers the A*, jump point and
+     * incremental modes from, unless it has one for goal already. pathfind itself only runs the
+     * mode's search, which is much cheaper for a single route, so PlannerService calls this
+     * once the first route to a goal is out, for the replans that follow as the user walks.
+     * An interrupt leaves no field.
+     */
+    void prepareGoalField(GridMap map, Node goal) {
+        if (mode != Mode.A_STAR && mode != Mode.JUMP_POINT && mode != Mode.INCREMENTAL) {
+            return;
+        }
+        map = withCosts(map);
+        int goalId = map.idOf(goal);
+        if (goalId < 0 || !map.isWalkable(goalId) || hasGoalField(map, goal)) {
+            return;
         }
+        goalField = DistanceField.build(map, goalId);
+    }
 
-        return false;
+    /**
+     * Whether goalField leads to goal and was built with the costs of the given snapshot's
+     * cells; it may be from an older snapshot with fewer walked cells.
+     */
+    private boolean hasGoalField(GridMap map, Node goal) {
+        return goalField != null && goalField.getMap().idOf(goal) == goalField.getGoal()
+                && goalField.getMap().getAttributeVersion() == map.getAttributeVersion();
     }
 
-    private static List<Node> getNeighbors(Node current) {
-        List<Node> neighbors = new ArrayList<Node>();
-        float x = current.getX();
-        float y = current.getY();
-        float neighborX;
-        float neighborY;
+    /**
+     * Joins the stored route towards goal's landmark at the cell that minimises the distance
+     * there plus the rest of the route, and plans only the connector to it. Returns null if goal
+     * is no landmark or no stored route passes within MAX_CONNECTOR_CELLS.
+     */
+    private Route pathfindViaRouteTable(GridMap map, Node start, Node goal, int startId,
+                                        int goalId) {
+        int target = routeTable.landmarkAt(map, goalId);
+        int startColumn = map.columnOf(startId);
+        int startRow = map.rowOf(startId);
+        // Close to the goal the whole trip is a short local search anyway
+        if (target < 0 || Math.max(Math.abs(map.columnOf(goalId) - startColumn),
+                Math.abs(map.rowOf(goalId) - startRow)) <= MAX_CONNECTOR_CELLS) {
+            return null;
+        }
 
-        for (int i = -1; i < 2; i++) {
-            for (int j = -1; j < 2; j++) {
-                if (i == 0 && j == 0) {
+        // Only the cells around the start can be joined, so look those up in the routes
+        // towards the goal's landmark
+        int startX = map.cellXOf(startId);
+        int startY = map.cellYOf(startId);
+        LandmarkRouteTable.RouteCell best = null;
+        float bestEstimate = Float.POSITIVE_INFINITY;
+        float bestConnector = 0;
+        for (int dy = -MAX_CONNECTOR_CELLS; dy <= MAX_CONNECTOR_CELLS; dy++) {
+            for (int dx = -MAX_CONNECTOR_CELLS; dx <= MAX_CONNECTOR_CELLS; dx++) {
+                LandmarkRouteTable.RouteCell cell =
+                        routeTable.routeCellAt(target, startX + dx, startY + dy);
+                if (cell == null) {
                     continue;
                 }
-
-                neighborX = x + i*granularity;
-                neighborY = y + j*granularity;
-                Node neighbor = new Node(neighborX, neighborY);
-                if (coordinateSet.contains(neighbor)) {
-                    neighbors.add(neighbor);
+                float connector = GridMap.octileDistance(dx, dy);
+                if (connector + cell.getRest() < bestEstimate) {
+                    bestEstimate = connector + cell.getRest();
+                    bestConnector = connector;
+                    best = cell;
                 }
-
             }
         }
+        int[] bestRoute = best == null ? null : routeTable.pathBetween(map, best.getFrom(), target);
+        if (bestRoute == null) {
+            return null;
+        }
+        int bestIndex = best.getIndex();
 
-        return neighbors;
+        int[] connector = aStarSearch.findPath(map, startId, bestRoute[bestIndex]);
+        // A connector that has to go around a wall is no shortcut
+        if (connector == null || aStarSearch.getPathCost() > CONNECTOR_DETOUR * bestConnector + 2) {
+            return null;
+        }
+        int[] path = Arrays.copyOf(connector,
+                connector.length + bestRoute.length - bestIndex - 1);
+        System.arraycopy(bestRoute, bestIndex + 1, path, connector.length,
+                bestRoute.length - bestIndex - 1);
+        return new Route(start, goal, toNodes(map, path), squash(map, path), false, null);
     }
 
-    private static float distanceBetween(Node current, Node n) {
-        return Math.abs(current.getX() - n.getX()) + Math.abs(current.getY() - n.getY());
-    }
+    /**
+     * Plans on the cluster graph and refines only the segments covering the next
+     * REFINE_AHEAD_CELLS or so; the activity replans at every waypoint, so the rest is refined
+     * as the user gets there.
+     */
+    private Route pathfindHierarchical(GridMap map, Node start, Node goal, int startId,
+                                       int goalId) {
+        hierarchicalPlanner.update(map);
+        int[] corridor = hierarchicalPlanner.findAbstractPath(startId, goalId);
+        if (corridor == null) {
+            return null;
+        }
+
+        int[] path = {startId};
+        int segment = 0;
+        while (segment + 1 < corridor.length && path.length < REFINE_AHEAD_CELLS) {
+            int[] cells = hierarchicalPlanner.refineSegment(corridor, segment++);
+            int length = path.length;
+            path = Arrays.copyOf(path, length + cells.length - 1);
+            System.arraycopy(cells, 1, path, length, cells.length - 1);
+        }
 
-    private static List<Node> reconstructPath(Node goal) {
-        Node cursor = goal;
-        List<Node> totalPath = new ArrayList<Node>();
+        float refinedCost = pathLength(map, path);
+        float remaining = Math.max(0, hierarchicalPlanner.getAbstractCost() - refinedCost)
+                * map.getGranularity();
+        return new Route(start, goal, toNodes(map, path), squash(map, path), false, null,
+                remaining);
+    }
 
-        while (cursor != null) {
-            totalPath.add(cursor);
-            cursor = cursor.getPrev();
+    /**
+     * Like pathfind, but blocks for at most budgetMillis and returns the best route found in
+     * that time, which may be slightly longer than optimal. The search then keeps improving it
+     * in the background and reports every shorter route to the listener. Returns null if no
+     * route was found in time; the first one then also arrives through the listener. Calling
+     * it again cancels the previous background work.
+     */
+    Route pathfindWithin(GridMap map, final Node start, final Node goal, long budgetMillis,
+                         final RouteListener listener) {
+        map = withCosts(map);
+        int startId = map.idOf(start);
+        int goalId = map.idOf(goal);
+        if (startId < 0 || goalId < 0 || (startId != goalId && !map.isWalkable(goalId))) {
+            listener.onPlanningFinished(false);
+            return null;
         }
 
-        Collections.reverse(totalPath);
+        int[] path = anytimePlanner.plan(map, startId, goalId, budgetMillis,
+                new AnytimePlanner.Listener() {
+                    @Override
+                    public void onPathImproved(GridMap map, int[] path, float cost,
+                                               float suboptimalityBound) {
+                        listener.onRouteImproved(new Route(start, goal, toNodes(map, path),
+                                turningPoints(map, path), suboptimalityBound <= 1f, null));
+                    }
+
+                    @Override
+                    public void onPlanningFinished(GridMap map, boolean pathFound) {
+                        listener.onPlanningFinished(pathFound);
+                    }
+                });
+        if (path == null) {
+            return null;
+        }
 
-        return totalPath;
+        return new Route(start, goal, toNodes(map, path), turningPoints(map, path), false, null);
     }
 
-    private static List<Node> DouglasPeucker(List<Node> path, double epsilon) {
-        // Find the point that is max distance from line
-        double dmax = 0;
-        int index = 0;
-        int last = path.size() - 1;
+    /**
+     * Ranks the given destinations by walking distance from start with a single search,
+     * nearest first and unreachable ones last, each with the route pathfind would take there.
+     * Returns null if the thread is interrupted first.
+     */
+    List<RankedDestination> rankDestinations(GridMap map, Node start,
+                                             Map<String, Node> destinations) {
+        map = withCosts(map);
+        List<RankedDestination> ranking = new ArrayList<RankedDestination>(destinations.size());
+        int startId = map.idOf(start);
+        int[] targets = new int[destinations.size()];
+        int i = 0;
+        for (Node destination : destinations.values()) {
+            targets[i++] = map.idOf(destination);
+        }
+        float[] distances = null;
+        if (startId >= 0) {
+            distances = multiTargetSearch.findDistances(map, startId, targets);
+            if (distances == null) {
+                return null;
+            }
+        }
 
-        for (int i = 1; i < last; i++) {
-            double d = perpendicularDistance(path.get(i), path.get(0), path.get(last));
-            if (d > dmax) {
-                index = i;
-                dmax = d;
+        i = 0;
+        for (Map.Entry<String, Node> destination : destinations.entrySet()) {
+            int[] path = distances == null ? null : multiTargetSearch.pathTo(targets[i]);
+            if (path == null) {
+                ranking.add(new RankedDestination(destination.getKey(), destination.getValue(),
+                        Float.POSITIVE_INFINITY, null));
+            } else {
+                Route route = new Route(start, destination.getValue(), toNodes(map, path),
+                        turningPoints(map, path), true, null);
+                // Ranked by the length walked rather than the cost, which counts penalties
+                ranking.add(new RankedDestination(destination.getKey(), destination.getValue(),
+                        pathLength(map, path) * map.getGranularity(), route));
             }
+            i++;
+        }
+
+        Collections.sort(ranking, new Comparator<RankedDestination>() {
+            @Override
+            public int compare(RankedDestination a, RankedDestination b) {
+                return Float.compare(a.getDistance(), b.getDistance());
+            }
+        });
+        return ranking;
+    }
+
+    /**
+     * Stops the background improvement started by pathfindWithin. Safe to call from any thread.
+     */
+    void cancel() {
+        anytimePlanner.cancel();
+    }
+
+    void shutdown() {
+        anytimePlanner.shutdown();
+    }
+
+    /**
+     * Search of the modes pathfind plans on the cells with; the others return before it.
+     */
+    private GridSearch getSearch() {
+        switch (mode) {
+            case A_STAR:
+                return aStarSearch;
+            case JUMP_POINT:
+                return jumpPointSearch;
+            default:
+                return incrementalSearch;
         }
-        // If dmax is greater than the threshold, recursively call both sides
-        List<Node> results = new ArrayList<Node>();
-        if (dmax > epsilon) {
-            List<Node> results1 = DouglasPeucker(path.subList(0, index+1), epsilon);
-            List<Node> results2 = DouglasPeucker(path.subList(index, last+1), epsilon);
-            results.addAll(results1);
-            // Remove the middle otherwise there would be duplicate instances
-            results.remove(results.size() - 1);
-            results.addAll(results2);
-        } else {
-            results.add(path.get(0));
-            results.add(path.get(last));
+    }
+
+    static List<Node> toNodes(GridMap map, int[] path) {
+        List<Node> nodes = new ArrayList<Node>(path.length);
+        for (int id : path) {
+            nodes.add(map.toNode(id));
         }
-        return results;
+        return nodes;
+    }
+
+    /**
+     * Waypoints of a cell path as an any-angle planner would give them, see
+     * LazyThetaStarSearch.turningPoints.
+     */
+    static List<Node> turningPoints(GridMap map, int[] path) {
+        return toNodes(map, LazyThetaStarSearch.turningPoints(map, path));
     }
 
-    private static double perpendicularDistance(Node p, Node lineStart, Node lineEnd) {
-        float y2 = lineEnd.getY();
-        float y1 = lineStart.getY();
-        float x2 = lineEnd.getX();
-        float x1 = lineStart.getX();
+    /**
+     * Length of a path of adjacent cells, in cells.
+     */
+    private static float pathLength(GridMap map, int[] path) {
+        float length = 0;
+        for (int i = 1; i < path.length; i++) {
+            boolean diagonal = map.columnOf(path[i]) != map.columnOf(path[i - 1])
+                    && map.rowOf(path[i]) != map.rowOf(path[i - 1]);
+            length += diagonal ? GridMap.SQRT2 : 1f;
+        }
+        return length;
+    }
 
-        return Math.abs((y2 - y1) * p.getX() - (x2 - x1) * p.getY() + x2 * y1 - y2 * x1)
-                / euclideanDistance(lineStart, lineEnd);
+    /**
+     * Waypoints of a cell path: Douglas-Peucker within 0.75 m, never shortcutting across
+     * unwalked cells.
+     */
+    static List<Node> squash(GridMap map, int[] path) {
+        PathSimplifier simplifier = SIMPLIFIER.get();
+        int count = simplifier.simplify(map, path);
+        return toNodes(map, Arrays.copyOf(simplifier.getOutput(), count));
     }
 
-    public static double euclideanDistance(Node current, Node n) {
-        return Math.sqrt(Math.pow(current.getX() - n.getX(), 2) + Math.pow(current.getY() - n.getY(), 2));
+    /**
+     * Straight-line distance between two positions, in metres.
+     */
+    static float euclideanDistance(Node current, Node n) {
+        float dx = current.getX() - n.getX();
+        float dy = current.getY() - n.getY();
+        return (float) Math.sqrt(dx * dx + dy * dy);
     }
 }
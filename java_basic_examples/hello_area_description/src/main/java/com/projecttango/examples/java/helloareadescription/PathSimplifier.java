@@ -0,0 +1,203 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * Reduces a cell path to the waypoints the user is guided along. Works on cell columns and rows
+ * with squared distances, keeps its work arrays between calls and writes the kept ids into a
+ * reusable output buffer, so simplifying allocates nothing once the buffers have grown to the
+ * longest path seen. Not thread-safe; give each thread its own.
+ */
+final class PathSimplifier {
+    enum Method {
+        /**
+         * Keeps the point farthest from the current chord while it is more than the tolerance
+         * away (Douglas-Peucker), splitting with an explicit stack instead of recursion.
+         */
+        DOUGLAS_PEUCKER,
+        /**
+         * Repeatedly drops the point whose triangle with its neighbours has the smallest area,
+         * while that area is below the square of the tolerance (Visvalingam-Whyatt). Tends to
+         * keep the overall shape better on long, gently curving paths.
+         */
+        VISVALINGAM_WHYATT
+    }
+
+    private final Method method;
+    // In metres
+    private final float tolerance;
+    private boolean keepWalkable;
+
+    private int[] columns = new int[0];
+    private int[] rows = new int[0];
+    private boolean[] keep = new boolean[0];
+    private int[] stack = new int[0];
+    private int[] previous = new int[0];
+    private int[] next = new int[0];
+    private final IndexedMinHeap areas = new IndexedMinHeap();
+    private int[] output = new int[0];
+
+    PathSimplifier(Method method, float tolerance) {
+        this.method = method;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * When set, a shortcut between two kept points is only taken if the straight line between
+     * them crosses walkable cells alone; otherwise more of the path is kept.
+     */
+    void setKeepWalkable(boolean keepWalkable) {
+        this.keepWalkable = keepWalkable;
+    }
+
+    /**
+     * Simplifies the given cell path, which must have at least one cell, and returns how many
+     * ids were written to the start of getOutput(). The first and last cells are always kept.
+     */
+    int simplify(GridMap map, int[] path) {
+        int length = path.length;
+        prepare(length);
+        if (length <= 2) {
+            System.arraycopy(path, 0, output, 0, length);
+            return length;
+        }
+
+        for (int i = 0; i < length; i++) {
+            columns[i] = map.columnOf(path[i]);
+            rows[i] = map.rowOf(path[i]);
+            keep[i] = false;
+        }
+        keep[0] = true;
+        keep[length - 1] = true;
+
+        float cells = tolerance / map.getGranularity();
+        if (method == Method.DOUGLAS_PEUCKER) {
+            douglasPeucker(map, path, cells * cells);
+        } else {
+            visvalingamWhyatt(map, path, cells * cells);
+        }
+
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (keep[i]) {
+                output[count++] = path[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The ids kept by the last call to simplify. Overwritten by the next call.
+     */
+    int[] getOutput() {
+        return output;
+    }
+
+    private void douglasPeucker(GridMap map, int[] path, float toleranceSquared) {
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = path.length - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            if (last - first < 2) {
+                continue;
+            }
+
+            // Squared distance from the chord is cross^2 / chord^2, so compare cross^2 with
+            // tolerance^2 * chord^2 and skip the division and square root
+            long chordX = columns[last] - columns[first];
+            long chordY = rows[last] - rows[first];
+            long chordSquared = chordX * chordX + chordY * chordY;
+            long maxCross = -1;
+            int index = first;
+            for (int i = first + 1; i < last; i++) {
+                long cross = Math.abs(chordX * (rows[first] - rows[i])
+                        - chordY * (columns[first] - columns[i]));
+                if (cross > maxCross) {
+                    maxCross = cross;
+                    index = i;
+                }
+            }
+
+            boolean split = (double) maxCross * maxCross > toleranceSquared * chordSquared;
+            if (!split && keepWalkable
+                    && !LazyThetaStarSearch.lineOfSight(map, path[first], path[last])) {
+                split = true;
+                if (maxCross == 0) {
+                    index = (first + last) >>> 1;
+                }
+            }
+            if (split) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+    }
+
+    private void visvalingamWhyatt(GridMap map, int[] path, float toleranceSquared) {
+        int length = path.length;
+        // Areas are kept doubled, as the cross product gives them
+        float threshold = 2 * toleranceSquared;
+        for (int i = 0; i < length; i++) {
+            previous[i] = i - 1;
+            next[i] = i + 1;
+            keep[i] = true;
+        }
+        for (int i = 1; i < length - 1; i++) {
+            areas.insert(i, doubledArea(i - 1, i, i + 1));
+        }
+
+        while (!areas.isEmpty() && areas.peekKey() < threshold) {
+            float area = areas.peekKey();
+            int i = areas.poll();
+            int before = previous[i];
+            int after = next[i];
+            if (keepWalkable && !LazyThetaStarSearch.lineOfSight(map, path[before], path[after])) {
+                // Stays until one of its neighbours goes and the shortcut changes
+                continue;
+            }
+
+            keep[i] = false;
+            next[before] = after;
+            previous[after] = before;
+            // A neighbour never gets a smaller area than the point just removed, so points
+            // still leave in order of significance
+            if (before > 0) {
+                requeue(before, Math.max(area, doubledArea(previous[before], before, after)));
+            }
+            if (after < length - 1) {
+                requeue(after, Math.max(area, doubledArea(before, after, next[after])));
+            }
+        }
+        areas.clear();
+    }
+
+    private void requeue(int i, float area) {
+        if (areas.contains(i)) {
+            areas.update(i, area, 0f);
+        } else {
+            areas.insert(i, area);
+        }
+    }
+
+    private float doubledArea(int a, int b, int c) {
+        return Math.abs((columns[b] - columns[a]) * (rows[c] - rows[a])
+                - (columns[c] - columns[a]) * (rows[b] - rows[a]));
+    }
+
+    private void prepare(int length) {
+        if (columns.length < length) {
+            columns = new int[length];
+            rows = new int[length];
+            keep = new boolean[length];
+            previous = new int[length];
+            next = new int[length];
+            output = new int[length];
+            // Pending ranges never overlap, so there are fewer of them than points
+            stack = new int[2 * length + 2];
+            areas.reset(length);
+        }
+    }
+}
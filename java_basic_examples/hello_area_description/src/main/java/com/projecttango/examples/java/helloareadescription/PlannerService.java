@@ -0,0 +1,851 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a {@link PathFinder} on a thread of its own so that planning never blocks the caller.
+ * Every request supersedes the one before it: a queued request is dropped, a running one is
+ * interrupted, and nothing more is reported for it. Results reach the subscribed listeners
+ * through the callback executor, which for the activity posts to the UI thread. The planner
+ * thread reads the occupancy grids only under the lock that guards them.
+ *
+ * Regions blocked with blockRegion stay out of every route until they expire, which a task
+ * scheduled on the planner thread sees to. When one is blocked across the last route, or
+ * expires within its reach, that route is repaired with the incremental planner and handed
+ * out again through onRouteRepaired.
+ */
+final class PlannerService {
+    /**
+     * Receives the results of the latest request, on the callback executor.
+     */
+    interface Listener {
+        void onRouteFound(Route route);
+
+        /**
+         * A shorter route for the same request, from the anytime planner.
+         */
+        void onRouteImproved(Route route);
+
+        void onNoRoute(Node start, Node goal);
+
+        /**
+         * The goal is not connected to the start by walked cells, which is known without
+         * planning. nearest is the walked cell closest to the goal that is connected to the
+         * start, or null if there is none nearby.
+         */
+        void onGoalUnreachable(Node start, Node goal, Node nearest);
+
+        /**
+         * The last route found, replanned from the same start because a region blocked with
+         * blockRegion has come across it or has expired near it.
+         */
+        void onRouteRepaired(Route route);
+    }
+
+    /**
+     * Receives the result of rankDestinations, on the callback executor.
+     */
+    interface RankingListener {
+        void onDestinationsRanked(Node start, List<RankedDestination> ranking);
+    }
+
+    private static final long EXACT = -1;
+    // How far from an unreachable goal, in cells along either axis, a nearer one is looked for
+    private static final int NEAREST_SEARCH_RADIUS = 40;
+
+    private final Executor callbackExecutor;
+    // Guards the occupancy grids, as for the activity and its MapBuilder
+    private final Object gridLock;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // One per floor, added as floors come up; confined to the planner thread but for cancel
+    private final List<PathFinder> pathFinders = new CopyOnWriteArrayList<PathFinder>();
+    // Confined to the planner thread, like the mode and penalty new path finders start with
+    private final LayeredPlanner layeredPlanner = new LayeredPlanner();
+    private PathFinder.Mode mode;
+    private float clearanceRadius = PathFinder.DEFAULT_CLEARANCE_RADIUS;
+    private float clearanceWeight = PathFinder.DEFAULT_CLEARANCE_WEIGHT;
+    private LayerCosts layerCosts = LayerCosts.DEFAULT;
+    // Scheduled too, for the expiry of blocked regions
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "PlannerService");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    // The last single-floor request that found a route, and the latest version of that route,
+    // for repairs when regions are blocked or expire; the route is also set from the anytime
+    // planner's thread
+    private volatile Request lastRequest;
+    private volatile Route lastRoute;
+
+    // Bumped by every request and cancel; results of older generations are dropped
+    private volatile int generation;
+    // The same for rankDestinations, which route requests do not supersede
+    private volatile int rankingGeneration;
+    private Future<Route> pending;
+    private Future<?> pendingRanking;
+
+    // The last snapshot of every grid still in use
+    private final Map<OccupancyGrid, GridMap> snapshots = new WeakHashMap<OccupancyGrid, GridMap>();
+
+    PlannerService(Executor callbackExecutor, Object gridLock) {
+        this.callbackExecutor = callbackExecutor;
+        this.gridLock = gridLock;
+        PathFinder groundFloor = new PathFinder();
+        pathFinders.add(groundFloor);
+        mode = groundFloor.getMode();
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    void setMode(final PathFinder.Mode mode) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PlannerService.this.mode = mode;
+                for (PathFinder pathFinder : pathFinders) {
+                    pathFinder.setMode(mode);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the clearance penalty of every floor's path finder; see
+     * PathFinder.setClearancePenalty.
+     */
+    void setClearancePenalty(final float radius, final float weight) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                clearanceRadius = radius;
+                clearanceWeight = weight;
+                for (PathFinder pathFinder : pathFinders) {
+                    pathFinder.setClearancePenalty(radius, weight);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets what cell attributes cost for every floor's path finder; see
+     * PathFinder.setLayerCosts.
+     */
+    void setLayerCosts(final LayerCosts costs) {
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                layerCosts = costs;
+                for (PathFinder pathFinder : pathFinders) {
+                    pathFinder.setLayerCosts(costs);
+                }
+            }
+        });
+    }
+
+    /**
+     * Computes the clearance and attribute costs of the walked cells on the planner thread, so
+     * that the first route request does not have to. The walked cells are copied on the calling
+     * thread.
+     */
+    synchronized void prepareCosts(OccupancyGrid occupancy) {
+        final GridMap map = getSnapshot(occupancy);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pathFinderFor(map).withCosts(map);
+            }
+        });
+    }
+
+    /**
+     * Keeps routes on the occupancy's floor out of the box from (minX, minY) to (maxX, maxY),
+     * in metres, for ttlMillis, e.g. around a cart left in the corridor. The last route is
+     * repaired if it runs through the box.
+     */
+    void blockRegion(OccupancyGrid occupancy, float minX, float minY, float maxX, float maxY,
+                     long ttlMillis) {
+        float granularity = occupancy.getGranularity();
+        final int floor = occupancy.getFloor();
+        final int minCellX = GridMap.toCell(minX, granularity);
+        final int minCellY = GridMap.toCell(minY, granularity);
+        final int maxCellX = GridMap.toCell(maxX, granularity);
+        final int maxCellY = GridMap.toCell(maxY, granularity);
+        final long expiresAt = now() + ttlMillis;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                pathFinderFor(floor).getObstacles().add(minCellX, minCellY, maxCellX, maxCellY,
+                        expiresAt);
+                executor.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        expireRegions();
+                    }
+                }, Math.max(0, expiresAt - now()), TimeUnit.MILLISECONDS);
+                Route route = lastRoute;
+                if (route != null && lastRequest.map.getFloor() == floor
+                        && pathFinderFor(floor).getObstacles().crosses(route.getTotalPath(),
+                        lastRequest.map.getGranularity())) {
+                    repairLastRoute();
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the landmark table stored in file if it was built on the current map, and otherwise
+     * builds one from the given landmarks (topped up with automatically picked ones) and stores
+     * it there. Either way the planner uses it from then on. Runs on the planner thread; like
+     * requestRoute, the walked cells are copied on the calling thread.
+     */
+    synchronized Future<LandmarkTable> prepareLandmarks(OccupancyGrid occupancy,
+                                                        final List<Node> savedLandmarks,
+                                                        final File file) {
+        final GridMap map = getSnapshot(occupancy);
+        return executor.submit(new Callable<LandmarkTable>() {
+            @Override
+            public LandmarkTable call() {
+                LandmarkTable table = readLandmarks(file, map);
+                if (table == null) {
+                    int[] seeds = new int[savedLandmarks.size()];
+                    for (int i = 0; i < seeds.length; i++) {
+                        seeds[i] = map.idOf(savedLandmarks.get(i));
+                    }
+                    table = LandmarkTable.build(map, seeds, LandmarkTable.DEFAULT_LANDMARK_COUNT);
+                    writeLandmarks(file, table);
+                }
+                pathFinderFor(map).setLandmarks(table);
+                return table;
+            }
+        });
+    }
+
+    /**
+     * Loads the landmark-to-landmark routes stored in file if they were computed for the same
+     * landmarks, and otherwise computes them and stores them there. Either way the planner uses
+     * them from then on. Runs on the planner thread.
+     */
+    synchronized Future<LandmarkRouteTable> prepareRouteTable(OccupancyGrid occupancy,
+                                                              final List<Node> savedLandmarks,
+                                                              final File file) {
+        final GridMap map = getSnapshot(occupancy);
+        return executor.submit(new Callable<LandmarkRouteTable>() {
+            @Override
+            public LandmarkRouteTable call() {
+                LandmarkRouteTable table =
+                        readRouteTable(file, map.getGranularity(), savedLandmarks);
+                if (table == null) {
+                    table = LandmarkRouteTable.build(map, savedLandmarks);
+                    writeRouteTable(file, table);
+                }
+                pathFinderFor(map).setRouteTable(table);
+                return table;
+            }
+        });
+    }
+
+    /**
+     * Loads the corridor router stored in file (see {@link CorridorPreprocessor}) if it was built
+     * on the current map, and otherwise builds it and stores it there. Either way the
+     * hierarchical mode uses it from then on. Runs on the planner thread.
+     */
+    synchronized Future<CorridorRouter> prepareCorridorRouter(OccupancyGrid occupancy,
+                                                              final File file) {
+        final GridMap map = getSnapshot(occupancy);
+        return executor.submit(new Callable<CorridorRouter>() {
+            @Override
+            public CorridorRouter call() {
+                CorridorRouter router = readCorridorRouter(file, map);
+                if (router == null) {
+                    router = CorridorRouter.build(map, HierarchicalPlanner.DEFAULT_CLUSTER_SIZE);
+                    writeCorridorRouter(file, router);
+                }
+                pathFinderFor(map).setCorridorRouter(router);
+                return router;
+            }
+        });
+    }
+
+    /**
+     * Ranks the given destinations by walking distance from start, with one search for all of
+     * them, and hands the ranking with a route to each to the listener. A newer ranking request
+     * supersedes this one, interrupting its search. The walked cells and destinations are
+     * copied on the calling thread.
+     */
+    synchronized void rankDestinations(OccupancyGrid occupancy, final Node start,
+                                       Map<String, Node> destinations,
+                                       final RankingListener listener) {
+        final int requestGeneration = ++rankingGeneration;
+        final GridMap map = getSnapshot(occupancy);
+        final Map<String, Node> targets = new LinkedHashMap<String, Node>(destinations);
+        if (pendingRanking != null) {
+            pendingRanking.cancel(true);
+        }
+        pendingRanking = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration != rankingGeneration) {
+                    return;
+                }
+                final List<RankedDestination> ranking =
+                        pathFinderFor(map).rankDestinations(map, start, targets);
+                if (ranking == null) {
+                    return;
+                }
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (requestGeneration == rankingGeneration) {
+                            listener.onDestinationsRanked(start, ranking);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Hands an already planned route on the occupancy's floor to the listeners as if it had
+     * just been found, dropping the current request. The route is then repaired like one the
+     * planner found itself when a region blocks it. Like requestRoute, the walked cells are
+     * copied on the calling thread.
+     */
+    synchronized void useRoute(OccupancyGrid occupancy, final Route route) {
+        cancel();
+        final int requestGeneration = generation;
+        final Request request = new Request(requestGeneration, null, getSnapshot(occupancy),
+                route.getStart(), route.getGoal(), EXACT);
+        // On the planner thread, so that a request still running there cannot overwrite it
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration == generation) {
+                    lastRequest = request;
+                    lastRoute = route;
+                    request.prepareGoalField();
+                }
+            }
+        });
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                for (Listener listener : listeners) {
+                    listener.onRouteFound(route);
+                }
+            }
+        });
+    }
+
+    /**
+     * Plans the shortest route from start to goal. The walked cells are copied on the calling
+     * thread, so hold whatever lock guards the grid while calling this. A goal the walked cells
+     * do not connect to the start is reported through onGoalUnreachable without planning, and
+     * the returned future yields null.
+     */
+    synchronized Future<Route> requestRoute(OccupancyGrid occupancy, Node start, Node goal) {
+        return submit(occupancy, start, goal, EXACT);
+    }
+
+    /**
+     * Like requestRoute, but the planner only spends budgetMillis on the first route and keeps
+     * improving it afterwards, reporting shorter routes through onRouteImproved. The future
+     * yields null if nothing was found within the budget; the route then arrives later through
+     * onRouteFound.
+     */
+    synchronized Future<Route> requestRouteWithin(OccupancyGrid occupancy, Node start,
+                                                  Node goal, long budgetMillis) {
+        return submit(occupancy, start, goal, budgetMillis);
+    }
+
+    /**
+     * Plans from start on startFloor to goal on goalFloor through the floors of the map with a
+     * {@link LayeredPlanner}. The route found is the leg on the start floor; see
+     * Route.getConnector. Every floor is copied on the calling thread, reusing the copies of
+     * floors that have not grown, so hold the lock that guards the map while calling this.
+     */
+    synchronized Future<Route> requestFloorRoute(FloorMap floors, int startFloor, Node start,
+                                                 int goalFloor, Node goal) {
+        cancel();
+        GridMap[] maps = new GridMap[floors.getFloorCount()];
+        for (int floor = 0; floor < maps.length; floor++) {
+            maps[floor] = getSnapshot(floors.getGrid(floor));
+        }
+        pending = executor.submit(new Request(generation, maps,
+                new ArrayList<FloorConnector>(floors.getConnectors()), startFloor, start,
+                goalFloor, goal));
+        return pending;
+    }
+
+    /**
+     * Drops the current request, if any, interrupting its search.
+     */
+    synchronized void cancel() {
+        generation++;
+        if (pending != null) {
+            pending.cancel(true);
+            pending = null;
+        }
+        for (PathFinder pathFinder : pathFinders) {
+            pathFinder.cancel();
+        }
+    }
+
+    void shutdown() {
+        cancel();
+        listeners.clear();
+        executor.shutdownNow();
+        for (PathFinder pathFinder : pathFinders) {
+            pathFinder.shutdown();
+        }
+    }
+
+    private Future<Route> submit(OccupancyGrid occupancy, Node start, Node goal,
+                                 long budgetMillis) {
+        cancel();
+        pending = executor.submit(new Request(generation, occupancy, getSnapshot(occupancy),
+                start, goal, budgetMillis));
+        return pending;
+    }
+
+    /**
+     * Drops the blocked regions that have expired, and repairs the last route if one of them
+     * lay within the box spanned by the route, where it may have forced a detour. Planner
+     * thread only.
+     */
+    private void expireRegions() {
+        long time = now();
+        Route route = lastRoute;
+        for (PathFinder pathFinder : pathFinders) {
+            List<DynamicObstacles.Obstacle> expired = pathFinder.getObstacles().expire(time);
+            if (route == null || expired.isEmpty()
+                    || pathFinder != pathFinderFor(lastRequest.map.getFloor())) {
+                continue;
+            }
+            float granularity = lastRequest.map.getGranularity();
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE;
+            int maxY = Integer.MIN_VALUE;
+            for (Node node : route.getTotalPath()) {
+                int cellX = GridMap.toCell(node.getX(), granularity);
+                int cellY = GridMap.toCell(node.getY(), granularity);
+                minX = Math.min(minX, cellX);
+                minY = Math.min(minY, cellY);
+                maxX = Math.max(maxX, cellX);
+                maxY = Math.max(maxY, cellY);
+            }
+            for (DynamicObstacles.Obstacle obstacle : expired) {
+                if (obstacle.overlaps(minX, minY, maxX, maxY)) {
+                    repairLastRoute();
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replans the last request, unless a newer one has been made since, which plans around
+     * the current regions anyway. Planner thread only.
+     */
+    private void repairLastRoute() {
+        final Request request = lastRequest;
+        if (request == null || request.requestGeneration != generation) {
+            return;
+        }
+        final Route route = pathFinderFor(request.map).repair(request.map, request.start,
+                request.goal);
+        lastRoute = route;
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (request.requestGeneration != generation) {
+                    return;
+                }
+                for (Listener listener : listeners) {
+                    if (route != null) {
+                        listener.onRouteRepaired(route);
+                    } else {
+                        listener.onNoRoute(request.start, request.goal);
+                    }
+                }
+            }
+        });
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static LandmarkTable readLandmarks(File file, GridMap map) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return LandmarkTable.readFrom(in, map);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void writeLandmarks(File file, LandmarkTable table) {
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                table.writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static LandmarkRouteTable readRouteTable(File file, float granularity,
+                                                     List<Node> savedLandmarks) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return LandmarkRouteTable.readFrom(in, granularity, savedLandmarks);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void writeRouteTable(File file, LandmarkRouteTable table) {
+        // Written next to the old file and renamed over it, so that a build cut short by the
+        // app closing never leaves half a table behind
+        File partial = new File(file.getPath() + ".partial");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(partial)));
+            try {
+                table.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static CorridorRouter readCorridorRouter(File file, GridMap map) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                return CorridorRouter.readFrom(in, map);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void writeCorridorRouter(File file, CorridorRouter router) {
+        File partial = new File(file.getPath() + ".partial");
+        try {
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(partial)));
+            try {
+                router.writeTo(out);
+            } finally {
+                out.close();
+            }
+            if (!partial.renameTo(file)) {
+                throw new IOException("Could not replace " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Packs the walked cells into a GridMap, reusing the last one of the same grid while it has
+     * not grown and its cell attributes have not changed.
+     */
+    private GridMap getSnapshot(OccupancyGrid occupancy) {
+        GridMap snapshot = snapshots.get(occupancy);
+        if (snapshot == null || snapshot.getWalkableCount() != occupancy.size()
+                || snapshot.getAttributeVersion() != occupancy.getLayers().getVersion()) {
+            snapshot = GridMap.fromOccupancy(occupancy);
+            snapshots.put(occupancy, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * The path finder for the floor of map, in the current mode. Planner thread only.
+     */
+    private PathFinder pathFinderFor(GridMap map) {
+        return pathFinderFor(map.getFloor());
+    }
+
+    private PathFinder pathFinderFor(int floor) {
+        while (pathFinders.size() <= floor) {
+            PathFinder pathFinder = new PathFinder();
+            pathFinder.setMode(mode);
+            pathFinder.setClearancePenalty(clearanceRadius, clearanceWeight);
+            pathFinder.setLayerCosts(layerCosts);
+            pathFinders.add(pathFinder);
+        }
+        return pathFinders.get(floor);
+    }
+
+    private final class Request implements Callable<Route>, PathFinder.RouteListener {
+        private final int requestGeneration;
+        private final GridMap map;
+        private final Node start;
+        private final Node goal;
+        private final long budgetMillis;
+        // The grid to check the goal's reachability in before planning, then null; null from
+        // the start for useRoute
+        private OccupancyGrid occupancy;
+        // Set for requestFloorRoute, whose map is the start floor's
+        private final GridMap[] floors;
+        private final List<FloorConnector> connectors;
+        private final int startFloor;
+        private final int goalFloor;
+        // Whether onRouteFound has gone out, so later routes count as improvements. The
+        // callbacks below are synchronized with call() so that an improvement found on the
+        // anytime planner's thread cannot overtake the first route.
+        private boolean found;
+
+        Request(int requestGeneration, OccupancyGrid occupancy, GridMap map, Node start,
+                Node goal, long budgetMillis) {
+            this.requestGeneration = requestGeneration;
+            this.occupancy = occupancy;
+            this.map = map;
+            this.start = start;
+            this.goal = goal;
+            this.budgetMillis = budgetMillis;
+            this.floors = null;
+            this.connectors = null;
+            this.startFloor = map.getFloor();
+            this.goalFloor = map.getFloor();
+        }
+
+        Request(int requestGeneration, GridMap[] floors, List<FloorConnector> connectors,
+                int startFloor, Node start, int goalFloor, Node goal) {
+            this.requestGeneration = requestGeneration;
+            this.map = floors[startFloor];
+            this.start = start;
+            this.goal = goal;
+            this.budgetMillis = EXACT;
+            this.occupancy = null;
+            this.floors = floors;
+            this.connectors = connectors;
+            this.startFloor = startFloor;
+            this.goalFloor = goalFloor;
+        }
+
+        @Override
+        public Route call() {
+            // Outside the monitor, since the check takes the grid's lock
+            if (requestGeneration != generation || !checkReachable()) {
+                return null;
+            }
+            return plan();
+        }
+
+        /**
+         * Whether the walked cells connect the goal to the start, as the grid's components
+         * tell at once; if not, reports the goal as unreachable with the nearest walked cell
+         * that is connected. A start off the walked cells is left to the planner, which
+         * reports it as no route.
+         */
+        private boolean checkReachable() {
+            OccupancyGrid grid = occupancy;
+            occupancy = null;
+            if (grid == null) {
+                return true;
+            }
+            float granularity = grid.getGranularity();
+            int startX = GridMap.toCell(start.getX(), granularity);
+            int startY = GridMap.toCell(start.getY(), granularity);
+            int goalX = GridMap.toCell(goal.getX(), granularity);
+            int goalY = GridMap.toCell(goal.getY(), granularity);
+            int[] cell;
+            synchronized (gridLock) {
+                if (grid.componentOf(startX, startY) < 0
+                        || grid.isConnected(startX, startY, goalX, goalY)) {
+                    return true;
+                }
+                cell = grid.nearestConnected(startX, startY, goalX, goalY,
+                        NEAREST_SEARCH_RADIUS);
+            }
+            final Node nearest = cell == null ? null
+                    : new Node(cell[0] * granularity, cell[1] * granularity);
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    for (Listener listener : listeners) {
+                        listener.onGoalUnreachable(start, goal, nearest);
+                    }
+                }
+            });
+            return false;
+        }
+
+        private synchronized Route plan() {
+            if (requestGeneration != generation) {
+                return null;
+            }
+
+            Route route;
+            if (floors != null) {
+                route = layeredPlanner.findRoute(floors, connectors, startFloor, start,
+                        goalFloor, goal);
+                if (route == null) {
+                    deliverNoRoute();
+                }
+            } else if (budgetMillis == EXACT) {
+                route = pathFinderFor(map).pathfind(map, start, goal);
+                if (route == null) {
+                    deliverNoRoute();
+                }
+            } else {
+                route = pathFinderFor(map).pathfindWithin(map, start, goal, budgetMillis, this);
+                // Without a route the listener reports the outcome once the search settles
+            }
+            if (route != null) {
+                found = true;
+                deliver(route, false);
+            }
+            if (floors == null && (route != null || budgetMillis != EXACT)) {
+                // An anytime request that has found nothing yet may still; see onRouteImproved
+                lastRequest = this;
+                lastRoute = route;
+                prepareGoalField();
+            }
+            return route;
+        }
+
+        /**
+         * Has the goal's distance field built on the planner thread after this request, unless
+         * a newer one comes first, so that replans towards it are answered from the field. The
+         * flood is pending like a request, so the next one interrupts it.
+         */
+        private void prepareGoalField() {
+            synchronized (PlannerService.this) {
+                if (requestGeneration != generation) {
+                    return;
+                }
+                pending = executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        pathFinderFor(map).prepareGoalField(map, goal);
+                    }
+                }, null);
+            }
+        }
+
+        @Override
+        public synchronized void onRouteImproved(Route route) {
+            boolean improved = found;
+            found = true;
+            if (lastRequest == this) {
+                lastRoute = route;
+            }
+            deliver(route, improved);
+        }
+
+        @Override
+        public synchronized void onPlanningFinished(boolean routeFound) {
+            if (!routeFound) {
+                deliverNoRoute();
+            }
+        }
+
+        private void deliver(final Route route, final boolean improved) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    for (Listener listener : listeners) {
+                        if (improved) {
+                            listener.onRouteImproved(route);
+                        } else {
+                            listener.onRouteFound(route);
+                        }
+                    }
+                }
+            });
+        }
+
+        private void deliverNoRoute() {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (requestGeneration != generation) {
+                        return;
+                    }
+                    for (Listener listener : listeners) {
+                        listener.onNoRoute(start, goal);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of poses for exactly one producer thread and one consumer thread. Poses are
+ * kept in primitive arrays, so offering one allocates nothing and takes no lock: the producer
+ * alone moves head and the consumer alone moves tail, each publishing with a lazySet that the
+ * other side's read of it picks up.
+ */
+final class PoseRing {
+    /**
+     * Receives the poses drained from the ring, on the consumer thread.
+     */
+    interface Sink {
+        void accept(float x, float y, float z, double timestamp);
+    }
+
+    private final int mask;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] zs;
+    private final double[] timestamps;
+    // Sequence number of the next pose to write; written by the producer only
+    private final AtomicLong head = new AtomicLong();
+    // Sequence number of the next pose to read; written by the consumer only
+    private final AtomicLong tail = new AtomicLong();
+    // The producer's last look at tail, so a ring with room to spare costs no read of it
+    private long cachedTail;
+
+    /**
+     * A ring of the given capacity, which must be a power of two.
+     */
+    PoseRing(int capacity) {
+        if (capacity <= 0 || (capacity & (capacity - 1)) != 0) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is not a power of two");
+        }
+        mask = capacity - 1;
+        xs = new float[capacity];
+        ys = new float[capacity];
+        zs = new float[capacity];
+        timestamps = new double[capacity];
+    }
+
+    int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds a pose, or returns false if the ring is full. Producer thread only.
+     */
+    boolean offer(float x, float y, float z, double timestamp) {
+        long sequence = head.get();
+        if (sequence - cachedTail > mask) {
+            cachedTail = tail.get();
+            if (sequence - cachedTail > mask) {
+                return false;
+            }
+        }
+        int slot = (int) sequence & mask;
+        xs[slot] = x;
+        ys[slot] = y;
+        zs[slot] = z;
+        timestamps[slot] = timestamp;
+        head.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Passes every pose offered so far to sink, oldest first, and frees their slots. Returns the
+     * number drained. If sink throws, the poses before the one it threw on stay drained and
+     * that one is dropped, so a second drain does not fail on it again. Consumer thread only.
+     */
+    int drain(Sink sink) {
+        long first = tail.get();
+        long end = head.get();
+        long sequence = first;
+        try {
+            for (; sequence < end; sequence++) {
+                int slot = (int) sequence & mask;
+                sink.accept(xs[slot], ys[slot], zs[slot], timestamps[slot]);
+            }
+        } finally {
+            tail.lazySet(sequence < end ? sequence + 1 : end);
+        }
+        return (int) (end - first);
+    }
+
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+
+    /**
+     * Number of poses ever offered successfully.
+     */
+    long getOfferedCount() {
+        return head.get();
+    }
+
+    /**
+     * Number of poses ever drained.
+     */
+    long getDrainedCount() {
+        return tail.get();
+    }
+}
@@ -0,0 +1,41 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * A saved waypoint with its walking distance from where the ranking was made and the route
+ * there, so choosing it needs no further planning.
+ */
+final class RankedDestination {
+    private final String name;
+    private final Node position;
+    // In metres, infinite if the waypoint cannot be reached
+    private final float distance;
+    // Null if the waypoint cannot be reached
+    private final Route route;
+
+    RankedDestination(String name, Node position, float distance, Route route) {
+        this.name = name;
+        this.position = position;
+        this.distance = distance;
+        this.route = route;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Node getPosition() {
+        return position;
+    }
+
+    float getDistance() {
+        return distance;
+    }
+
+    Route getRoute() {
+        return route;
+    }
+
+    boolean isReachable() {
+        return route != null;
+    }
+}
@@ -0,0 +1,175 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable planning result: the full cell-by-cell path, its simplified waypoints, and the
+ * goal's distance field when the planner built one. Safe to hand between threads.
+ */
+final class Route {
+    private final Node start;
+    private final Node goal;
+    private final List<Node> totalPath;
+    private final List<Node> squashedPath;
+    private final boolean optimal;
+    // Length in metres of the part of the route beyond the end of totalPath that the planner
+    // has not turned into cells yet; 0 for complete routes
+    private final float unrefinedLength;
+    // Null for routes that did not come out of a goal flood
+    private final DistanceField goalField;
+    // For the first leg of a trip through other floors, the connector it ends at and the floor
+    // that leads to; otherwise null and -1
+    private final FloorConnector connector;
+    private final int nextFloor;
+    // Junctions along totalPath, in order; empty unless the planner names them
+    private final List<Turn> turns;
+
+    Route(Node start, Node goal, List<Node> totalPath, List<Node> squashedPath, boolean optimal,
+          DistanceField goalField) {
+        this(start, goal, totalPath, squashedPath, optimal, goalField, 0);
+    }
+
+    Route(Node start, Node goal, List<Node> totalPath, List<Node> squashedPath, boolean optimal,
+          DistanceField goalField, float unrefinedLength) {
+        this(start, goal, totalPath, squashedPath, optimal, goalField, unrefinedLength, null, -1,
+                Collections.<Turn>emptyList());
+    }
+
+    private Route(Node start, Node goal, List<Node> totalPath, List<Node> squashedPath,
+                  boolean optimal, DistanceField goalField, float unrefinedLength,
+                  FloorConnector connector, int nextFloor, List<Turn> turns) {
+        this.start = start;
+        this.goal = goal;
+        this.totalPath = Collections.unmodifiableList(totalPath);
+        this.squashedPath = Collections.unmodifiableList(squashedPath);
+        this.optimal = optimal;
+        this.goalField = goalField;
+        this.unrefinedLength = unrefinedLength;
+        this.connector = connector;
+        this.nextFloor = nextFloor;
+        this.turns = turns;
+    }
+
+    /**
+     * This route as the first leg of a trip through other floors, ending where connector leads
+     * on to nextFloor.
+     */
+    Route withConnector(FloorConnector connector, int nextFloor) {
+        return new Route(start, goal, totalPath, squashedPath, optimal, goalField,
+                unrefinedLength, connector, nextFloor, turns);
+    }
+
+    /**
+     * This route with the given junctions, which must be in path order.
+     */
+    Route withTurns(List<Turn> turns) {
+        return new Route(start, goal, totalPath, squashedPath, optimal, goalField,
+                unrefinedLength, connector, nextFloor,
+                Collections.unmodifiableList(new ArrayList<Turn>(turns)));
+    }
+
+    Node getStart() {
+        return start;
+    }
+
+    Node getGoal() {
+        return goal;
+    }
+
+    List<Node> getTotalPath() {
+        return totalPath;
+    }
+
+    List<Node> getSquashedPath() {
+        return squashedPath;
+    }
+
+    /**
+     * The connector to take at the end of this route to go on towards the goal, or null if the
+     * route reaches the goal.
+     */
+    FloorConnector getConnector() {
+        return connector;
+    }
+
+    int getNextFloor() {
+        return nextFloor;
+    }
+
+    List<Turn> getTurns() {
+        return turns;
+    }
+
+    /**
+     * The first junction ahead of the given position on the route, or null if there is none or
+     * the position is off the route.
+     */
+    Turn nextTurn(Node from) {
+        int index = totalPath.indexOf(from);
+        if (index < 0) {
+            return null;
+        }
+        for (Turn turn : turns) {
+            if (turn.getPathIndex() > index) {
+                return turn;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * False for a route the anytime planner returned before it had proven it shortest, and
+     * for hierarchical and any-angle routes.
+     */
+    boolean isOptimal() {
+        return optimal;
+    }
+
+    /**
+     * Remaining route length from the given position to the goal, in metres. Infinite if the
+     * goal cannot be reached from there, or if the position is off a route that has no
+     * distance field.
+     */
+    float distanceToGoal(Node from) {
+        if (goalField != null) {
+            int id = goalField.getMap().idOf(from);
+            if (id < 0) {
+                return Float.POSITIVE_INFINITY;
+            }
+            return goalField.lengthFrom(id) * goalField.getMap().getGranularity();
+        }
+
+        int index = totalPath.indexOf(from);
+        if (index < 0) {
+            return Float.POSITIVE_INFINITY;
+        }
+        float remaining = unrefinedLength;
+        for (int i = index + 1; i < totalPath.size(); i++) {
+            remaining += PathFinder.euclideanDistance(totalPath.get(i - 1), totalPath.get(i));
+        }
+        return remaining;
+    }
+
+    /**
+     * The next cell to walk to from the given position towards the goal, or null if there is
+     * none.
+     */
+    Node nextStep(Node from) {
+        if (goalField != null) {
+            GridMap fieldMap = goalField.getMap();
+            int id = fieldMap.idOf(from);
+            if (id < 0 || goalField.nextStep(id) < 0) {
+                return null;
+            }
+            return fieldMap.toNode(goalField.nextStep(id));
+        }
+
+        int index = totalPath.indexOf(from);
+        if (index < 0 || index == totalPath.size() - 1) {
+            return null;
+        }
+        return totalPath.get(index + 1);
+    }
+}
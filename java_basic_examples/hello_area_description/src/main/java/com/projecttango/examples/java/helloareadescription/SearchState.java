@@ -0,0 +1,76 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Per-cell scratch space of a grid search: g scores, parent links, closed flags and the open
+ * list, all indexed by {@link GridMap} cell id. The arrays are reused between searches; a
+ * generation stamp marks which entries belong to the current one so nothing has to be cleared.
+ */
+final class SearchState {
+    final IndexedMinHeap openList = new IndexedMinHeap();
+    float[] gScore = new float[0];
+    int[] parent = new int[0];
+    boolean[] closed = new boolean[0];
+    private int[] generationOf = new int[0];
+    private int generation;
+
+    /**
+     * Starts a new search over ids in [0, size).
+     */
+    void prepare(int size) {
+        if (gScore.length < size) {
+            gScore = new float[size];
+            parent = new int[size];
+            generationOf = new int[size];
+            closed = new boolean[size];
+            generation = 0;
+        }
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(generationOf, 0);
+            generation = 1;
+        }
+        openList.reset(size);
+    }
+
+    boolean isTouched(int id) {
+        return generationOf[id] == generation;
+    }
+
+    /**
+     * Resets the entries of a cell seen for the first time in this search.
+     */
+    void touch(int id) {
+        generationOf[id] = generation;
+        gScore[id] = Float.POSITIVE_INFINITY;
+        parent[id] = -1;
+        closed[id] = false;
+    }
+
+    /**
+     * Queues id with the given priority, or lowers its priority if it is already queued.
+     */
+    void push(int id, float priority) {
+        if (openList.contains(id)) {
+            openList.decreaseKey(id, priority);
+        } else {
+            openList.insert(id, priority);
+        }
+    }
+
+    /**
+     * Follows the parent links back from goal and returns the ids in start-to-goal order.
+     */
+    int[] reconstructPath(int goal) {
+        int length = 0;
+        for (int cursor = goal; cursor != -1; cursor = parent[cursor]) {
+            length++;
+        }
+
+        int[] path = new int[length];
+        for (int cursor = goal; cursor != -1; cursor = parent[cursor]) {
+            path[--length] = cursor;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,416 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Plans on the {@link SkeletonRoadmap} of the map instead of on its cells. A short grid search
+ * from the start and from the goal finds the nearest skeleton cell to each, a Dijkstra search
+ * over the roadmap's junctions joins the two, and the skeleton runs in between are the route.
+ * On corridor maps the roadmap search touches a handful of nodes where a grid search would
+ * expand every cell of the corridors on the way.
+ *
+ * Routes keep to the middle of corridors, so they are a little longer than the shortest ones
+ * but never graze a wall; every junction they pass is reported as a {@link Turn}. Start or goal
+ * more than MAX_CONNECTOR_CELLS from the skeleton get no route.
+ */
+final class SkeletonPlanner implements GridSearch {
+    // Farthest, in cells, the start or goal may be from the skeleton
+    static final int MAX_CONNECTOR_CELLS = 30;
+    // Turns gentler than this, in degrees, are announced as going straight on
+    private static final double STRAIGHT_DEGREES = 30;
+    // How many cells before and after a junction give the headings into and out of it
+    private static final int HEADING_CELLS = 4;
+
+    private SkeletonRoadmap roadmap;
+    private final SearchState local = new SearchState();
+    private final IndexedMinHeap openList = new IndexedMinHeap();
+    private float[] nodeDistance = new float[0];
+    private int[] parentNode = new int[0];
+    private int[] parentEdge = new int[0];
+    private boolean[] settled = new boolean[0];
+
+    // The route being put together
+    private int[] path = new int[64];
+    private int pathLength;
+    private int[] junctions = new int[16];
+    private int junctionCount;
+
+    private int expandedCount;
+    private float pathCost;
+    private float connectorCost;
+    private List<Turn> turns = Collections.emptyList();
+
+    @Override
+    public int[] findPath(GridMap map, int start, int goal) {
+        update(map);
+        expandedCount = 0;
+        pathCost = Float.POSITIVE_INFINITY;
+        turns = Collections.emptyList();
+        if (start == goal) {
+            pathCost = 0;
+            return new int[] {start};
+        }
+        if (!map.isWalkable(goal)) {
+            return null;
+        }
+
+        int[] toStart = connect(start, goal);
+        if (toStart == null) {
+            return null;
+        }
+        if (toStart[toStart.length - 1] == goal) {
+            // The goal is nearer than the skeleton
+            pathCost = connectorCost;
+            return toStart;
+        }
+        float startCost = connectorCost;
+        int[] toGoal = connect(goal, -1);
+        if (toGoal == null) {
+            return null;
+        }
+        float goalCost = connectorCost;
+        int entry = toStart[toStart.length - 1];
+        int exit = toGoal[toGoal.length - 1];
+
+        int nodeCount = roadmap.getNodeCount();
+        if (nodeDistance.length < nodeCount) {
+            nodeDistance = new float[nodeCount];
+            parentNode = new int[nodeCount];
+            parentEdge = new int[nodeCount];
+            settled = new boolean[nodeCount];
+        }
+        Arrays.fill(nodeDistance, 0, nodeCount, Float.POSITIVE_INFINITY);
+        Arrays.fill(settled, 0, nodeCount, false);
+        openList.reset(nodeCount);
+
+        // Into the roadmap at the start's skeleton cell
+        int entryNode = roadmap.nodeAt(entry);
+        int entryEdge = roadmap.edgeAt(entry);
+        float entryAlong = entryEdge < 0 ? 0 : roadmap.distanceAlongEdge(entry);
+        if (entryNode >= 0) {
+            reach(entryNode, 0, -1, -1);
+        } else {
+            reach(roadmap.getEdgeFrom(entryEdge), entryAlong, -1, entryEdge);
+            reach(roadmap.getEdgeTo(entryEdge), roadmap.getEdgeLength(entryEdge) - entryAlong,
+                    -1, entryEdge);
+        }
+
+        // Out of it at the goal's, through bestNode or, if that is -1, straight along the edge
+        int exitNode = roadmap.nodeAt(exit);
+        int exitEdge = roadmap.edgeAt(exit);
+        float exitAlong = exitEdge < 0 ? 0 : roadmap.distanceAlongEdge(exit);
+        float best = Float.POSITIVE_INFINITY;
+        int bestNode = -1;
+        if (entry == exit) {
+            best = 0;
+        } else if (exitEdge >= 0 && exitEdge == entryEdge) {
+            best = Math.abs(exitAlong - entryAlong);
+        }
+        while (!openList.isEmpty() && openList.peekKey() < best) {
+            int node = openList.poll();
+            settled[node] = true;
+            expandedCount++;
+            float rest = Float.POSITIVE_INFINITY;
+            if (node == exitNode) {
+                rest = 0;
+            } else if (exitEdge >= 0) {
+                if (node == roadmap.getEdgeFrom(exitEdge)) {
+                    rest = exitAlong;
+                }
+                if (node == roadmap.getEdgeTo(exitEdge)) {
+                    rest = Math.min(rest, roadmap.getEdgeLength(exitEdge) - exitAlong);
+                }
+            }
+            if (nodeDistance[node] + rest < best) {
+                best = nodeDistance[node] + rest;
+                bestNode = node;
+            }
+            for (int i = 0; i < roadmap.getIncidentCount(node); i++) {
+                int edge = roadmap.getIncident(node, i);
+                reach(roadmap.opposite(edge, node),
+                        nodeDistance[node] + roadmap.getEdgeLength(edge), node, edge);
+            }
+        }
+        openList.clear();
+        if (best == Float.POSITIVE_INFINITY) {
+            return null;
+        }
+
+        pathLength = 0;
+        junctionCount = 0;
+        for (int cell : toStart) {
+            append(cell);
+        }
+        if (bestNode < 0) {
+            if (entry != exit) {
+                appendBetween(entryEdge, roadmap.indexOnEdge(entry), roadmap.indexOnEdge(exit));
+            }
+        } else {
+            int[] chain = nodeChain(bestNode);
+            if (entryNode < 0) {
+                appendToNode(entryEdge, roadmap.indexOnEdge(entry), chain[0]);
+            }
+            junction(chain[0]);
+            for (int k = 1; k < chain.length; k++) {
+                appendEdge(parentEdge[chain[k]], chain[k - 1]);
+                junction(chain[k]);
+            }
+            if (exitNode < 0) {
+                appendFromNode(exitEdge, bestNode, roadmap.indexOnEdge(exit));
+            }
+        }
+        for (int i = toGoal.length - 2; i >= 0; i--) {
+            append(toGoal[i]);
+        }
+
+        pathCost = startCost + best + goalCost;
+        int[] result = Arrays.copyOf(path, pathLength);
+        turns = findTurns(result);
+        return result;
+    }
+
+    @Override
+    public int getExpandedCount() {
+        return expandedCount;
+    }
+
+    @Override
+    public float getPathCost() {
+        return pathCost;
+    }
+
+    @Override
+    public void setLandmarks(LandmarkTable landmarks) {
+        // The roadmap is small enough to search without a heuristic
+    }
+
+    /**
+     * The junctions the last path passes through, in order.
+     */
+    List<Turn> getTurns() {
+        return turns;
+    }
+
+    SkeletonRoadmap getRoadmap() {
+        return roadmap;
+    }
+
+    /**
+     * Builds the roadmap of the given snapshot, unless the last one was built on the same cells.
+     */
+    void update(GridMap map) {
+        if (roadmap != null) {
+            GridMap built = roadmap.getMap();
+            if (built == map || (built.getWidth() == map.getWidth()
+                    && built.getHeight() == map.getHeight()
+                    && built.getOriginX() == map.getOriginX()
+                    && built.getOriginY() == map.getOriginY()
+                    && built.getGranularity() == map.getGranularity()
+                    && built.fingerprint() == map.fingerprint())) {
+                return;
+            }
+        }
+        roadmap = SkeletonRoadmap.build(map);
+    }
+
+    /**
+     * Cells from source to the nearest skeleton cell, or to target if that is nearer, found by
+     * a grid search of at most MAX_CONNECTOR_CELLS; null if there is neither that close. Sets
+     * connectorCost.
+     */
+    private int[] connect(int source, int target) {
+        GridMap map = roadmap.getMap();
+        SearchState s = local;
+        s.prepare(map.size());
+        s.touch(source);
+        s.gScore[source] = 0;
+        s.push(source, 0);
+        while (!s.openList.isEmpty()) {
+            int current = s.openList.poll();
+            if (s.gScore[current] > MAX_CONNECTOR_CELLS) {
+                break;
+            }
+            if (current == target || roadmap.isSkeleton(current)) {
+                s.openList.clear();
+                connectorCost = s.gScore[current];
+                return s.reconstructPath(current);
+            }
+            s.closed[current] = true;
+            expandedCount++;
+
+            int column = map.columnOf(current);
+            int row = map.rowOf(current);
+            for (int d = 0; d < 8; d++) {
+                int neighborColumn = column + GridMap.DIRECTION_X[d];
+                int neighborRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(neighborColumn, neighborRow)) {
+                    continue;
+                }
+                int n = map.idOf(neighborColumn, neighborRow);
+                float tentative = s.gScore[current] + GridMap.DIRECTION_COST[d];
+                if (!s.isTouched(n)) {
+                    s.touch(n);
+                } else if (s.closed[n] || tentative >= s.gScore[n]) {
+                    continue;
+                }
+                s.parent[n] = current;
+                s.gScore[n] = tentative;
+                s.push(n, tentative);
+            }
+        }
+        s.openList.clear();
+        return null;
+    }
+
+    private void reach(int node, float distance, int fromNode, int edge) {
+        if (settled[node] || distance >= nodeDistance[node]) {
+            return;
+        }
+        nodeDistance[node] = distance;
+        parentNode[node] = fromNode;
+        parentEdge[node] = edge;
+        if (openList.contains(node)) {
+            openList.decreaseKey(node, distance);
+        } else {
+            openList.insert(node, distance);
+        }
+    }
+
+    /**
+     * The nodes the search passed on its way to the given one, the first entered first.
+     */
+    private int[] nodeChain(int last) {
+        int length = 0;
+        for (int node = last; node >= 0; node = parentNode[node]) {
+            length++;
+        }
+        int[] chain = new int[length];
+        for (int node = last; node >= 0; node = parentNode[node]) {
+            chain[--length] = node;
+        }
+        return chain;
+    }
+
+    /**
+     * Whether leaving the cell at index on edge towards its first node is the shorter way, for
+     * loops whose two ends are the same node.
+     */
+    private boolean towardsFrom(int edge, int index, int node) {
+        if (roadmap.getEdgeFrom(edge) != roadmap.getEdgeTo(edge)) {
+            return node == roadmap.getEdgeFrom(edge);
+        }
+        float along = roadmap.distanceAlongEdge(roadmap.getEdgeCell(edge, index));
+        return along <= roadmap.getEdgeLength(edge) - along;
+    }
+
+    /**
+     * The cells after the one at index on edge, up to and including node.
+     */
+    private void appendToNode(int edge, int index, int node) {
+        if (towardsFrom(edge, index, node)) {
+            for (int i = index - 1; i >= 0; i--) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        } else {
+            for (int i = index + 1; i < roadmap.getEdgeCellCount(edge); i++) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        }
+        append(roadmap.getNodeCell(node));
+    }
+
+    /**
+     * The cells of edge after node, up to and including the one at index.
+     */
+    private void appendFromNode(int edge, int node, int index) {
+        if (towardsFrom(edge, index, node)) {
+            for (int i = 0; i <= index; i++) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        } else {
+            for (int i = roadmap.getEdgeCellCount(edge) - 1; i >= index; i--) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        }
+    }
+
+    /**
+     * The whole of edge after node, including the node at its other end.
+     */
+    private void appendEdge(int edge, int node) {
+        int count = roadmap.getEdgeCellCount(edge);
+        if (node == roadmap.getEdgeFrom(edge)) {
+            for (int i = 0; i < count; i++) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        } else {
+            for (int i = count - 1; i >= 0; i--) {
+                append(roadmap.getEdgeCell(edge, i));
+            }
+        }
+        append(roadmap.getNodeCell(roadmap.opposite(edge, node)));
+    }
+
+    /**
+     * The cells of edge after the one at from, up to and including the one at to.
+     */
+    private void appendBetween(int edge, int from, int to) {
+        int step = to > from ? 1 : -1;
+        for (int i = from + step; i != to + step; i += step) {
+            append(roadmap.getEdgeCell(edge, i));
+        }
+    }
+
+    private void append(int cell) {
+        if (pathLength == path.length) {
+            path = Arrays.copyOf(path, path.length * 2);
+        }
+        path[pathLength++] = cell;
+    }
+
+    /**
+     * Notes that the path reaches the node at its current end, if the node is a junction.
+     */
+    private void junction(int node) {
+        if (roadmap.getDegree(node) < 3) {
+            return;
+        }
+        if (junctionCount == junctions.length) {
+            junctions = Arrays.copyOf(junctions, junctions.length * 2);
+        }
+        junctions[junctionCount++] = pathLength - 1;
+    }
+
+    private List<Turn> findTurns(int[] cells) {
+        GridMap map = roadmap.getMap();
+        List<Turn> found = new ArrayList<Turn>(junctionCount);
+        for (int j = 0; j < junctionCount; j++) {
+            int index = junctions[j];
+            int before = cells[Math.max(0, index - HEADING_CELLS)];
+            int at = cells[index];
+            int after = cells[Math.min(cells.length - 1, index + HEADING_CELLS)];
+            int inX = map.columnOf(at) - map.columnOf(before);
+            int inY = map.rowOf(at) - map.rowOf(before);
+            int outX = map.columnOf(after) - map.columnOf(at);
+            int outY = map.rowOf(after) - map.rowOf(at);
+            if ((inX == 0 && inY == 0) || (outX == 0 && outY == 0)) {
+                // The route starts or ends at the junction
+                continue;
+            }
+            // Counter-clockwise is to the left, with y pointing forward from x
+            double angle = Math.toDegrees(Math.atan2(inX * outY - inY * outX,
+                    inX * outX + inY * outY));
+            Turn.Direction direction;
+            if (Math.abs(angle) < STRAIGHT_DEGREES) {
+                direction = Turn.Direction.STRAIGHT;
+            } else {
+                direction = angle > 0 ? Turn.Direction.LEFT : Turn.Direction.RIGHT;
+            }
+            found.add(new Turn(map.toNode(at), direction, index));
+        }
+        return found;
+    }
+}
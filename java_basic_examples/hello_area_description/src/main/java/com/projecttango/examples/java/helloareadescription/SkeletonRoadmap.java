@@ -0,0 +1,488 @@
+package com.projecttango.examples.java.helloareadescription;
+
+import java.util.Arrays;
+
+/**
+ * Topological roadmap of a {@link GridMap}. The walked cells are thinned (Zhang-Suen) to a
+ * medial axis one cell wide; its junctions and dead ends become the nodes of a small weighted
+ * graph and the runs of skeleton between them its edges. A corridor of any width collapses into
+ * a single edge, so the graph has a node per junction rather than per cell.
+ *
+ * Every skeleton cell is either a node or lies on exactly one edge, at a known distance from
+ * both of its ends, which lets {@link SkeletonPlanner} join the graph anywhere along a corridor.
+ * A cell the run-following passes by is made a node, and so are the skeleton cells next to it,
+ * so that it is joined to those runs. Built once per snapshot; immutable afterwards.
+ */
+final class SkeletonRoadmap {
+    // The 8 neighbors in ring order, starting north, for the thinning conditions
+    private static final int[] RING_X = {0, 1, 1, 1, 0, -1, -1, -1};
+    private static final int[] RING_Y = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+    private final GridMap map;
+    private final boolean[] skeleton;
+    // Per map id: the node at that cell, or -1
+    private final int[] nodeOf;
+    // Per map id: the edge through that cell and its position on it, or -1
+    private final int[] edgeOf;
+    private final int[] indexOnEdge;
+    // Map id of every node
+    private final int[] nodeCells;
+    private final int nodeCount;
+    // Edge e runs from node edgeFrom[e] through the cells edgeCells[edgeStart[e] ..
+    // edgeStart[e + 1]) to node edgeTo[e]; edgeDistance holds how far each of those cells is
+    // from edgeFrom[e] and edgeLength the length of the whole run, in cells
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] edgeStart;
+    private final int[] edgeCells;
+    private final float[] edgeDistance;
+    private final float[] edgeLength;
+    private final int edgeCount;
+    // Edges at node v are incident[incidentStart[v] .. incidentStart[v + 1]); loops from a node
+    // back to itself are left out, as no shortest route uses them
+    private final int[] incidentStart;
+    private final int[] incident;
+    // Skeleton branches that meet at each node, loops counted twice
+    private final int[] degree;
+
+    private SkeletonRoadmap(GridMap map, boolean[] skeleton, int[] nodeOf, int[] edgeOf,
+                            int[] indexOnEdge, int[] nodeCells, int nodeCount, int[] edgeFrom,
+                            int[] edgeTo, int[] edgeStart, int[] edgeCells, float[] edgeDistance,
+                            float[] edgeLength, int edgeCount) {
+        this.map = map;
+        this.skeleton = skeleton;
+        this.nodeOf = nodeOf;
+        this.edgeOf = edgeOf;
+        this.indexOnEdge = indexOnEdge;
+        this.nodeCells = nodeCells;
+        this.nodeCount = nodeCount;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.edgeStart = edgeStart;
+        this.edgeCells = edgeCells;
+        this.edgeDistance = edgeDistance;
+        this.edgeLength = edgeLength;
+        this.edgeCount = edgeCount;
+
+        degree = new int[nodeCount];
+        incidentStart = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            degree[edgeFrom[e]]++;
+            degree[edgeTo[e]]++;
+            if (edgeFrom[e] != edgeTo[e]) {
+                incidentStart[edgeFrom[e] + 1]++;
+                incidentStart[edgeTo[e] + 1]++;
+            }
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            incidentStart[v + 1] += incidentStart[v];
+        }
+        incident = new int[incidentStart[nodeCount]];
+        int[] next = Arrays.copyOf(incidentStart, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeFrom[e] != edgeTo[e]) {
+                incident[next[edgeFrom[e]]++] = e;
+                incident[next[edgeTo[e]]++] = e;
+            }
+        }
+    }
+
+    static SkeletonRoadmap build(GridMap map) {
+        boolean[] skeleton = thin(map);
+        boolean[] forced = new boolean[map.size()];
+        while (true) {
+            SkeletonRoadmap roadmap = trace(map, skeleton, forced);
+            if (!roadmap.forceNodesAtSkippedCells(forced)) {
+                return roadmap;
+            }
+        }
+    }
+
+    /**
+     * Makes the graph of the skeleton, with nodes where it does anything but pass through and
+     * at the forced cells.
+     */
+    private static SkeletonRoadmap trace(GridMap map, boolean[] skeleton, boolean[] forced) {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        int size = map.size();
+
+        int[] nodeOf = new int[size];
+        Arrays.fill(nodeOf, -1);
+        int[] nodeCells = new int[16];
+        int nodeCount = 0;
+        for (int id = 0; id < size; id++) {
+            if (skeleton[id] && (forced[id] || transitions(skeleton, width, height, id) != 2)) {
+                nodeCells = grow(nodeCells, nodeCount);
+                nodeOf[id] = nodeCount;
+                nodeCells[nodeCount++] = id;
+            }
+        }
+
+        int[] edgeOf = new int[size];
+        Arrays.fill(edgeOf, -1);
+        int[] indexOnEdge = new int[size];
+        int[] edgeFrom = new int[16];
+        int[] edgeTo = new int[16];
+        int[] edgeStart = new int[17];
+        float[] edgeLength = new float[16];
+        int[] edgeCells = new int[64];
+        float[] edgeDistance = new float[64];
+        int edgeCount = 0;
+        int cellCount = 0;
+        int scan = 0;
+        for (int node = 0; ; node++) {
+            if (node == nodeCount) {
+                // Loops with no junction on them have no node yet; make one
+                while (scan < size
+                        && (!skeleton[scan] || nodeOf[scan] >= 0 || edgeOf[scan] >= 0)) {
+                    scan++;
+                }
+                if (scan == size) {
+                    break;
+                }
+                nodeCells = grow(nodeCells, nodeCount);
+                nodeOf[scan] = nodeCount;
+                nodeCells[nodeCount++] = scan;
+            }
+            int from = nodeCells[node];
+            int column = map.columnOf(from);
+            int row = map.rowOf(from);
+            for (int d = 0; d < 8; d++) {
+                int nextColumn = column + GridMap.DIRECTION_X[d];
+                int nextRow = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(nextColumn, nextRow)
+                        || !skeleton[map.idOf(nextColumn, nextRow)]) {
+                    continue;
+                }
+                int next = map.idOf(nextColumn, nextRow);
+                if (edgeOf[next] >= 0 || (nodeOf[next] >= 0 && nodeOf[next] < node)) {
+                    continue;
+                }
+                if (edgeCount + 1 == edgeFrom.length) {
+                    edgeFrom = Arrays.copyOf(edgeFrom, edgeFrom.length * 2);
+                    edgeTo = Arrays.copyOf(edgeTo, edgeTo.length * 2);
+                    edgeLength = Arrays.copyOf(edgeLength, edgeLength.length * 2);
+                    edgeStart = Arrays.copyOf(edgeStart, edgeStart.length * 2);
+                }
+                int edge = edgeCount++;
+                edgeFrom[edge] = node;
+                edgeStart[edge] = cellCount;
+                float distance = GridMap.DIRECTION_COST[d];
+                if (nodeOf[next] >= 0) {
+                    // Two nodes side by side
+                    edgeTo[edge] = nodeOf[next];
+                    edgeLength[edge] = distance;
+                    edgeStart[edge + 1] = cellCount;
+                    continue;
+                }
+
+                // Follow the run until it reaches a node, straight steps first
+                int previous = from;
+                int current = next;
+                while (true) {
+                    if (cellCount == edgeCells.length) {
+                        edgeCells = Arrays.copyOf(edgeCells, edgeCells.length * 2);
+                        edgeDistance = Arrays.copyOf(edgeDistance, edgeDistance.length * 2);
+                    }
+                    edgeOf[current] = edge;
+                    indexOnEdge[current] = cellCount - edgeStart[edge];
+                    edgeCells[cellCount] = current;
+                    edgeDistance[cellCount++] = distance;
+
+                    int end = -1;
+                    float endCost = 0;
+                    int following = -1;
+                    float followingCost = 0;
+                    int currentColumn = map.columnOf(current);
+                    int currentRow = map.rowOf(current);
+                    for (int d2 = 0; d2 < 8; d2++) {
+                        int c = currentColumn + GridMap.DIRECTION_X[d2];
+                        int r = currentRow + GridMap.DIRECTION_Y[d2];
+                        if (!map.isWalkable(c, r) || !skeleton[map.idOf(c, r)]) {
+                            continue;
+                        }
+                        int neighbor = map.idOf(c, r);
+                        if (neighbor == previous) {
+                            continue;
+                        }
+                        if (nodeOf[neighbor] >= 0) {
+                            // Back to the node it started from only once round a loop
+                            if (end < 0 && (nodeOf[neighbor] != node
+                                    || cellCount - edgeStart[edge] >= 2)) {
+                                end = neighbor;
+                                endCost = GridMap.DIRECTION_COST[d2];
+                            }
+                        } else if (following < 0 && edgeOf[neighbor] < 0) {
+                            following = neighbor;
+                            followingCost = GridMap.DIRECTION_COST[d2];
+                        }
+                    }
+                    if (end >= 0) {
+                        edgeTo[edge] = nodeOf[end];
+                        distance += endCost;
+                        break;
+                    }
+                    if (following < 0) {
+                        // A run that ends without a node: its last cell becomes one
+                        cellCount--;
+                        edgeOf[current] = -1;
+                        nodeCells = grow(nodeCells, nodeCount);
+                        nodeOf[current] = nodeCount;
+                        nodeCells[nodeCount++] = current;
+                        edgeTo[edge] = nodeOf[current];
+                        break;
+                    }
+                    distance += followingCost;
+                    previous = current;
+                    current = following;
+                }
+                edgeLength[edge] = distance;
+                edgeStart[edge + 1] = cellCount;
+            }
+        }
+
+        return new SkeletonRoadmap(map, skeleton, nodeOf, edgeOf, indexOnEdge, nodeCells,
+                nodeCount, edgeFrom, edgeTo, edgeStart, edgeCells, edgeDistance, edgeLength,
+                edgeCount);
+    }
+
+    /**
+     * Marks in forced the cells that the runs passed by and that were left as nodes without
+     * an edge, and the skeleton cells next to them. Returns whether anything new was marked.
+     */
+    private boolean forceNodesAtSkippedCells(boolean[] forced) {
+        boolean marked = false;
+        for (int node = 0; node < nodeCount; node++) {
+            if (degree[node] > 0) {
+                continue;
+            }
+            int cell = nodeCells[node];
+            int column = map.columnOf(cell);
+            int row = map.rowOf(cell);
+            for (int d = 0; d < 8; d++) {
+                int c = column + GridMap.DIRECTION_X[d];
+                int r = row + GridMap.DIRECTION_Y[d];
+                if (!map.isWalkable(c, r) || !skeleton[map.idOf(c, r)]) {
+                    continue;
+                }
+                if (!forced[map.idOf(c, r)] || !forced[cell]) {
+                    forced[map.idOf(c, r)] = true;
+                    forced[cell] = true;
+                    marked = true;
+                }
+            }
+        }
+        return marked;
+    }
+
+    GridMap getMap() {
+        return map;
+    }
+
+    int getNodeCount() {
+        return nodeCount;
+    }
+
+    int getEdgeCount() {
+        return edgeCount;
+    }
+
+    boolean isSkeleton(int id) {
+        return skeleton[id];
+    }
+
+    /**
+     * The node at the given cell, or -1 if there is none.
+     */
+    int nodeAt(int id) {
+        return nodeOf[id];
+    }
+
+    /**
+     * The edge through the given cell, or -1 if the cell is a node or off the skeleton.
+     */
+    int edgeAt(int id) {
+        return edgeOf[id];
+    }
+
+    /**
+     * Distance along its edge from the edge's first node to the given cell, in cells.
+     */
+    float distanceAlongEdge(int id) {
+        int e = edgeOf[id];
+        return edgeDistance[edgeStart[e] + indexOnEdge[id]];
+    }
+
+    int getNodeCell(int node) {
+        return nodeCells[node];
+    }
+
+    /**
+     * Number of skeleton branches that meet at the node: 1 at a dead end, 3 or more at a
+     * junction, 2 where a run was split to join a cell it passed by, and 0 for a lone cell.
+     */
+    int getDegree(int node) {
+        return degree[node];
+    }
+
+    int getEdgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    int getEdgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    float getEdgeLength(int edge) {
+        return edgeLength[edge];
+    }
+
+    /**
+     * Cells strictly between the two nodes of the edge, in order from its first node.
+     */
+    int getEdgeCellCount(int edge) {
+        return edgeStart[edge + 1] - edgeStart[edge];
+    }
+
+    int getEdgeCell(int edge, int index) {
+        return edgeCells[edgeStart[edge] + index];
+    }
+
+    /**
+     * Position of the given cell among its edge's cells.
+     */
+    int indexOnEdge(int id) {
+        return indexOnEdge[id];
+    }
+
+    int getIncidentCount(int node) {
+        return incidentStart[node + 1] - incidentStart[node];
+    }
+
+    int getIncident(int node, int index) {
+        return incident[incidentStart[node] + index];
+    }
+
+    /**
+     * The node at the other end of the edge.
+     */
+    int opposite(int edge, int node) {
+        return edgeFrom[edge] == node ? edgeTo[edge] : edgeFrom[edge];
+    }
+
+    /**
+     * Zhang-Suen thinning: peels cells off the outline in alternating south-east and
+     * north-west passes, never breaking the walked area apart or shortening a line, until only
+     * a skeleton one cell wide is left. A piece that a pass would remove altogether, such as a
+     * block of 2 by 2 cells, keeps the last of its cells.
+     */
+    private static boolean[] thin(GridMap map) {
+        int width = map.getWidth();
+        int height = map.getHeight();
+        boolean[] image = new boolean[map.size()];
+        int[] remaining = new int[map.getWalkableCount()];
+        int count = 0;
+        for (int id = 0; id < image.length; id++) {
+            if (map.isWalkable(id)) {
+                image[id] = true;
+                remaining[count++] = id;
+            }
+        }
+
+        int[] deleted = new int[count];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int pass = 0; pass < 2; pass++) {
+                int deletedCount = 0;
+                for (int i = 0; i < count; i++) {
+                    if (isDeletable(image, width, height, remaining[i], pass)) {
+                        deleted[deletedCount++] = remaining[i];
+                    }
+                }
+                if (deletedCount == 0) {
+                    continue;
+                }
+                changed = true;
+                for (int i = 0; i < deletedCount; i++) {
+                    // The first cell always has a neighbor left, so each pass deletes something
+                    if (hasNeighbor(image, width, height, deleted[i])) {
+                        image[deleted[i]] = false;
+                    }
+                }
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    if (image[remaining[i]]) {
+                        remaining[kept++] = remaining[i];
+                    }
+                }
+                count = kept;
+            }
+        }
+        return image;
+    }
+
+    private static boolean isDeletable(boolean[] image, int width, int height, int id,
+                                       int pass) {
+        int column = id % width;
+        int row = id / width;
+        int neighbors = 0;
+        for (int i = 0; i < 8; i++) {
+            if (ring(image, width, height, column, row, i)) {
+                neighbors++;
+            }
+        }
+        if (neighbors < 2 || neighbors > 6
+                || transitions(image, width, height, id) != 1) {
+            return false;
+        }
+        boolean north = ring(image, width, height, column, row, 0);
+        boolean east = ring(image, width, height, column, row, 2);
+        boolean south = ring(image, width, height, column, row, 4);
+        boolean west = ring(image, width, height, column, row, 6);
+        if (pass == 0) {
+            return !(north && east && south) && !(east && south && west);
+        }
+        return !(north && east && west) && !(north && south && west);
+    }
+
+    private static boolean hasNeighbor(boolean[] image, int width, int height, int id) {
+        for (int i = 0; i < 8; i++) {
+            if (ring(image, width, height, id % width, id / width, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number of steps from an unset to a set cell going once round the cell's 8 neighbors: 1
+     * at the end of a line, 2 along it, 3 or more where lines meet.
+     */
+    private static int transitions(boolean[] image, int width, int height, int id) {
+        int column = id % width;
+        int row = id / width;
+        int count = 0;
+        boolean last = ring(image, width, height, column, row, 7);
+        for (int i = 0; i < 8; i++) {
+            boolean set = ring(image, width, height, column, row, i);
+            if (set && !last) {
+                count++;
+            }
+            last = set;
+        }
+        return count;
+    }
+
+    private static boolean ring(boolean[] image, int width, int height, int column, int row,
+                                int i) {
+        int c = column + RING_X[i];
+        int r = row + RING_Y[i];
+        return c >= 0 && r >= 0 && c < width && r < height && image[r * width + c];
+    }
+
+    private static int[] grow(int[] array, int count) {
+        return count < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
@@ -0,0 +1,50 @@
+package com.projecttango.examples.java.helloareadescription;
+
+/**
+ * A junction a route passes through and which way it leaves it, for guidance such as "at the
+ * junction, turn left". Immutable.
+ */
+final class Turn {
+    enum Direction {
+        LEFT,
+        STRAIGHT,
+        RIGHT
+    }
+
+    private final Node at;
+    private final Direction direction;
+    // Index of the junction's cell in the route's total path
+    private final int pathIndex;
+
+    Turn(Node at, Direction direction, int pathIndex) {
+        this.at = at;
+        this.direction = direction;
+        this.pathIndex = pathIndex;
+    }
+
+    Node getAt() {
+        return at;
+    }
+
+    Direction getDirection() {
+        return direction;
+    }
+
+    int getPathIndex() {
+        return pathIndex;
+    }
+
+    /**
+     * The instruction to speak, e.g. "At the junction, turn left".
+     */
+    String describe() {
+        switch (direction) {
+            case LEFT:
+                return "At the junction, turn left";
+            case RIGHT:
+                return "At the junction, turn right";
+            default:
+                return "At the junction, go straight on";
+        }
+    }
+}